@@ -0,0 +1,140 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.healthconnect.testeidutil.card.CardExecutor;
+import be.healthconnect.testeidutil.card.CardSession;
+import be.healthconnect.testeidutil.card.CardSessionManager;
+import be.healthconnect.testeidutil.card.CompiledApdu;
+import be.healthconnect.testeidutil.card.ReaderResult;
+import be.healthconnect.testeidutil.card.sim.CardSimulator;
+
+/**
+ * APDU round trips through the card engine against the {@link CardSimulator}, from the bare session to the asynchronous paths used by
+ * the GUI's send command. Reports both throughput and the latency distribution.
+ *
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardEngineBenchmark {
+
+	private static final CommandAPDU GET_CHALLENGE = new CommandAPDU(0x00, 0x84, 0x00, 0x00, 8);
+	private static final CompiledApdu COMPILED_GET_CHALLENGE = CompiledApdu.of(GET_CHALLENGE.getBytes());
+
+	/** Simulated card latency per command; 0 measures the engine overhead alone. */
+	@Param({ "0", "500" })
+	public long latencyMicros;
+
+	private CardSessionManager manager;
+	private CardSession session;
+	private CardExecutor executor;
+	private ByteBuffer response;
+
+	@Setup(Level.Trial)
+	public void setUp() throws CardException {
+		final CardSimulator simulator = new CardSimulator(1);
+		simulator.setLatency(latencyMicros, TimeUnit.MICROSECONDS);
+		manager = new CardSessionManager(simulator.getTerminalFactory(), Runnable::run);
+		final String terminalName = simulator.getReaderNames().get(0);
+		session = manager.getSession(terminalName);
+		executor = manager.getExecutor(terminalName);
+		response = manager.getBufferPool().acquire();
+		// connect outside the measurement
+		session.transmit(GET_CHALLENGE);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		manager.getBufferPool().release(response);
+		manager.close();
+	}
+
+	/**
+	 * Precompiled command into a pooled buffer on the calling thread: the allocation-free path.
+	 */
+	@Benchmark
+	public int sessionCompiled() throws CardException {
+		response.clear();
+		return session.transmit(COMPILED_GET_CHALLENGE, response);
+	}
+
+	/**
+	 * {@link CommandAPDU} in, {@link ResponseAPDU} out on the calling thread.
+	 */
+	@Benchmark
+	public ResponseAPDU session() throws CardException {
+		return session.transmit(GET_CHALLENGE);
+	}
+
+	/**
+	 * Single reader send command: hand-off to the reader's worker thread and back.
+	 */
+	@Benchmark
+	public ResponseAPDU executor() throws InterruptedException, ExecutionException {
+		return executor.transmit(GET_CHALLENGE).get();
+	}
+
+	/**
+	 * Multi-reader send command: the same command fanned out to every reader, waiting for all results.
+	 */
+	@Benchmark
+	public List<ReaderResult<ResponseAPDU>> allReaders(final MultiReader multiReader) throws InterruptedException, ExecutionException {
+		return multiReader.manager.submitToAll(session -> session.transmit(GET_CHALLENGE)).get();
+	}
+
+	/**
+	 * Simulator with several readers, for {@link CardEngineBenchmark#allReaders(MultiReader)}.
+	 */
+	@State(Scope.Benchmark)
+	public static class MultiReader {
+
+		@Param({ "1", "4", "16" })
+		public int readers;
+
+		private CardSessionManager manager;
+
+		@Setup(Level.Trial)
+		public void setUp(final CardEngineBenchmark benchmark) throws InterruptedException, ExecutionException {
+			final CardSimulator simulator = new CardSimulator(readers);
+			simulator.setLatency(benchmark.latencyMicros, TimeUnit.MICROSECONDS);
+			manager = new CardSessionManager(simulator.getTerminalFactory(), Runnable::run);
+			manager.submitToAll(session -> session.transmit(GET_CHALLENGE)).get();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			manager.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * Hex encoding and decoding from a command header to a full extended length payload.
+ *
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexCodecBenchmark {
+
+	@Param({ "5", "261", "4096", "65536" })
+	public int size;
+
+	private byte[] bytes;
+	private String hex;
+	private char[] chars;
+	private byte[] decoded;
+
+	@Setup
+	public void setUp() {
+		bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		hex = HexCodec.toHex(bytes);
+		chars = new char[2 * size];
+		decoded = new byte[size];
+	}
+
+	@Benchmark
+	public String encodeToString() {
+		return HexCodec.toHex(bytes);
+	}
+
+	@Benchmark
+	public char[] encodeToChars() {
+		HexCodec.encode(bytes, 0, bytes.length, chars, 0);
+		return chars;
+	}
+
+	@Benchmark
+	public byte[] decodeToArray() {
+		return HexCodec.decode(hex);
+	}
+
+	@Benchmark
+	public int decodeInto() {
+		return HexCodec.decode(hex, 0, hex.length(), decoded, 0);
+	}
+
+}
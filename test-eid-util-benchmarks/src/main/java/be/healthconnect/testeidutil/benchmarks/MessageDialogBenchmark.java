@@ -0,0 +1,109 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.healthconnect.testeidutil.controls.MessageDialog;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.layout.StackPane;
+import javafx.stage.Stage;
+
+/**
+ * {@link MessageDialog} construct, open and hide cost on the headless Monocle platform. Every operation runs on the JavaFX Application
+ * Thread, so each result includes one thread hop; {@link #fxRoundTrip()} measures that hop alone.
+ *
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+@SuppressWarnings("restriction")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw",
+		"-Djava.awt.headless=true" })
+public class MessageDialogBenchmark {
+
+	private Stage stage;
+	private MessageDialog dialog;
+
+	@Setup(Level.Trial)
+	public void setUp() throws InterruptedException, ExecutionException {
+		com.sun.javafx.application.PlatformImpl.startup(() -> {
+			// toolkit started
+		});
+		onFxThread(() -> {
+			stage = new Stage();
+			stage.setScene(new Scene(new StackPane(), 800, 600));
+			stage.show();
+			dialog = new MessageDialog(stage);
+			dialog.setMessage("The eID has been unblocked.");
+			return null;
+		});
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException, ExecutionException {
+		onFxThread(() -> {
+			stage.hide();
+			return null;
+		});
+		Platform.exit();
+	}
+
+	@Benchmark
+	public Object fxRoundTrip() throws InterruptedException, ExecutionException {
+		return onFxThread(() -> Boolean.TRUE);
+	}
+
+	@Benchmark
+	public MessageDialog construct() throws InterruptedException, ExecutionException {
+		return onFxThread(() -> new MessageDialog(stage));
+	}
+
+	@Benchmark
+	public MessageDialog openHide() throws InterruptedException, ExecutionException {
+		return onFxThread(() -> {
+			dialog.open();
+			dialog.hide();
+			return dialog;
+		});
+	}
+
+	@Benchmark
+	public MessageDialog constructOpenHide() throws InterruptedException, ExecutionException {
+		return onFxThread(() -> {
+			final MessageDialog newDialog = new MessageDialog(stage);
+			newDialog.setMessage("The eID has been unblocked.");
+			newDialog.open();
+			newDialog.hide();
+			return newDialog;
+		});
+	}
+
+	private static <V> V onFxThread(final Callable<V> callable) throws InterruptedException, ExecutionException {
+		final FutureTask<V> task = new FutureTask<>(callable);
+		Platform.runLater(task);
+		return task.get();
+	}
+
+}
@@ -0,0 +1,35 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil;
+
+import be.healthconnect.testeidutil.cli.TestEIDUtilCLI;
+import javafx.application.Application;
+
+/**
+ * Main class of the application jar. Does not extend {@link Application}, so that the java launcher does not start the JavaFX toolkit
+ * before {@link #main(String[])} runs, and the headless mode works without a display.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class Launcher {
+
+	private Launcher() {
+		super();
+	}
+
+	/**
+	 * Main method. Starts the headless command line mode if the first argument is {@value TestEIDUtilCLI#HEADLESS}, and the GUI otherwise.
+	 * 
+	 * @param args
+	 *            the command line arguments
+	 */
+	public static void main(final String[] args) {
+		if (TestEIDUtilCLI.isHeadless(args)) {
+			TestEIDUtilCLI.main(args);
+		} else {
+			Application.launch(TestEIDUtil.class, args);
+		}
+	}
+
+}
@@ -3,31 +3,63 @@
  */
 package be.healthconnect.testeidutil;
 
-import java.security.NoSuchAlgorithmException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.smartcardio.Card;
-import javax.smartcardio.CardException;
-import javax.smartcardio.CardTerminal;
-import javax.smartcardio.CardTerminals;
 import javax.smartcardio.CommandAPDU;
 import javax.smartcardio.ResponseAPDU;
-import javax.smartcardio.TerminalFactory;
-
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Hex;
 
+import be.healthconnect.testeidutil.card.ApduHistory;
+import be.healthconnect.testeidutil.card.ApduScript;
+import be.healthconnect.testeidutil.card.ApduScript.StepResult;
+import be.healthconnect.testeidutil.card.BulkUnblock;
+import be.healthconnect.testeidutil.card.CardEvent;
+import be.healthconnect.testeidutil.card.CardExecutor;
+import be.healthconnect.testeidutil.card.CardManifest;
+import be.healthconnect.testeidutil.card.CardMonitor;
+import be.healthconnect.testeidutil.card.CardSessionManager;
+import be.healthconnect.testeidutil.card.Macro;
+import be.healthconnect.testeidutil.card.MacroCatalogue;
+import be.healthconnect.testeidutil.card.MacroCatalogueWatcher;
+import be.healthconnect.testeidutil.controls.Stylesheets;
+import be.healthconnect.testeidutil.monitoring.JmxExporter;
+import be.healthconnect.testeidutil.monitoring.PrometheusEndpoint;
+import be.healthconnect.testeidutil.util.HexCodec;
+import be.healthconnect.testeidutil.util.StartupTimer;
 import be.healthconnect.testeidutil.view.Dialogs;
+import be.healthconnect.testeidutil.view.Dialogs.DialogResult;
 import be.healthconnect.testeidutil.view.javafx.FXDialogs;
+import be.healthconnect.testeidutil.view.javafx.HistoryPane;
+import be.healthconnect.testeidutil.view.javafx.MetricsPane;
+import be.healthconnect.testeidutil.view.javafx.ReaderResultsPane;
+import be.healthconnect.testeidutil.view.javafx.ScriptPane;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 /**
@@ -41,19 +73,60 @@ public class TestEIDUtil extends Application {
 
 	private static final Logger LOG = Logger.getLogger(TestEIDUtil.class.getName());
 
+	private static final String NO_INSERTION_JOB = "Do nothing";
+	private static final String SCRIPT_INSERTION_JOB = "Run script";
+	private static final String JMX_PARAMETER = "--jmx";
+	private static final String METRICS_PORT_PARAMETER = "metrics-port";
+	private static final String MACROS_PARAMETER = "macros";
+
+	private final CardSessionManager sessionManager = new CardSessionManager(CardSessionManager.PCSC, Platform::runLater);
+	private final CardMonitor cardMonitor = new CardMonitor(sessionManager);
+	private final MetricsPane metricsPane = new MetricsPane(sessionManager.getMetrics());
+	private final ApduHistory history = new ApduHistory(ApduHistory.DEFAULT_CAPACITY);
+	/** Macro parameters entered by the user, by macro name; only accessed on the JavaFX Application Thread. */
+	private final Map<String, Map<String, String>> macroParameters = new HashMap<>();
+	/** Retry questions that card workers are waiting for. */
+	private final Set<CompletableFuture<DialogResult>> pendingRetries = ConcurrentHashMap.newKeySet();
+	private HistoryPane historyPane;
+	private JmxExporter jmxExporter;
+	private PrometheusEndpoint prometheusEndpoint;
+	private MacroCatalogueWatcher macroWatcher;
+	private FXDialogs fxDialogs;
+
 	/**
-	 * Main method.
+	 * Main method. Delegates to {@link Launcher#main(String[])}, which is the main class of the application jar.
 	 * 
 	 * @param args
 	 */
 	public static void main(final String[] args) {
-		Application.launch(TestEIDUtil.class, args);
+		Launcher.main(args);
 	}
 
 	@Override
 	public void start(final Stage primaryStage) throws Exception {
+		final StartupTimer startup = new StartupTimer("toolkit");
+		sessionManager.addApduListener(history);
+		// load the PC/SC provider and the stylesheets while the window is being built
+		final long warmUpStart = System.nanoTime();
+		final CompletableFuture<Void> readersReady = sessionManager.warmUp().handle((names, error) -> {
+			if (error != null) {
+				LOG.log(Level.WARNING, "Card readers not available", error);
+				startup.record("card readers (not available)", System.nanoTime() - warmUpStart);
+			} else {
+				startup.record("card readers (" + names.size() + ")", System.nanoTime() - warmUpStart);
+			}
+			return null;
+		});
+		CompletableFuture.runAsync(Stylesheets::preload);
+		startMonitoring();
+		final String macroFile = getParameters().getNamed().get(MACROS_PARAMETER);
+		if (macroFile != null) {
+			macroWatcher = new MacroCatalogueWatcher(Paths.get(macroFile));
+		}
+		startup.mark("monitoring");
 		primaryStage.setTitle(getClass().getSimpleName());
-		final Dialogs dialogs = new FXDialogs(primaryStage);
+		fxDialogs = new FXDialogs(primaryStage);
+		final Dialogs dialogs = fxDialogs;
 
 		final TextField command = new TextField();
 		command.setPromptText("command in hex");
@@ -65,96 +138,426 @@ public class TestEIDUtil extends Application {
 		clearBtn.getStyleClass().add("emr-button");
 		clearBtn.setText("Clear");
 		clearBtn.setCancelButton(true);
-		final Button unblockBtn = new Button();
-		unblockBtn.getStyleClass().add("emr-button");
-		unblockBtn.setText("Unblock eID (1)");
-		final Button unblockBtn2 = new Button();
-		unblockBtn2.getStyleClass().add("emr-button");
-		unblockBtn2.setText("Unblock eID (2)");
-		final Button unblockBtn3 = new Button();
-		unblockBtn3.getStyleClass().add("emr-button");
-		unblockBtn3.setText("Unblock eID (3)");
+		final HBox macroPane = new HBox();
+		macroPane.setSpacing(10.0);
+		final Button bulkUnblockBtn = new Button();
+		bulkUnblockBtn.getStyleClass().add("emr-button");
+		bulkUnblockBtn.setText("Bulk unblock...");
+		final CheckBox allReaders = new CheckBox();
+		allReaders.setText("All readers");
 		final HBox btnPane = new HBox();
 		btnPane.setSpacing(10.0);
-		btnPane.getChildren().addAll(sendBtn, clearBtn, unblockBtn, unblockBtn2, unblockBtn3);
+		btnPane.setAlignment(Pos.CENTER_LEFT);
+		btnPane.getChildren().addAll(sendBtn, clearBtn, macroPane, bulkUnblockBtn, allReaders);
 		final TextField response = new TextField();
 		response.setPromptText("response in hex");
 		response.setEditable(false);
+		final ReaderResultsPane resultsPane = new ReaderResultsPane();
+		historyPane = new HistoryPane(history, primaryStage, dialogs);
+		final ScriptPane scriptPane = new ScriptPane(primaryStage, sessionManager, dialogs, allReaders.selectedProperty(), resultsPane);
+		final ComboBox<String> insertionJob = new ComboBox<>();
+		insertionJob.valueProperty().addListener((property, oldJob, job) -> {
+			// insertion jobs run unattended, so their parameters are asked for up front
+			final Macro macro = job == null ? null : getMacroCatalogue().forLabel(job);
+			if (macro != null && !macroParameters.containsKey(macro.getName())) {
+				promptParameters(macro, dialogs);
+			}
+		});
+		final Runnable showMacros = () -> showMacros(macroPane, insertionJob, allReaders, response, resultsPane, dialogs);
+		showMacros.run();
+		if (macroWatcher != null) {
+			macroWatcher.addListener(catalogue -> Platform.runLater(showMacros));
+		}
+		final Label cardStatus = new Label();
+		final HBox monitorPane = new HBox();
+		monitorPane.setSpacing(10.0);
+		monitorPane.setAlignment(Pos.CENTER_LEFT);
+		monitorPane.getChildren().addAll(new Label("On card insertion:"), insertionJob, cardStatus);
 
 		final VBox pane = new VBox();
 		pane.getStyleClass().add("application-bg");
 		pane.setSpacing(10.0);
 		pane.setPadding(new Insets(10.0));
 		pane.setMinWidth(300.0);
-		pane.getChildren().addAll(command, btnPane, response);
-
-		sendBtn.setOnAction(actionEvent -> {
-			try {
-				response.setText(sendCommand(command.getText()));
-			} catch (final Exception e) {
-				LOG.log(Level.WARNING, "An error occurred", e);
-				dialogs.error(e, null);
-			}
-		});
+		pane.getChildren().addAll(command, btnPane, response, monitorPane, scriptPane, resultsPane, metricsPane, historyPane);
+
+		sendBtn.setOnAction(actionEvent -> sendCommand(command.getText(), allReaders.isSelected(), response, resultsPane, dialogs));
 
 		clearBtn.setOnAction(actionEvent -> {
 			command.clear();
 			response.clear();
 		});
 
-		unblockBtn.setOnAction(actionEvent -> {
-			try {
-				response.setText(sendCommand("00200084082C222222111111FF"));
-			} catch (final Exception e) {
-				LOG.log(Level.WARNING, "An error occurred", e);
-				dialogs.error(e, null);
-			}
-		});
+		bulkUnblockBtn.setOnAction(actionEvent -> bulkUnblock(primaryStage, resultsPane, dialogs));
 
-		unblockBtn2.setOnAction(actionEvent -> {
-			try {
-				response.setText(sendCommand("00200084082C111111222222FF"));
-			} catch (final Exception e) {
-				LOG.log(Level.WARNING, "An error occurred", e);
-				dialogs.error(e, null);
+		cardMonitor.addListener(cardEvent -> {
+			cardStatus.setText(cardEvent.toString());
+			if (cardEvent.getType() == CardEvent.Type.INSERTED) {
+				runInsertionJob(insertionJob.getValue(), cardEvent.getTerminalName(), scriptPane, resultsPane, dialogs);
 			}
 		});
+		cardMonitor.start();
 
-		unblockBtn3.setOnAction(actionEvent -> {
-			try {
-				response.setText(sendCommand("002C0001082C222222111111FF"));
-			} catch (final Exception e) {
-				LOG.log(Level.WARNING, "An error occurred", e);
-				dialogs.error(e, null);
-			}
-		});
+		startup.mark("scene graph");
 
 		final Scene scene = new Scene(pane);
 		primaryStage.setScene(scene);
 		primaryStage.show();
 		primaryStage.toFront();
+		startup.mark("window");
+		readersReady.thenRun(() -> LOG.info("Startup: " + startup));
+	}
+
+	@Override
+	public void stop() throws Exception {
+		metricsPane.stop();
+		if (historyPane != null) {
+			historyPane.stop();
+		}
+		if (fxDialogs != null) {
+			LOG.info(String.format("Dialogs closed: %d message dialogs reused (%d created), %d error dialogs reused (%d created)",
+					fxDialogs.getMessageDialogPool().getHitCount(), fxDialogs.getMessageDialogPool().getMissCount(),
+					fxDialogs.getErrorDialogPool().getHitCount(), fxDialogs.getErrorDialogPool().getMissCount()));
+		}
+		if (prometheusEndpoint != null) {
+			prometheusEndpoint.close();
+		}
+		if (jmxExporter != null) {
+			jmxExporter.close();
+		}
+		if (macroWatcher != null) {
+			macroWatcher.close();
+		}
+		cardMonitor.close();
+		// let card workers that wait for a retry answer finish right away
+		pendingRetries.forEach(answer -> answer.cancel(false));
+		sessionManager.close();
+		super.stop();
+	}
+
+	/**
+	 * Starts the monitoring endpoints requested on the command line: <code>--jmx</code> registers the MBeans, and
+	 * <code>--metrics-port=PORT</code> serves the metrics in Prometheus text format on the loopback address.
+	 * 
+	 * @throws Exception
+	 *             if an endpoint could not be started
+	 */
+	private void startMonitoring() throws Exception {
+		if (getParameters().getUnnamed().contains(JMX_PARAMETER)) {
+			jmxExporter = new JmxExporter(sessionManager);
+		}
+		final String metricsPort = getParameters().getNamed().get(METRICS_PORT_PARAMETER);
+		if (metricsPort != null) {
+			prometheusEndpoint = new PrometheusEndpoint(sessionManager, Integer.parseInt(metricsPort));
+			LOG.info("Serving metrics on http://127.0.0.1:" + prometheusEndpoint.getPort() + PrometheusEndpoint.PATH);
+		}
 	}
 
 	/**
-	 * Sends the given command string to the eID.
+	 * Sends the given command string to the eID in the background, reusing the open card session. The response is shown when it arrives;
+	 * the JavaFX Application Thread is not blocked in the meantime.
 	 * 
 	 * @param command
 	 *            the command string in hex
-	 * @return the response in hex
-	 * @throws CardException
-	 * @throws DecoderException
+	 * @param allReaders
+	 *            whether to send the command to all card readers that hold a card, instead of the first card reader
+	 * @param response
+	 *            the field in which to show the response in hex
+	 * @param resultsPane
+	 *            the pane in which to show the results of a multi-reader run
+	 * @param dialogs
+	 *            the dialogs for reporting errors
+	 */
+	private void sendCommand(final String command, final boolean allReaders, final TextField response,
+			final ReaderResultsPane resultsPane, final Dialogs dialogs) {
+		final CommandAPDU cAPDU;
+		try {
+			cAPDU = new CommandAPDU(HexCodec.decode(command));
+		} catch (final IllegalArgumentException e) {
+			LOG.log(Level.WARNING, "An error occurred", e);
+			dialogs.error(e, null);
+			return;
+		}
+		if (allReaders) {
+			final long start = System.nanoTime();
+			sessionManager.submitToAll(session -> session.transmit(cAPDU)).whenComplete((results, error) -> {
+				if (error != null) {
+					final Throwable cause = CardExecutor.unwrap(error);
+					LOG.log(Level.WARNING, "An error occurred", cause);
+					dialogs.error(cause, null);
+				} else {
+					resultsPane.show(results, TestEIDUtil::toHex, System.nanoTime() - start);
+				}
+			});
+			return;
+		}
+		sessionManager.getExecutor().transmit(cAPDU, rAPDU -> response.setText(toHex(rAPDU)), e -> {
+			LOG.log(Level.WARNING, "An error occurred", e);
+			dialogs.error(e, null);
+		});
+	}
+
+	/**
+	 * Lets the user choose a card manifest, and unblocks the cards in all card readers with it. The outcome per card reader is shown in
+	 * the reader results.
+	 * 
+	 * @param owner
+	 *            the owner of the file chooser
+	 * @param resultsPane
+	 *            the pane in which to show the outcomes
+	 * @param dialogs
+	 *            the dialogs for reporting errors
 	 */
-	private String sendCommand(final String command) throws CardException, DecoderException, NoSuchAlgorithmException {
-		final byte[] commandBytes = Hex.decodeHex(command.toCharArray());
-		final CommandAPDU cAPDU = new CommandAPDU(commandBytes);
-		final CardTerminals terminals = TerminalFactory.getInstance("PC/SC", null).terminals();
-		final List<CardTerminal> terminalList = terminals.list();
-		final Card card = terminalList.iterator().next().connect("*");
-		card.beginExclusive();
-		final ResponseAPDU rAPDU = card.getBasicChannel().transmit(cAPDU);
-		card.endExclusive();
-		card.disconnect(true);
-		return new String(Hex.encodeHex(rAPDU.getBytes()));
+	private void bulkUnblock(final Stage owner, final ReaderResultsPane resultsPane, final Dialogs dialogs) {
+		final FileChooser chooser = new FileChooser();
+		chooser.setTitle("Load card manifest");
+		final File file = chooser.showOpenDialog(owner);
+		if (file == null) {
+			return;
+		}
+		final CardManifest manifest;
+		try {
+			manifest = CardManifest.load(file.toPath());
+		} catch (final IOException | IllegalArgumentException e) {
+			LOG.log(Level.WARNING, "An error occurred", e);
+			dialogs.error(e, null);
+			return;
+		}
+		final long start = System.nanoTime();
+		new BulkUnblock(manifest).run(sessionManager).whenComplete((results, error) -> {
+			if (error != null) {
+				final Throwable cause = CardExecutor.unwrap(error);
+				LOG.log(Level.WARNING, "An error occurred", cause);
+				dialogs.error(cause, null);
+			} else {
+				resultsPane.show(results, BulkUnblock.Outcome::toString, System.nanoTime() - start);
+			}
+		});
+	}
+
+	/**
+	 * Returns the current macro catalogue: the one given with <code>--macros=FILE</code>, or the built-in one.
+	 * 
+	 * @return the macro catalogue
+	 */
+	private MacroCatalogue getMacroCatalogue() {
+		return macroWatcher != null ? macroWatcher.getCatalogue() : MacroCatalogue.getDefault();
+	}
+
+	/**
+	 * Shows a button and an insertion job for each macro in the current catalogue, keeping the selected insertion job if it still exists.
+	 * 
+	 * @param macroPane
+	 *            the pane that holds the macro buttons
+	 * @param insertionJob
+	 *            the insertion job selector
+	 * @param allReaders
+	 *            whether macros run on all card readers
+	 * @param response
+	 *            the field in which to show the last response in hex
+	 * @param resultsPane
+	 *            the pane in which to show the results of a multi-reader run
+	 * @param dialogs
+	 *            the dialogs for reporting errors
+	 */
+	private void showMacros(final HBox macroPane, final ComboBox<String> insertionJob, final CheckBox allReaders, final TextField response,
+			final ReaderResultsPane resultsPane, final Dialogs dialogs) {
+		final List<Button> buttons = new ArrayList<>();
+		final List<String> jobs = new ArrayList<>();
+		jobs.add(NO_INSERTION_JOB);
+		for (final Macro macro : getMacroCatalogue().getMacros()) {
+			final Button button = new Button();
+			button.getStyleClass().add("emr-button");
+			button.setText(macro.getLabel());
+			button.setOnAction(actionEvent -> promptParameters(macro, dialogs).thenAccept(parameters -> {
+				if (parameters != null) {
+					runMacro(macro, parameters, allReaders.isSelected(), response, resultsPane, dialogs);
+				}
+			}));
+			buttons.add(button);
+			jobs.add(macro.getLabel());
+		}
+		jobs.add(SCRIPT_INSERTION_JOB);
+		macroPane.getChildren().setAll(buttons);
+		final String selected = insertionJob.getValue();
+		insertionJob.getItems().setAll(jobs);
+		insertionJob.getSelectionModel().select(jobs.contains(selected) ? selected : NO_INSERTION_JOB);
+	}
+
+	/**
+	 * Runs the selected job on a freshly inserted card, and adds the result to the reader results. A macro runs with the parameters last
+	 * entered for it. When a status word check fails, the user is asked whether to retry, while the other card readers carry on.
+	 * 
+	 * @param job
+	 *            the selected job: {@link #NO_INSERTION_JOB}, {@link #SCRIPT_INSERTION_JOB} or a macro label
+	 * @param terminalName
+	 *            the card reader that holds the card
+	 * @param scriptPane
+	 *            the script pane that holds the script for {@link #SCRIPT_INSERTION_JOB}
+	 * @param resultsPane
+	 *            the pane in which to show the result
+	 * @param dialogs
+	 *            the dialogs for reporting errors
+	 */
+	private void runInsertionJob(final String job, final String terminalName, final ScriptPane scriptPane,
+			final ReaderResultsPane resultsPane, final Dialogs dialogs) {
+		if (job == null || NO_INSERTION_JOB.equals(job)) {
+			return;
+		}
+		final Macro macro = getMacroCatalogue().forLabel(job);
+		if (macro == null && !SCRIPT_INSERTION_JOB.equals(job)) {
+			LOG.warning("Macro no longer in the catalogue: " + job);
+			return;
+		}
+		final Map<String, String> parameters = macro == null ? Collections.emptyMap()
+				: macroParameters.getOrDefault(macro.getName(), Collections.emptyMap());
+		final ApduScript script;
+		try {
+			script = SCRIPT_INSERTION_JOB.equals(job) ? scriptPane.parseScript() : macro.getScript();
+		} catch (final IllegalArgumentException e) {
+			LOG.log(Level.WARNING, "An error occurred", e);
+			dialogs.error(e, null);
+			return;
+		}
+		sessionManager.submit(terminalName, session -> {
+			List<StepResult> stepResults = script.execute(session, parameters, null);
+			final long cardId = session.getCardId();
+			// only this card reader waits for the answer
+			while (!script.isPassed(stepResults) && askRetry(dialogs.messageAsync(
+					String.format("%s failed on %s: %s", job, terminalName, summarize(script, stepResults)), "Insertion job", true,
+					"Retry", "Skip"))) {
+				// the card may have been swapped while the question was open: never retry on another card
+				if (session.isCardRemoved()) {
+					LOG.info("Card removed from " + terminalName + ", not retrying " + job);
+					break;
+				}
+				session.beginExclusive();
+				try {
+					if (session.getCardId() != cardId) {
+						LOG.info("Card replaced in " + terminalName + ", not retrying " + job);
+						break;
+					}
+					stepResults = script.execute(session, parameters, null);
+				} finally {
+					session.endExclusive();
+				}
+			}
+			return stepResults;
+		}).thenAccept(result -> {
+			resultsPane.add(result, stepResults -> summarize(script, stepResults));
+			if (!result.isSuccess()) {
+				dialogs.error(terminalName, result.getError(), null);
+			}
+		});
+	}
+
+	/**
+	 * Waits on the card worker for the answer to a retry question. Gives up when the application stops, or when the worker is
+	 * interrupted.
+	 * 
+	 * @param answer
+	 *            the answer of the user
+	 * @return <code>true</code> if the user chose to retry
+	 */
+	private boolean askRetry(final CompletableFuture<DialogResult> answer) {
+		pendingRetries.add(answer);
+		try {
+			return answer.get() == DialogResult.OK;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (final CancellationException e) {
+			return false;
+		} catch (final ExecutionException e) {
+			LOG.log(Level.WARNING, "An error occurred", e.getCause());
+			return false;
+		} finally {
+			pendingRetries.remove(answer);
+		}
+	}
+
+	/**
+	 * Lets the user enter the parameters of the given macro, starting from the values entered last time or else the defaults of the
+	 * catalogue. The entered values are kept for the next prompt and for insertion jobs.
+	 * 
+	 * @param macro
+	 *            the macro
+	 * @param dialogs
+	 *            the dialogs in which to ask for the parameters
+	 * @return a future that completes on the JavaFX Application Thread with the parameters, right away if the macro has none, or with
+	 *         <code>null</code> if the user cancelled
+	 */
+	private CompletableFuture<Map<String, String>> promptParameters(final Macro macro, final Dialogs dialogs) {
+		final Map<String, String> defaults = macro.getScript().getVariables();
+		if (defaults.isEmpty()) {
+			return CompletableFuture.completedFuture(Collections.emptyMap());
+		}
+		final Map<String, String> values = new LinkedHashMap<>(defaults);
+		final Map<String, String> entered = macroParameters.get(macro.getName());
+		if (entered != null) {
+			// parameters that are no longer in the catalogue are dropped
+			entered.forEach(values::replace);
+		}
+		return dialogs.parametersAsync("Parameters for " + macro.getLabel() + ":", macro.getLabel(), values).thenApply(parameters -> {
+			if (parameters != null) {
+				macroParameters.put(macro.getName(), parameters);
+			}
+			return parameters;
+		});
+	}
+
+	/**
+	 * Runs the given macro in the background, reusing the open card session. The last response is shown when the macro is done.
+	 * 
+	 * @param macro
+	 *            the macro to run
+	 * @param parameters
+	 *            the values of the macro parameters, overriding the defaults of the catalogue
+	 * @param allReaders
+	 *            whether to run the macro on all card readers that hold a card, instead of the first card reader
+	 * @param response
+	 *            the field in which to show the last response in hex
+	 * @param resultsPane
+	 *            the pane in which to show the results of a multi-reader run
+	 * @param dialogs
+	 *            the dialogs for reporting errors
+	 */
+	private void runMacro(final Macro macro, final Map<String, String> parameters, final boolean allReaders, final TextField response,
+			final ReaderResultsPane resultsPane, final Dialogs dialogs) {
+		final ApduScript script = macro.getScript();
+		if (allReaders) {
+			final long start = System.nanoTime();
+			sessionManager.submitToAll(script.task(parameters, null)).whenComplete((results, error) -> {
+				if (error != null) {
+					final Throwable cause = CardExecutor.unwrap(error);
+					LOG.log(Level.WARNING, "An error occurred", cause);
+					dialogs.error(cause, null);
+				} else {
+					resultsPane.show(results, stepResults -> summarize(script, stepResults), System.nanoTime() - start);
+				}
+			});
+			return;
+		}
+		sessionManager.getExecutor().submit(script.task(parameters, null), stepResults -> {
+			if (!stepResults.isEmpty()) {
+				response.setText(toHex(stepResults.get(stepResults.size() - 1).getResponse()));
+			}
+		}, e -> {
+			LOG.log(Level.WARNING, "An error occurred", e);
+			dialogs.error(e, null);
+		});
+	}
+
+	private static String summarize(final ApduScript script, final List<StepResult> stepResults) {
+		if (script.getSteps().size() == 1 && stepResults.size() == 1) {
+			return toHex(stepResults.get(0).getResponse());
+		}
+		return (script.isPassed(stepResults) ? "Passed: " : "FAILED: ") + stepResults.size() + " of " + script.getSteps().size()
+				+ " commands";
+	}
+
+	private static String toHex(final ResponseAPDU rAPDU) {
+		return HexCodec.toHex(rAPDU.getBytes());
 	}
 
 }
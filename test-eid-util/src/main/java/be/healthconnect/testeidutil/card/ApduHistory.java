@@ -0,0 +1,249 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * In-memory history of the card traffic of all sessions, in a ring of fixed capacity: once full, the oldest entries are overwritten.
+ * Entries live in primitive arrays allocated up front, so recording does not allocate and memory use does not grow with the number of
+ * commands. Commands and responses are kept up to {@link #DATA_LENGTH} bytes each; use a
+ * {@link be.healthconnect.testeidutil.trace.TraceRecorder} for the complete traffic.
+ * <p>
+ * Entries are addressed by sequence number: the first command ever recorded is 0. An entry is available while its sequence number is at
+ * least {@link #getFirstSequence()} and below {@link #getNextSequence()}.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class ApduHistory implements ApduListener {
+
+	/** Default number of entries. */
+	public static final int DEFAULT_CAPACITY = 100000;
+	/** Maximum number of command bytes and of response bytes kept per entry. */
+	public static final int DATA_LENGTH = 32;
+
+	private final int capacity;
+	private final long baseMicros;
+	private final long baseNanos;
+	private final long[] timestamps;
+	private final long[] durations;
+	private final long[] cardIds;
+	private final short[] readers;
+	private final int[] commandLengths;
+	private final int[] responseLengths;
+	private final byte[] data;
+	private final List<String> readerNames = new ArrayList<>();
+	private final Map<String, Short> readerIndexes = new HashMap<>();
+
+	private long nextSequence;
+
+	/**
+	 * Creates a new {@link ApduHistory}.
+	 * 
+	 * @param capacity
+	 *            the maximum number of entries
+	 */
+	public ApduHistory(final int capacity) {
+		super();
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		this.baseMicros = System.currentTimeMillis() * 1000L;
+		this.baseNanos = System.nanoTime();
+		timestamps = new long[capacity];
+		durations = new long[capacity];
+		cardIds = new long[capacity];
+		readers = new short[capacity];
+		commandLengths = new int[capacity];
+		responseLengths = new int[capacity];
+		data = new byte[capacity * 2 * DATA_LENGTH];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void connected(final String terminalName, final long cardId, final byte[] atr) {
+		// only commands are recorded
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void transmitted(final String terminalName, final long cardId, final long startNanos, final long durationNanos,
+			final ByteBuffer command, final ByteBuffer response) {
+		final int slot = (int) (nextSequence % capacity);
+		timestamps[slot] = baseMicros + (startNanos - baseNanos) / 1000L;
+		durations[slot] = durationNanos;
+		cardIds[slot] = cardId;
+		readers[slot] = readerIndex(terminalName);
+		commandLengths[slot] = command.remaining();
+		responseLengths[slot] = response.remaining();
+		copy(command, slot * 2 * DATA_LENGTH);
+		copy(response, slot * 2 * DATA_LENGTH + DATA_LENGTH);
+		nextSequence++;
+	}
+
+	/**
+	 * Returns the maximum number of entries.
+	 * 
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the sequence number of the oldest available entry.
+	 * 
+	 * @return the first sequence number
+	 */
+	public synchronized long getFirstSequence() {
+		return Math.max(0L, nextSequence - capacity);
+	}
+
+	/**
+	 * Returns the sequence number that the next entry will get, which is the number of commands recorded so far.
+	 * 
+	 * @return the next sequence number
+	 */
+	public synchronized long getNextSequence() {
+		return nextSequence;
+	}
+
+	/**
+	 * Returns the names of the card readers seen so far.
+	 * 
+	 * @return the card reader names, in order of first appearance
+	 */
+	public synchronized List<String> getReaderNames() {
+		return new ArrayList<>(readerNames);
+	}
+
+	/**
+	 * Returns whether the given entry was sent through the given card reader and has a status word that matches the given pattern.
+	 * 
+	 * @param sequence
+	 *            the sequence number of the entry
+	 * @param readerName
+	 *            the card reader name, or <code>null</code> for any card reader
+	 * @param swPattern
+	 *            the status word pattern, or <code>null</code> for any status word
+	 * @param swNegate
+	 *            <code>true</code> to match the entries whose status word does <em>not</em> match the pattern
+	 * @return <code>true</code> if the entry is available and matches
+	 */
+	public synchronized boolean matches(final long sequence, final String readerName, final StatusWordPattern swPattern,
+			final boolean swNegate) {
+		if (!isAvailable(sequence)) {
+			return false;
+		}
+		final int slot = (int) (sequence % capacity);
+		if (readerName != null && !readerName.equals(readerNames.get(readers[slot]))) {
+			return false;
+		}
+		if (swPattern == null) {
+			return true;
+		}
+		final int sw = getSW(slot);
+		return sw >= 0 && swPattern.matches(sw) != swNegate;
+	}
+
+	/**
+	 * Formats the given entry as a line of tab separated fields: timestamp, card reader, card connection, duration in milliseconds, status
+	 * word, command and response in hex. Of a command or response longer than {@link #DATA_LENGTH} bytes, only the first and last bytes
+	 * are shown, followed by the total length in brackets.
+	 * 
+	 * @param sequence
+	 *            the sequence number of the entry
+	 * @return the formatted entry, or <code>null</code> if the entry has been overwritten or was never recorded
+	 */
+	public synchronized String format(final long sequence) {
+		if (!isAvailable(sequence)) {
+			return null;
+		}
+		final int slot = (int) (sequence % capacity);
+		final StringBuilder line = new StringBuilder(160);
+		final long micros = timestamps[slot];
+		line.append(Instant.ofEpochSecond(micros / 1000000L, micros % 1000000L * 1000L)).append('\t');
+		line.append(readerNames.get(readers[slot])).append('\t');
+		line.append("card ").append(cardIds[slot]).append('\t');
+		line.append(String.format("%.3f ms", durations[slot] / 1000000.0)).append('\t');
+		final int sw = getSW(slot);
+		line.append(sw < 0 ? "----" : String.format("%04X", sw)).append('\t');
+		appendHex(line, slot * 2 * DATA_LENGTH, commandLengths[slot]);
+		line.append(" -> ");
+		appendHex(line, slot * 2 * DATA_LENGTH + DATA_LENGTH, responseLengths[slot]);
+		return line.toString();
+	}
+
+	private boolean isAvailable(final long sequence) {
+		return sequence >= 0 && sequence < nextSequence && sequence >= nextSequence - capacity;
+	}
+
+	/**
+	 * Returns the status word of the given slot.
+	 * 
+	 * @return the status word, or -1 if the response is shorter than 2 bytes
+	 */
+	private int getSW(final int slot) {
+		final int length = responseLengths[slot];
+		if (length < 2) {
+			return -1;
+		}
+		// a long response keeps its status word in the last 2 bytes of the slot
+		final int end = slot * 2 * DATA_LENGTH + DATA_LENGTH + Math.min(length, DATA_LENGTH);
+		return (data[end - 2] & 0xFF) << 8 | data[end - 1] & 0xFF;
+	}
+
+	/**
+	 * Copies the given APDU into the data slot at the given offset. An APDU that does not fit keeps its first bytes and, in the last 2
+	 * bytes of the slot, its last 2 bytes, which hold the status word of a response.
+	 */
+	private void copy(final ByteBuffer apdu, final int offset) {
+		final int position = apdu.position();
+		final int length = apdu.remaining();
+		if (length <= DATA_LENGTH) {
+			for (int i = 0; i < length; i++) {
+				data[offset + i] = apdu.get(position + i);
+			}
+			return;
+		}
+		for (int i = 0; i < DATA_LENGTH - 2; i++) {
+			data[offset + i] = apdu.get(position + i);
+		}
+		data[offset + DATA_LENGTH - 2] = apdu.get(position + length - 2);
+		data[offset + DATA_LENGTH - 1] = apdu.get(position + length - 1);
+	}
+
+	private void appendHex(final StringBuilder line, final int offset, final int length) {
+		if (length <= DATA_LENGTH) {
+			HexCodec.append(line, data, offset, length);
+		} else {
+			HexCodec.append(line, data, offset, DATA_LENGTH - 2).append("..");
+			HexCodec.append(line, data, offset + DATA_LENGTH - 2, 2).append(" [").append(length).append(']');
+		}
+	}
+
+	private short readerIndex(final String terminalName) {
+		final Short index = readerIndexes.get(terminalName);
+		if (index != null) {
+			return index;
+		}
+		final short newIndex = (short) readerNames.size();
+		readerNames.add(terminalName);
+		readerIndexes.put(terminalName, newIndex);
+		return newIndex;
+	}
+
+}
@@ -0,0 +1,47 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Observes the card traffic of all sessions of a {@link CardSessionManager}. Listeners are called on the card worker thread, right after
+ * each exchange, so they must not block and should not allocate.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public interface ApduListener {
+
+	/**
+	 * Called after a card has been connected.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 * @param cardId
+	 *            the identifier of this card connection, unique within the {@link CardSessionManager}
+	 * @param atr
+	 *            the answer to reset of the card
+	 */
+	void connected(String terminalName, long cardId, byte[] atr);
+
+	/**
+	 * Called after a single command has been exchanged with the card, including GET RESPONSE commands and wrong length retries. The
+	 * buffers must not be modified nor kept.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 * @param cardId
+	 *            the identifier of the card connection
+	 * @param startNanos
+	 *            the {@link System#nanoTime()} at which the command was sent
+	 * @param durationNanos
+	 *            the time the exchange took
+	 * @param command
+	 *            the command APDU, between position and limit
+	 * @param response
+	 *            the response APDU, between position and limit
+	 */
+	void transmitted(String terminalName, long cardId, long startNanos, long durationNanos, ByteBuffer command, ByteBuffer response);
+
+}
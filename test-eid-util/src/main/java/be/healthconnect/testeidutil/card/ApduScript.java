@@ -0,0 +1,384 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.ResponseAPDU;
+
+import be.healthconnect.testeidutil.concurrent.CallResponse;
+
+/**
+ * Sequence of command APDUs that is sent to the card within a single exclusive section. Script syntax, one statement per line:
+ * 
+ * <pre>
+ * # comment (also: // comment)
+ * PUK = 222222111111
+ * 00 20 00 84 08 2C ${PUK} FF -&gt; 9000
+ * 00 B0 00 00 00
+ * </pre>
+ * 
+ * A line <code>NAME = value</code> defines a variable; variables can be overridden when the script is executed. Any other line is a
+ * command APDU in hex, optionally followed by <code>-&gt;</code> and the expected status word (see {@link StatusWordPattern}). Execution
+ * stops at the first command whose status word does not match. All commands are compiled once with the script's own variable values,
+ * when the script is parsed; only runs that override variables compile again.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class ApduScript {
+
+	private static final Pattern VARIABLE_DEFINITION = Pattern.compile("([A-Za-z_][A-Za-z0-9_]*)\\s*=(.*)");
+	private static final String EXPECT = "->";
+
+	/**
+	 * Command statement of a script.
+	 * 
+	 * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+	 */
+	public static final class Step {
+
+		private final int line;
+		private final ApduTemplate command;
+		private final CompiledApdu compiled;
+		private final StatusWordPattern expected;
+
+		Step(final int line, final ApduTemplate command, final StatusWordPattern expected) {
+			this.line = line;
+			this.command = command;
+			this.compiled = command.isConstant() ? command.compile(Collections.<String, String> emptyMap()) : null;
+			this.expected = expected;
+		}
+
+		/**
+		 * Returns the script line number.
+		 * 
+		 * @return the line number, starting from 1
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * Returns the command template.
+		 * 
+		 * @return the command template
+		 */
+		public ApduTemplate getCommand() {
+			return command;
+		}
+
+		/**
+		 * Returns the expected status word.
+		 * 
+		 * @return the expected status word, or <code>null</code> if any status word is accepted
+		 */
+		public StatusWordPattern getExpected() {
+			return expected;
+		}
+
+		/**
+		 * Returns the compiled command.
+		 * 
+		 * @param values
+		 *            the variable values in hex
+		 * @return the precompiled command if the command is constant, otherwise the command compiled with the given values
+		 */
+		CompiledApdu compile(final Map<String, String> values) {
+			return compiled != null ? compiled : command.compile(values);
+		}
+
+	}
+
+	/**
+	 * Outcome of a single {@link Step}.
+	 * 
+	 * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+	 */
+	public static final class StepResult {
+
+		private final Step step;
+		private final CompiledApdu command;
+		private final ResponseAPDU response;
+		private final long durationNanos;
+
+		StepResult(final Step step, final CompiledApdu command, final ResponseAPDU response, final long durationNanos) {
+			this.step = step;
+			this.command = command;
+			this.response = response;
+			this.durationNanos = durationNanos;
+		}
+
+		public Step getStep() {
+			return step;
+		}
+
+		public CompiledApdu getCommand() {
+			return command;
+		}
+
+		public ResponseAPDU getResponse() {
+			return response;
+		}
+
+		public long getDurationNanos() {
+			return durationNanos;
+		}
+
+		/**
+		 * Returns whether the response status word matches the expected status word.
+		 * 
+		 * @return <code>true</code> if the status word matches or no status word was expected
+		 */
+		public boolean isPassed() {
+			return step.getExpected() == null || step.getExpected().matches(response.getSW());
+		}
+
+	}
+
+	private final List<Step> steps;
+	private final Map<String, String> variables;
+	private final List<CompiledApdu> defaultCommands;
+
+	private ApduScript(final List<Step> steps, final Map<String, String> variables) {
+		this.steps = Collections.unmodifiableList(steps);
+		this.variables = Collections.unmodifiableMap(variables);
+		this.defaultCommands = compileDefaults(steps, variables);
+	}
+
+	/**
+	 * Compiles all steps with the script's own variable values.
+	 * 
+	 * @return the compiled commands, or <code>null</code> if a step needs a variable that is not defined in the script
+	 */
+	private static List<CompiledApdu> compileDefaults(final List<Step> steps, final Map<String, String> variables) {
+		final List<CompiledApdu> commands = new ArrayList<>(steps.size());
+		for (final Step step : steps) {
+			try {
+				commands.add(step.compile(variables));
+			} catch (final IllegalArgumentException e) {
+				// reported with its line number when the script is executed
+				return null;
+			}
+		}
+		return Collections.unmodifiableList(commands);
+	}
+
+	/**
+	 * Parses the given script text.
+	 * 
+	 * @param text
+	 *            the script text
+	 * @return the parsed {@link ApduScript}
+	 * @throws IllegalArgumentException
+	 *             if the script contains a syntax error
+	 */
+	public static ApduScript parse(final String text) {
+		try {
+			return parse(new StringReader(text));
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Parses the given script file.
+	 * 
+	 * @param file
+	 *            the script file (UTF-8)
+	 * @return the parsed {@link ApduScript}
+	 * @throws IOException
+	 *             if the file cannot be read
+	 * @throws IllegalArgumentException
+	 *             if the script contains a syntax error
+	 */
+	public static ApduScript load(final Path file) throws IOException {
+		try (final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return parse(reader);
+		}
+	}
+
+	/**
+	 * Parses the given script.
+	 * 
+	 * @param reader
+	 *            the script source
+	 * @return the parsed {@link ApduScript}
+	 * @throws IOException
+	 *             if the script cannot be read
+	 * @throws IllegalArgumentException
+	 *             if the script contains a syntax error
+	 */
+	public static ApduScript parse(final Reader reader) throws IOException {
+		final List<Step> steps = new ArrayList<>();
+		final Map<String, String> variables = new LinkedHashMap<>();
+		final BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+		String line;
+		int lineNumber = 0;
+		while ((line = lines.readLine()) != null) {
+			lineNumber++;
+			final String statement = stripComment(line).trim();
+			if (statement.isEmpty()) {
+				continue;
+			}
+			try {
+				final Matcher definition = VARIABLE_DEFINITION.matcher(statement);
+				if (definition.matches()) {
+					variables.put(definition.group(1), definition.group(2).trim());
+				} else {
+					steps.add(parseStep(lineNumber, statement));
+				}
+			} catch (final IllegalArgumentException e) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+			}
+		}
+		return new ApduScript(steps, variables);
+	}
+
+	/**
+	 * Returns the command steps.
+	 * 
+	 * @return the steps
+	 */
+	public List<Step> getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns the variables defined in the script.
+	 * 
+	 * @return the variable names and their default values
+	 */
+	public Map<String, String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Executes the script in a single exclusive section of the given session.
+	 * 
+	 * @param session
+	 *            the card session
+	 * @param overrides
+	 *            variable values that override the script's own definitions, may be empty
+	 * @param onStep
+	 *            invoked on the calling thread after each step, may be <code>null</code>
+	 * @return the step results, up to and including the first failed step
+	 * @throws CardException
+	 *             if communication with the card fails
+	 * @throws IllegalArgumentException
+	 *             if a command refers to an undefined variable or is not a valid command APDU
+	 */
+	public List<StepResult> execute(final CardSession session, final Map<String, String> overrides, final CallResponse<StepResult> onStep)
+			throws CardException {
+		final List<CompiledApdu> commands = overrides.isEmpty() && defaultCommands != null ? defaultCommands : compile(overrides);
+
+		final List<StepResult> results = new ArrayList<>(steps.size());
+		session.beginExclusive();
+		final ByteBuffer responseBuffer = session.getBufferPool().acquire();
+		try {
+			for (int i = 0; i < steps.size(); i++) {
+				final long start = System.nanoTime();
+				responseBuffer.clear();
+				session.transmit(commands.get(i), responseBuffer);
+				final long duration = System.nanoTime() - start;
+				responseBuffer.flip();
+				final byte[] response = new byte[responseBuffer.remaining()];
+				responseBuffer.get(response);
+				final StepResult result = new StepResult(steps.get(i), commands.get(i), new ResponseAPDU(response), duration);
+				results.add(result);
+				if (onStep != null) {
+					onStep.response(result);
+				}
+				if (!result.isPassed()) {
+					break;
+				}
+			}
+		} finally {
+			session.getBufferPool().release(responseBuffer);
+			session.endExclusive();
+		}
+		return results;
+	}
+
+	/**
+	 * Compiles all steps with the given variable values on top of the script's own definitions.
+	 * 
+	 * @param overrides
+	 *            variable values that override the script's own definitions
+	 * @return the compiled commands
+	 * @throws IllegalArgumentException
+	 *             if a command refers to an undefined variable or is not a valid command APDU
+	 */
+	private List<CompiledApdu> compile(final Map<String, String> overrides) {
+		final Map<String, String> values = new LinkedHashMap<>(variables);
+		values.putAll(overrides);
+		final List<CompiledApdu> commands = new ArrayList<>(steps.size());
+		for (final Step step : steps) {
+			try {
+				commands.add(step.compile(values));
+			} catch (final IllegalArgumentException e) {
+				throw new IllegalArgumentException("Line " + step.getLine() + ": " + e.getMessage(), e);
+			}
+		}
+		return commands;
+	}
+
+	/**
+	 * Returns a task that executes this script.
+	 * 
+	 * @param overrides
+	 *            variable values that override the script's own definitions, may be empty
+	 * @param onStep
+	 *            invoked on the card worker thread after each step, may be <code>null</code>
+	 * @return the script task
+	 * @see #execute(CardSession, Map, CallResponse)
+	 */
+	public CardTask<List<StepResult>> task(final Map<String, String> overrides, final CallResponse<StepResult> onStep) {
+		return session -> execute(session, overrides, onStep);
+	}
+
+	/**
+	 * Returns whether all given step results passed and no step was skipped.
+	 * 
+	 * @param results
+	 *            the step results of this script
+	 * @return <code>true</code> if all steps were executed and passed
+	 */
+	public boolean isPassed(final List<StepResult> results) {
+		return results.size() == steps.size() && (results.isEmpty() || results.get(results.size() - 1).isPassed());
+	}
+
+	private static Step parseStep(final int line, final String statement) {
+		final int expect = statement.indexOf(EXPECT);
+		if (expect < 0) {
+			return new Step(line, ApduTemplate.parse(statement), null);
+		}
+		return new Step(line, ApduTemplate.parse(statement.substring(0, expect)),
+				StatusWordPattern.parse(statement.substring(expect + EXPECT.length())));
+	}
+
+	private static String stripComment(final String line) {
+		int end = line.indexOf('#');
+		final int slashes = line.indexOf("//");
+		if (slashes >= 0 && (end < 0 || slashes < end)) {
+			end = slashes;
+		}
+		return end < 0 ? line : line.substring(0, end);
+	}
+
+}
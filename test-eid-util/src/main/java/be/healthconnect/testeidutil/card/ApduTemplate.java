@@ -0,0 +1,139 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.smartcardio.CommandAPDU;
+
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * Command APDU in hex, which may refer to variables as <code>${NAME}</code>. Whitespace and <code>:</code> between hex digits are ignored
+ * (see {@link HexCodec}). The template is
+ * split into literal hex and variable references once, when it is parsed.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class ApduTemplate {
+
+	private final String text;
+	private final String[] literals;
+	private final String[] variables;
+
+	private ApduTemplate(final String text, final String[] literals, final String[] variables) {
+		this.text = text;
+		this.literals = literals;
+		this.variables = variables;
+	}
+
+	/**
+	 * Parses the given template.
+	 * 
+	 * @param text
+	 *            the template text
+	 * @return the parsed {@link ApduTemplate}
+	 * @throws IllegalArgumentException
+	 *             if a variable reference is not terminated
+	 */
+	public static ApduTemplate parse(final String text) {
+		final List<String> literals = new ArrayList<>();
+		final List<String> variables = new ArrayList<>();
+		int pos = 0;
+		int start;
+		while ((start = text.indexOf("${", pos)) >= 0) {
+			final int end = text.indexOf('}', start);
+			if (end < 0) {
+				throw new IllegalArgumentException("Unterminated variable reference: " + text.substring(start));
+			}
+			literals.add(text.substring(pos, start));
+			variables.add(text.substring(start + 2, end).trim());
+			pos = end + 1;
+		}
+		literals.add(text.substring(pos));
+		return new ApduTemplate(text.trim(), literals.toArray(new String[literals.size()]), variables.toArray(new String[variables.size()]));
+	}
+
+	/**
+	 * Returns the names of the variables referred to by this template.
+	 * 
+	 * @return the variable names
+	 */
+	public List<String> getVariables() {
+		return Collections.unmodifiableList(Arrays.asList(variables));
+	}
+
+	/**
+	 * Returns whether this template refers to no variables, so that it can be compiled once.
+	 * 
+	 * @return <code>true</code> if the template is constant
+	 */
+	public boolean isConstant() {
+		return variables.length == 0;
+	}
+
+	/**
+	 * Returns the compiled command, with all variables substituted.
+	 * 
+	 * @param values
+	 *            the variable values in hex
+	 * @return the compiled command
+	 * @throws IllegalArgumentException
+	 *             if a variable is undefined or the result is not a valid command APDU
+	 */
+	public CompiledApdu compile(final Map<String, String> values) {
+		return CompiledApdu.of(toBytes(values));
+	}
+
+	/**
+	 * Returns the command bytes, with all variables substituted.
+	 * 
+	 * @param values
+	 *            the variable values in hex
+	 * @return the command bytes
+	 * @throws IllegalArgumentException
+	 *             if a variable is undefined or the result is not valid hex
+	 */
+	public byte[] toBytes(final Map<String, String> values) {
+		final StringBuilder hex = new StringBuilder(literals[0]);
+		for (int i = 0; i < variables.length; i++) {
+			final String value = values.get(variables[i]);
+			if (value == null) {
+				throw new IllegalArgumentException("Undefined variable: " + variables[i]);
+			}
+			hex.append(value).append(literals[i + 1]);
+		}
+		final byte[] buffer = new byte[HexCodec.maxDecodedLength(hex.length())];
+		final int length = HexCodec.decode(hex, 0, hex.length(), buffer, 0);
+		if (length < 0) {
+			final int position = HexCodec.errorPosition(length);
+			throw new IllegalArgumentException(position == hex.length() ? "Odd number of hex digits: " + text
+					: "Invalid hex digit '" + hex.charAt(position) + "': " + text);
+		}
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Returns the command APDU, with all variables substituted.
+	 * 
+	 * @param values
+	 *            the variable values in hex
+	 * @return the command APDU
+	 * @throws IllegalArgumentException
+	 *             if a variable is undefined or the result is not a valid command APDU
+	 */
+	public CommandAPDU toCommand(final Map<String, String> values) {
+		return new CommandAPDU(toBytes(values));
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+}
@@ -0,0 +1,237 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.smartcardio.CardException;
+
+import be.healthconnect.testeidutil.util.DirectBufferPool;
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * Unblocks the PIN of every card in every card reader in one pass, using the PUK and target PIN from a {@link CardManifest}. Each card is
+ * identified by the chip number from GET CARD DATA; its PIN try counter is read before and after a RESET RETRY COUNTER with the PUK and,
+ * if the manifest has one, the new PIN. The PIN blocks are built per card, all other commands are compiled once.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class BulkUnblock {
+
+	/** VERIFY without data: reports the number of PIN tries left. */
+	private static final CompiledApdu GET_PIN_TRIES = CompiledApdu.of("00200001");
+	private static final byte[] RESET_RETRY_COUNTER = HexCodec.decode("002C0001");
+
+	private static final int SW_OK = 0x9000;
+	private static final int SW_BLOCKED = 0x6983;
+	private static final int SW1_TRIES_LEFT = 0x63;
+
+	/**
+	 * Outcome status of a single card.
+	 */
+	public enum Status {
+
+		/** The PIN was unblocked, and set to the target PIN if there was one. */
+		UNBLOCKED("Unblocked"),
+		/** The card is not in the manifest; nothing was sent after GET CARD DATA. */
+		UNKNOWN_CARD("Not in manifest"),
+		/** The card rejected the RESET RETRY COUNTER, e.g. because of a wrong PUK. */
+		FAILED("Failed");
+
+		private final String label;
+
+		private Status(final String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Returns the status label.
+		 * 
+		 * @return the status label
+		 */
+		public String getLabel() {
+			return label;
+		}
+
+	}
+
+	/**
+	 * Outcome of a single card.
+	 */
+	public static final class Outcome {
+
+		private final String chipNumber;
+		private final Status status;
+		private final int triesBefore;
+		private final int triesAfter;
+		private final int sw;
+
+		Outcome(final String chipNumber, final Status status, final int triesBefore, final int triesAfter, final int sw) {
+			this.chipNumber = chipNumber;
+			this.status = status;
+			this.triesBefore = triesBefore;
+			this.triesAfter = triesAfter;
+			this.sw = sw;
+		}
+
+		/**
+		 * Returns the chip number.
+		 * 
+		 * @return the chip number in upper case hex
+		 */
+		public String getChipNumber() {
+			return chipNumber;
+		}
+
+		/**
+		 * Returns the outcome status.
+		 * 
+		 * @return the status
+		 */
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Returns the number of PIN tries left before the unblock.
+		 * 
+		 * @return the number of tries, or -1 if unknown
+		 */
+		public int getTriesBefore() {
+			return triesBefore;
+		}
+
+		/**
+		 * Returns the number of PIN tries left after the unblock.
+		 * 
+		 * @return the number of tries, or -1 if unknown
+		 */
+		public int getTriesAfter() {
+			return triesAfter;
+		}
+
+		/**
+		 * Returns the status word of the RESET RETRY COUNTER command.
+		 * 
+		 * @return the status word, or -1 if not sent
+		 */
+		public int getSW() {
+			return sw;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder text = new StringBuilder(chipNumber).append('\t').append(status.getLabel());
+			if (status != Status.UNKNOWN_CARD) {
+				text.append("\tPIN tries ").append(tries(triesBefore)).append(" -> ").append(tries(triesAfter));
+			}
+			if (status == Status.FAILED) {
+				text.append(String.format("\t%04X", sw));
+			}
+			return text.toString();
+		}
+
+		private static String tries(final int tries) {
+			return tries < 0 ? "?" : Integer.toString(tries);
+		}
+
+	}
+
+	private final CardManifest manifest;
+
+	/**
+	 * Creates a new {@link BulkUnblock}.
+	 * 
+	 * @param manifest
+	 *            the cards to unblock
+	 */
+	public BulkUnblock(final CardManifest manifest) {
+		super();
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Unblocks the cards in all card readers that hold a card, concurrently.
+	 * 
+	 * @param manager
+	 *            the card session manager
+	 * @return the outcome per card reader
+	 */
+	public CompletableFuture<List<ReaderResult<Outcome>>> run(final CardSessionManager manager) {
+		return manager.submitToAll(this::unblock);
+	}
+
+	/**
+	 * Unblocks the card in the given session, in a single exclusive section.
+	 * 
+	 * @param session
+	 *            the card session
+	 * @return the outcome
+	 * @throws CardException
+	 *             if communication with the card fails, or the card does not return its chip number
+	 */
+	public Outcome unblock(final CardSession session) throws CardException {
+		final DirectBufferPool pool = session.getBufferPool();
+		final ByteBuffer response = pool.acquire();
+		session.beginExclusive();
+		try {
+			final String chipNumber = session.getChipNumber();
+			final CardManifest.Entry entry = manifest.get(chipNumber);
+			if (entry == null) {
+				return new Outcome(chipNumber, Status.UNKNOWN_CARD, -1, -1, -1);
+			}
+			final int triesBefore = getPinTries(session, response);
+			final int sw = transmit(session, resetRetryCounter(entry), response);
+			final int triesAfter = getPinTries(session, response);
+			return new Outcome(chipNumber, sw == SW_OK ? Status.UNBLOCKED : Status.FAILED, triesBefore, triesAfter, sw);
+		} finally {
+			session.endExclusive();
+			pool.release(response);
+		}
+	}
+
+	/**
+	 * Builds the RESET RETRY COUNTER command for the given card: the PUK block, followed by the new PIN block if the PIN is to be changed.
+	 * 
+	 * @param entry
+	 *            the manifest entry
+	 * @return the command
+	 */
+	static CompiledApdu resetRetryCounter(final CardManifest.Entry entry) {
+		final int lc = entry.getPin() == null ? PinBlock.LENGTH : 2 * PinBlock.LENGTH;
+		final byte[] command = new byte[RESET_RETRY_COUNTER.length + 1 + lc];
+		System.arraycopy(RESET_RETRY_COUNTER, 0, command, 0, RESET_RETRY_COUNTER.length);
+		command[RESET_RETRY_COUNTER.length] = (byte) lc;
+		PinBlock.encode(entry.getPuk(), command, RESET_RETRY_COUNTER.length + 1);
+		if (entry.getPin() != null) {
+			PinBlock.encode(entry.getPin(), command, RESET_RETRY_COUNTER.length + 1 + PinBlock.LENGTH);
+		}
+		return CompiledApdu.of(command);
+	}
+
+	private static int getPinTries(final CardSession session, final ByteBuffer response) throws CardException {
+		final int sw = transmit(session, GET_PIN_TRIES, response);
+		if (sw >> 8 == SW1_TRIES_LEFT && (sw & 0xF0) == 0xC0) {
+			return sw & 0x0F;
+		}
+		return sw == SW_BLOCKED ? 0 : -1;
+	}
+
+	/**
+	 * Sends the given command.
+	 * 
+	 * @return the status word; the response ends at the buffer position
+	 */
+	private static int transmit(final CardSession session, final CompiledApdu command, final ByteBuffer response) throws CardException {
+		response.clear();
+		final int length = session.transmit(command, response);
+		if (length < 2) {
+			throw new CardException("Response APDU too short: " + length + " bytes");
+		}
+		return (response.get(length - 2) & 0xFF) << 8 | response.get(length - 1) & 0xFF;
+	}
+
+}
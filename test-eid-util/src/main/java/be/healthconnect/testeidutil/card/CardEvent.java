@@ -0,0 +1,51 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+/**
+ * Card insertion or removal in a card reader.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class CardEvent {
+
+	/**
+	 * The card event type.
+	 * 
+	 * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+	 */
+	public static enum Type {
+		INSERTED, REMOVED
+	}
+
+	private final Type type;
+	private final String terminalName;
+
+	/**
+	 * Creates a new {@link CardEvent}.
+	 * 
+	 * @param type
+	 *            the event type
+	 * @param terminalName
+	 *            the card reader name
+	 */
+	public CardEvent(final Type type, final String terminalName) {
+		this.type = type;
+		this.terminalName = terminalName;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getTerminalName() {
+		return terminalName;
+	}
+
+	@Override
+	public String toString() {
+		return "Card " + type.name().toLowerCase() + ": " + terminalName;
+	}
+
+}
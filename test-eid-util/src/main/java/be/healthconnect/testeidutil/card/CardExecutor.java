@@ -0,0 +1,210 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import be.healthconnect.testeidutil.concurrent.CallResponse;
+
+/**
+ * Runs {@link CardTask}s for a single {@link CardSession} on a dedicated worker thread, so that slow cards or hung readers never block the
+ * caller. Results are delivered through the callback {@link Executor}, e.g. the JavaFX Application Thread.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class CardExecutor implements AutoCloseable {
+
+	private static final Logger LOG = Logger.getLogger(CardExecutor.class.getName());
+	/** Maximum time to wait for a worker to finish its queued tasks when closing. */
+	static final long CLOSE_TIMEOUT_MILLIS = 2000L;
+
+	private final CardSession session;
+	private final Executor callbackExecutor;
+	private final ExecutorService worker;
+	private final AtomicInteger queueDepth = new AtomicInteger();
+
+	/**
+	 * Creates a new {@link CardExecutor}.
+	 * 
+	 * @param session
+	 *            the card session to run tasks in
+	 * @param callbackExecutor
+	 *            the executor on which results are delivered
+	 */
+	CardExecutor(final CardSession session, final Executor callbackExecutor) {
+		super();
+		this.session = session;
+		this.callbackExecutor = callbackExecutor;
+		final String name = "Card worker: " + (session.getTerminalName() == null ? "default" : session.getTerminalName());
+		this.worker = Executors.newSingleThreadExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the card session in which tasks are run.
+	 * 
+	 * @return the card session
+	 */
+	public CardSession getSession() {
+		return session;
+	}
+
+	/**
+	 * Returns the number of tasks submitted but not finished yet, including the running task.
+	 * 
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * Runs the given task on the worker thread.
+	 * 
+	 * @param task
+	 *            the task to run
+	 * @return the task result, completed on the callback executor
+	 */
+	public <V> CompletableFuture<V> submit(final CardTask<V> task) {
+		final CompletableFuture<V> result = new CompletableFuture<>();
+		queueDepth.incrementAndGet();
+		try {
+			worker.execute(() -> {
+				try {
+					final V value = task.execute(session);
+					callbackExecutor.execute(() -> result.complete(value));
+				} catch (final Throwable e) {
+					callbackExecutor.execute(() -> result.completeExceptionally(e));
+				} finally {
+					queueDepth.decrementAndGet();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			queueDepth.decrementAndGet();
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the given task on the worker thread.
+	 * 
+	 * @param task
+	 *            the task to run
+	 * @param onSuccess
+	 *            invoked on the callback executor with the task result
+	 * @param onError
+	 *            invoked on the callback executor with the error if the task fails
+	 */
+	public <V> void submit(final CardTask<V> task, final CallResponse<V> onSuccess, final CallResponse<Throwable> onError) {
+		submit(task).whenComplete((value, error) -> {
+			if (error != null) {
+				onError.response(unwrap(error));
+			} else {
+				onSuccess.response(value);
+			}
+		});
+	}
+
+	/**
+	 * Sends the given command to the card on the worker thread.
+	 * 
+	 * @param command
+	 *            the command APDU
+	 * @return the response APDU, completed on the callback executor
+	 */
+	public CompletableFuture<ResponseAPDU> transmit(final CommandAPDU command) {
+		return submit(session -> session.transmit(command));
+	}
+
+	/**
+	 * Sends the given command to the card on the worker thread.
+	 * 
+	 * @param command
+	 *            the command APDU
+	 * @param onResponse
+	 *            invoked on the callback executor with the response APDU
+	 * @param onError
+	 *            invoked on the callback executor with the error if the command fails
+	 */
+	public void transmit(final CommandAPDU command, final CallResponse<ResponseAPDU> onResponse, final CallResponse<Throwable> onError) {
+		submit(session -> session.transmit(command), onResponse, onError);
+	}
+
+	/**
+	 * Closes the card session on the worker thread and stops the worker.
+	 */
+	@Override
+	public void close() {
+		shutdown();
+		awaitTermination(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS));
+	}
+
+	/**
+	 * Queues closing the card session after the pending tasks, and stops accepting new tasks. Does not wait.
+	 */
+	void shutdown() {
+		try {
+			worker.execute(() -> {
+				try {
+					session.close();
+				} catch (final Exception e) {
+					LOG.log(Level.FINE, "Could not disconnect card", e);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// already closed
+		}
+		worker.shutdown();
+	}
+
+	/**
+	 * Waits for the worker to stop after {@link #shutdown()}, and interrupts it if it has not stopped by the given deadline.
+	 * 
+	 * @param deadlineNanos
+	 *            the deadline, in {@link System#nanoTime()} units
+	 */
+	void awaitTermination(final long deadlineNanos) {
+		try {
+			if (!worker.awaitTermination(Math.max(0L, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+				LOG.warning("Card worker did not stop in time: " + session.getTerminalName());
+				worker.shutdownNow();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the actual cause of an asynchronous failure.
+	 * 
+	 * @param error
+	 *            the error as reported by a {@link CompletableFuture}
+	 * @return the unwrapped error
+	 */
+	public static Throwable unwrap(final Throwable error) {
+		Throwable cause = error;
+		while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return cause;
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Manifest of test cards, keyed by chip number. One card per line, fields separated by whitespace, commas or semicolons:
+ * 
+ * <pre>
+ * # chip number                     PUK half 1  PUK half 2  target PIN
+ * 534C494E33660000000000000000002A  222222      111111      1234
+ * </pre>
+ * 
+ * The PUK is the concatenation of both halves, in manifest order. The target PIN is optional; without it the PIN is unblocked, but kept.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class CardManifest {
+
+	private static final Pattern SEPARATOR = Pattern.compile("[\\s,;]+");
+	private static final Pattern CHIP_NUMBER = Pattern.compile("[0-9A-F]{32}");
+
+	/**
+	 * Manifest entry.
+	 * 
+	 * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+	 */
+	public static final class Entry {
+
+		private final String chipNumber;
+		private final String puk;
+		private final String pin;
+
+		Entry(final String chipNumber, final String puk, final String pin) {
+			this.chipNumber = chipNumber;
+			this.puk = puk;
+			this.pin = pin;
+		}
+
+		/**
+		 * Returns the chip number.
+		 * 
+		 * @return the chip number in upper case hex
+		 */
+		public String getChipNumber() {
+			return chipNumber;
+		}
+
+		/**
+		 * Returns the PUK.
+		 * 
+		 * @return both PUK halves
+		 */
+		public String getPuk() {
+			return puk;
+		}
+
+		/**
+		 * Returns the PIN to set.
+		 * 
+		 * @return the target PIN, or <code>null</code> to keep the current PIN
+		 */
+		public String getPin() {
+			return pin;
+		}
+
+	}
+
+	private final Map<String, Entry> entries;
+
+	private CardManifest(final Map<String, Entry> entries) {
+		this.entries = Collections.unmodifiableMap(entries);
+	}
+
+	/**
+	 * Parses the given manifest file.
+	 * 
+	 * @param file
+	 *            the manifest file (UTF-8)
+	 * @return the parsed {@link CardManifest}
+	 * @throws IOException
+	 *             if the file cannot be read
+	 * @throws IllegalArgumentException
+	 *             if the manifest contains a syntax error
+	 */
+	public static CardManifest load(final Path file) throws IOException {
+		try (final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return parse(reader);
+		}
+	}
+
+	/**
+	 * Parses the given manifest.
+	 * 
+	 * @param reader
+	 *            the manifest source
+	 * @return the parsed {@link CardManifest}
+	 * @throws IOException
+	 *             if the manifest cannot be read
+	 * @throws IllegalArgumentException
+	 *             if the manifest contains a syntax error
+	 */
+	public static CardManifest parse(final Reader reader) throws IOException {
+		final Map<String, Entry> entries = new LinkedHashMap<>();
+		final BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+		String line;
+		int lineNumber = 0;
+		while ((line = lines.readLine()) != null) {
+			lineNumber++;
+			final int comment = line.indexOf('#');
+			final String statement = (comment < 0 ? line : line.substring(0, comment)).trim();
+			if (statement.isEmpty()) {
+				continue;
+			}
+			final String[] fields = SEPARATOR.split(statement);
+			if (fields.length < 3 || fields.length > 4) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": expected chip number, two PUK halves and an optional PIN");
+			}
+			final String chipNumber = fields[0].toUpperCase(Locale.ROOT);
+			if (!CHIP_NUMBER.matcher(chipNumber).matches()) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": invalid chip number " + fields[0]);
+			}
+			final String puk = fields[1] + fields[2];
+			final String pin = fields.length > 3 ? fields[3] : null;
+			try {
+				PinBlock.validate(puk);
+				if (pin != null) {
+					PinBlock.validate(pin);
+				}
+			} catch (final IllegalArgumentException e) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+			}
+			if (entries.put(chipNumber, new Entry(chipNumber, puk, pin)) != null) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": duplicate chip number " + chipNumber);
+			}
+		}
+		return new CardManifest(entries);
+	}
+
+	/**
+	 * Returns the entry of the given card.
+	 * 
+	 * @param chipNumber
+	 *            the chip number in hex
+	 * @return the entry, or <code>null</code> if the card is not in the manifest
+	 */
+	public Entry get(final String chipNumber) {
+		return entries.get(chipNumber.toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * Returns all entries, in manifest order.
+	 * 
+	 * @return the entries
+	 */
+	public Collection<Entry> getEntries() {
+		return entries.values();
+	}
+
+}
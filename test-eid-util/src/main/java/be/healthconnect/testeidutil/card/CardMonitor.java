@@ -0,0 +1,133 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+import be.healthconnect.testeidutil.concurrent.CallResponse;
+
+/**
+ * Background monitor that publishes a {@link CardEvent} whenever a card is inserted into or removed from any card reader. Listeners start
+ * jobs on inserted cards, e.g. through {@link CardSessionManager#submit(String, CardTask)}.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class CardMonitor implements AutoCloseable {
+
+	private static final Logger LOG = Logger.getLogger(CardMonitor.class.getName());
+	private static final long WAIT_TIMEOUT_MILLIS = 1000L;
+	private static final long RETRY_DELAY_MILLIS = 2000L;
+
+	private final CardSessionManager manager;
+	private final List<CallResponse<CardEvent>> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * Creates a new {@link CardMonitor}.
+	 * 
+	 * @param manager
+	 *            the card session manager, whose callback executor delivers the events
+	 */
+	public CardMonitor(final CardSessionManager manager) {
+		super();
+		this.manager = manager;
+	}
+
+	/**
+	 * Adds a listener for card events. Listeners are invoked on the callback executor of the {@link CardSessionManager}.
+	 * 
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void addListener(final CallResponse<CardEvent> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener for card events.
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void removeListener(final CallResponse<CardEvent> listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Starts monitoring on a background thread.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this::monitor, "Card monitor");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops monitoring.
+	 */
+	@Override
+	public synchronized void close() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Monitor loop. The same {@link CardTerminals} instance must be used throughout, because it keeps track of the card states between
+	 * calls to {@link CardTerminals#waitForChange(long)}.
+	 */
+	private void monitor() {
+		CardTerminals terminals = null;
+		while (running) {
+			try {
+				if (terminals == null) {
+					terminals = manager.getTerminals();
+				}
+				if (!terminals.waitForChange(WAIT_TIMEOUT_MILLIS)) {
+					continue;
+				}
+				for (final CardTerminal terminal : terminals.list(CardTerminals.State.CARD_REMOVAL)) {
+					manager.cardRemoved(terminal.getName());
+					publish(new CardEvent(CardEvent.Type.REMOVED, terminal.getName()));
+				}
+				for (final CardTerminal terminal : terminals.list(CardTerminals.State.CARD_INSERTION)) {
+					publish(new CardEvent(CardEvent.Type.INSERTED, terminal.getName()));
+				}
+			} catch (final CardException | RuntimeException e) {
+				// e.g. no card readers connected, or the PC/SC service was restarted
+				LOG.log(Level.FINE, "Card monitor could not wait for changes", e);
+				terminals = null;
+				try {
+					Thread.sleep(RETRY_DELAY_MILLIS);
+				} catch (final InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void publish(final CardEvent event) {
+		LOG.fine(event.toString());
+		for (final CallResponse<CardEvent> listener : listeners) {
+			manager.getCallbackExecutor().execute(() -> listener.response(event));
+		}
+	}
+
+}
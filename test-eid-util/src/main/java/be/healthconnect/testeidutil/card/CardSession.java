@@ -0,0 +1,680 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import be.healthconnect.testeidutil.metrics.CardMetrics;
+import be.healthconnect.testeidutil.metrics.CardMetrics.Phase;
+import be.healthconnect.testeidutil.metrics.ReaderMetrics;
+import be.healthconnect.testeidutil.util.DirectBufferPool;
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * Long-lived connection to the card in a single card reader. The card is connected on first use and kept connected across commands; it
+ * is only reconnected when the card turns out to be removed or reset, or when {@link #reset()} is called explicitly.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class CardSession implements AutoCloseable {
+
+	private static final Logger LOG = Logger.getLogger(CardSession.class.getName());
+
+	/** PC/SC error codes that indicate the card handle is no longer valid. */
+	private static final String[] STALE_CARD_ERRORS = { "SCARD_W_REMOVED_CARD", "SCARD_W_RESET_CARD", "SCARD_E_NO_SMARTCARD",
+			"SCARD_E_INVALID_HANDLE" };
+
+	/** SW1: response bytes still available, SW2 tells how many. */
+	private static final int SW1_BYTES_AVAILABLE = 0x61;
+	/** SW1: wrong Le, SW2 tells the exact length. */
+	private static final int SW1_CORRECT_LENGTH = 0x6C;
+	/** Maximum number of GET RESPONSE commands sent for a single command. */
+	private static final int MAX_GET_RESPONSE = 256;
+	/** Space for a short case 4 command: header, Lc, 255 data bytes and Le. */
+	private static final int FOLLOW_UP_LENGTH = 4 + 1 + 255 + 1;
+	/** GET CARD DATA, of which the first 16 bytes are the chip number. */
+	private static final CompiledApdu GET_CARD_DATA = CompiledApdu.of("80E400001C");
+	private static final int CHIP_NUMBER_LENGTH = 16;
+	private static final int SW_OK = 0x9000;
+
+	private final CardSessionManager manager;
+	private final String terminalName;
+	private final CardMetrics metrics;
+
+	private CardTerminal terminal;
+	private ReaderMetrics readerMetrics;
+	private Card card;
+	private long cardId;
+	private volatile String connectedTerminalName;
+	private volatile boolean cardRemoved;
+	private boolean freshConnection;
+	private int exclusiveDepth;
+	private boolean sectionUsed;
+	private Boolean extendedLength;
+	private String chipNumber;
+	private ByteBuffer commandBuffer;
+	private ByteBuffer responseBuffer;
+	private ByteBuffer followUpBuffer;
+	private boolean autoResponse = true;
+
+	private volatile long connectCount;
+	private volatile long avoidedConnectCount;
+	private volatile long resetCount;
+	private volatile long avoidedResetCount;
+
+	/**
+	 * Creates a new {@link CardSession}.
+	 * 
+	 * @param manager
+	 *            the owning {@link CardSessionManager}
+	 * @param terminalName
+	 *            the card reader name, or <code>null</code> for the first available card reader
+	 */
+	CardSession(final CardSessionManager manager, final String terminalName) {
+		super();
+		this.manager = manager;
+		this.terminalName = terminalName;
+		this.metrics = manager.getMetrics();
+	}
+
+	/**
+	 * Returns the card reader name.
+	 * 
+	 * @return the card reader name, or <code>null</code> if this session uses the first available card reader
+	 */
+	public String getTerminalName() {
+		return terminalName;
+	}
+
+	/**
+	 * Returns the name of the card reader this session is connected to.
+	 * 
+	 * @return the card reader name, or <code>null</code> if not connected
+	 */
+	public String getConnectedTerminalName() {
+		return connectedTerminalName;
+	}
+
+	/**
+	 * Returns the identifier of the current card connection, as passed to the {@link ApduListener}s.
+	 * 
+	 * @return the card connection identifier, or 0 if never connected
+	 */
+	public synchronized long getCardId() {
+		return cardId;
+	}
+
+	/**
+	 * Marks the card as removed, so that the next command reconnects. Does not block, even while a command is in progress.
+	 */
+	public void cardRemoved() {
+		cardRemoved = true;
+	}
+
+	/**
+	 * Returns whether the card was reported removed since the last command. Does not block, even while a command is in progress.
+	 * 
+	 * @return <code>true</code> if the next command reconnects because the card was removed
+	 */
+	public boolean isCardRemoved() {
+		return cardRemoved;
+	}
+
+	/**
+	 * Returns the connected card, connecting it if necessary.
+	 * 
+	 * @return the connected {@link Card}
+	 * @throws CardException
+	 *             if no card reader or card is available
+	 */
+	public synchronized Card getCard() throws CardException {
+		if (cardRemoved && exclusiveDepth == 0) {
+			cardRemoved = false;
+			invalidate();
+		}
+		if (card != null) {
+			return card;
+		}
+		if (terminal == null) {
+			final long start = System.nanoTime();
+			terminal = findTerminal();
+			metrics.record(Phase.ENUMERATE, System.nanoTime() - start);
+		}
+		final long start = System.nanoTime();
+		card = terminal.connect("*");
+		metrics.record(Phase.CONNECT, System.nanoTime() - start);
+		connectedTerminalName = terminal.getName();
+		readerMetrics = metrics.getReader(connectedTerminalName);
+		readerMetrics.countConnect();
+		cardId = manager.nextCardId();
+		final ApduListener[] listeners = manager.getApduListeners();
+		if (listeners.length > 0) {
+			final byte[] atr = card.getATR().getBytes();
+			for (final ApduListener listener : listeners) {
+				listener.connected(connectedTerminalName, cardId, atr);
+			}
+		}
+		extendedLength = null;
+		chipNumber = null;
+		freshConnection = true;
+		connectCount++;
+		return card;
+	}
+
+	/**
+	 * Sends the given command to the card. The card connection is kept open afterwards. Outside an exclusive section, the command gets
+	 * its own exclusive section.
+	 * 
+	 * @param command
+	 *            the command APDU
+	 * @return the response APDU
+	 * @throws CardException
+	 *             if the command could not be sent
+	 */
+	public synchronized ResponseAPDU transmit(final CommandAPDU command) throws CardException {
+		final ByteBuffer commandBuffer = getCommandBuffer();
+		commandBuffer.put(command.getBytes()).flip();
+		final ByteBuffer responseBuffer = getResponseBuffer();
+		final byte[] response = new byte[transmit(commandBuffer, responseBuffer)];
+		responseBuffer.flip();
+		responseBuffer.get(response);
+		return new ResponseAPDU(response);
+	}
+
+	/**
+	 * Sends the given pre-encoded command to the card. Does not allocate when <code>response</code> comes from a buffer pool.
+	 * 
+	 * @param command
+	 *            the command APDU
+	 * @param response
+	 *            the buffer that receives the response APDU at its position, with at least 258 bytes remaining
+	 * @return the length of the response APDU
+	 * @throws CardException
+	 *             if the command could not be sent
+	 * @see #transmit(ByteBuffer, ByteBuffer)
+	 */
+	public synchronized int transmit(final CompiledApdu command, final ByteBuffer response) throws CardException {
+		final ByteBuffer commandBuffer = getCommandBuffer();
+		command.writeTo(commandBuffer);
+		commandBuffer.flip();
+		return transmit(commandBuffer, response);
+	}
+
+	/**
+	 * Sends the given command to the card. The card connection is kept open afterwards. Outside an exclusive section, the command gets
+	 * its own exclusive section.
+	 * 
+	 * @param command
+	 *            the buffer that holds the command APDU between its position and limit
+	 * @param response
+	 *            the buffer that receives the response APDU at its position, with at least 258 bytes remaining
+	 * @return the length of the response APDU
+	 * @throws CardException
+	 *             if the command could not be sent
+	 */
+	public synchronized int transmit(final ByteBuffer command, final ByteBuffer response) throws CardException {
+		if (exclusiveDepth > 0) {
+			final int length = doTransmit(command, response);
+			sectionUsed = true;
+			return length;
+		}
+		beginExclusive();
+		try {
+			final int length = doTransmit(command, response);
+			sectionUsed = true;
+			return length;
+		} finally {
+			endExclusive();
+		}
+	}
+
+	/**
+	 * Returns the chip number of the connected card, connecting it if necessary. The chip number is read with GET CARD DATA once per card
+	 * connection.
+	 * 
+	 * @return the chip number in upper case hex
+	 * @throws CardException
+	 *             if communication with the card fails, or the card does not return its chip number
+	 */
+	public synchronized String getChipNumber() throws CardException {
+		getCard();
+		if (chipNumber != null) {
+			return chipNumber;
+		}
+		final DirectBufferPool pool = getBufferPool();
+		final ByteBuffer response = pool.acquire();
+		try {
+			response.clear();
+			final int length = transmit(GET_CARD_DATA, response);
+			final int sw = length < 2 ? -1 : (response.get(length - 2) & 0xFF) << 8 | response.get(length - 1) & 0xFF;
+			if (sw != SW_OK || length < CHIP_NUMBER_LENGTH + 2) {
+				throw new CardException(String.format("GET CARD DATA failed: %04X", sw));
+			}
+			final byte[] bytes = new byte[CHIP_NUMBER_LENGTH];
+			for (int i = 0; i < CHIP_NUMBER_LENGTH; i++) {
+				bytes[i] = response.get(i);
+			}
+			chipNumber = HexCodec.toHex(bytes).toUpperCase();
+			return chipNumber;
+		} finally {
+			pool.release(response);
+		}
+	}
+
+	/**
+	 * Returns the cache of eID files used by the {@link EidFileReader}s of this session.
+	 * 
+	 * @return the file cache, or <code>null</code> if files are always read from the card
+	 * @see CardSessionManager#setFileCache(EidFileCache)
+	 */
+	public EidFileCache getFileCache() {
+		return manager.getFileCache();
+	}
+
+	/**
+	 * Returns whether <code>61xx</code> and <code>6Cxx</code> responses are handled transparently.
+	 * 
+	 * @return <code>true</code> if GET RESPONSE and wrong length retries are sent automatically
+	 */
+	public synchronized boolean isAutoResponse() {
+		return autoResponse;
+	}
+
+	/**
+	 * Sets whether <code>61xx</code> and <code>6Cxx</code> responses are handled transparently. When enabled, which is the default, a
+	 * <code>61xx</code> response is followed by GET RESPONSE commands until all response data is collected, and a <code>6Cxx</code>
+	 * response makes the command be sent once more with the correct Le. Callers then only see the assembled final response.
+	 * 
+	 * @param autoResponse
+	 *            <code>false</code> to return <code>61xx</code> and <code>6Cxx</code> responses as is
+	 */
+	public synchronized void setAutoResponse(final boolean autoResponse) {
+		this.autoResponse = autoResponse;
+	}
+
+	/**
+	 * Returns whether the card and card reader accept extended length APDUs, as found out earlier on the current connection.
+	 * 
+	 * @return <code>true</code> or <code>false</code>, or <code>null</code> if not known yet
+	 */
+	public synchronized Boolean getExtendedLength() {
+		return extendedLength;
+	}
+
+	/**
+	 * Records whether the card and card reader accept extended length APDUs, until the card is reconnected.
+	 * 
+	 * @param extendedLength
+	 *            <code>true</code> or <code>false</code>, or <code>null</code> if not known
+	 */
+	public synchronized void setExtendedLength(final Boolean extendedLength) {
+		this.extendedLength = extendedLength;
+	}
+
+	/**
+	 * Returns the pool from which callers can take response buffers for {@link #transmit(CompiledApdu, ByteBuffer)}.
+	 * 
+	 * @return the buffer pool
+	 */
+	public DirectBufferPool getBufferPool() {
+		return manager.getBufferPool();
+	}
+
+	/**
+	 * Starts an exclusive section on the card, in which several commands can be sent without other applications interfering. Exclusive
+	 * sections can be nested; only the outermost section locks the card.
+	 * 
+	 * @throws CardException
+	 *             if exclusive access could not be obtained
+	 */
+	public synchronized void beginExclusive() throws CardException {
+		if (exclusiveDepth == 0) {
+			final boolean reused = card != null;
+			try {
+				lockCard();
+			} catch (final CardException | IllegalStateException e) {
+				if (!reused || !isStale(e)) {
+					throw e;
+				}
+				// Card was removed or reset by another application since the last command: reconnect and try again
+				LOG.log(Level.FINE, "Card handle is stale, reconnecting", e);
+				invalidate();
+				lockCard();
+			}
+		}
+		exclusiveDepth++;
+	}
+
+	/**
+	 * Ends an exclusive section started by {@link #beginExclusive()}. Does nothing if the section was already ended by a card reset.
+	 * 
+	 * @throws CardException
+	 *             if exclusive access could not be released
+	 */
+	public synchronized void endExclusive() throws CardException {
+		if (exclusiveDepth == 0) {
+			return;
+		}
+		exclusiveDepth--;
+		if (exclusiveDepth == 0 && card != null) {
+			countAvoided();
+			card.endExclusive();
+		}
+	}
+
+	/**
+	 * Resets the card. The next command reconnects.
+	 * 
+	 * @throws CardException
+	 *             if the card could not be disconnected
+	 */
+	public synchronized void reset() throws CardException {
+		if (card != null) {
+			final Card resetCard = card;
+			card = null;
+			exclusiveDepth = 0;
+			sectionUsed = false;
+			resetCount++;
+			final long start = System.nanoTime();
+			resetCard.disconnect(true);
+			metrics.record(Phase.DISCONNECT, System.nanoTime() - start);
+			readerMetrics.countReset();
+		}
+	}
+
+	/**
+	 * Forgets the current card connection, e.g. after the card has been removed. The card is disconnected without reset; errors from the
+	 * stale card handle are ignored.
+	 */
+	public synchronized void invalidate() {
+		if (card != null) {
+			try {
+				card.disconnect(false);
+			} catch (final CardException | IllegalStateException e) {
+				LOG.log(Level.FINE, "Could not disconnect stale card handle", e);
+			}
+		}
+		card = null;
+		exclusiveDepth = 0;
+		sectionUsed = false;
+		terminal = null;
+		connectedTerminalName = null;
+	}
+
+	/**
+	 * Resets and disconnects the card.
+	 */
+	@Override
+	public synchronized void close() throws CardException {
+		if (commandBuffer != null) {
+			getBufferPool().release(commandBuffer);
+			commandBuffer = null;
+		}
+		if (responseBuffer != null) {
+			getBufferPool().release(responseBuffer);
+			responseBuffer = null;
+		}
+		reset();
+		terminal = null;
+	}
+
+	/**
+	 * Returns the number of card connects.
+	 * 
+	 * @return the number of card connects
+	 */
+	public long getConnectCount() {
+		return connectCount;
+	}
+
+	/**
+	 * Returns the number of card connects avoided by reusing the open card connection. A command, with its GET RESPONSE and wrong length
+	 * follow-ups, or a whole exclusive section such as a script, counts once.
+	 * 
+	 * @return the number of card connects avoided
+	 */
+	public long getAvoidedConnectCount() {
+		return avoidedConnectCount;
+	}
+
+	/**
+	 * Returns the number of card resets.
+	 * 
+	 * @return the number of card resets
+	 */
+	public long getResetCount() {
+		return resetCount;
+	}
+
+	/**
+	 * Returns the number of card resets avoided by not resetting the card after each command. A command, with its follow-ups, or a whole
+	 * exclusive section such as a script, counts once.
+	 * 
+	 * @return the number of card resets avoided
+	 */
+	public long getAvoidedResetCount() {
+		return avoidedResetCount;
+	}
+
+	private int doTransmit(final ByteBuffer command, final ByteBuffer response) throws CardException {
+		if (!autoResponse) {
+			return doTransmitOnce(command, response);
+		}
+		final int commandStart = command.position();
+		final int responseStart = response.position();
+		int length = doTransmitOnce(command, response);
+		boolean retried = false;
+		for (int i = 0; i < MAX_GET_RESPONSE && length >= 2; i++) {
+			final int sw1 = response.get(responseStart + length - 2) & 0xFF;
+			final int sw2 = response.get(responseStart + length - 1) & 0xFF;
+			if (sw1 == SW1_CORRECT_LENGTH && !retried && length == 2) {
+				final ByteBuffer retry = withLe(command, commandStart, sw2);
+				if (retry == null) {
+					break;
+				}
+				retried = true;
+				response.position(responseStart);
+				length = doTransmitOnce(retry, response);
+			} else if (sw1 == SW1_BYTES_AVAILABLE && response.remaining() >= 256) {
+				// the GET RESPONSE data and status word replace the current status word
+				response.position(responseStart + length - 2);
+				length = length - 2 + doTransmitOnce(getResponse(sw2), response);
+			} else {
+				break;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Returns a copy of the given short command with its Le set to the given value.
+	 * 
+	 * @param command
+	 *            the buffer that held the command between <code>start</code> and its limit
+	 * @param start
+	 *            the start of the command
+	 * @param le
+	 *            the new Le
+	 * @return the new command, or <code>null</code> if the command is not a valid short command
+	 */
+	private ByteBuffer withLe(final ByteBuffer command, final int start, final int le) {
+		final int length = command.limit() - start;
+		final int lc = length > 5 ? command.get(start + 4) & 0xFF : 0;
+		final int headerLength;
+		if (length == 4 || length == 5) {
+			headerLength = 4;
+		} else if (lc != 0 && (length == 5 + lc || length == 6 + lc)) {
+			headerLength = 5 + lc;
+		} else {
+			// extended length commands never get 6Cxx
+			return null;
+		}
+		final ByteBuffer retry = getFollowUpBuffer();
+		for (int i = 0; i < headerLength; i++) {
+			retry.put(command.get(start + i));
+		}
+		retry.put((byte) le).flip();
+		return retry;
+	}
+
+	private ByteBuffer getResponse(final int le) {
+		final ByteBuffer getResponse = getFollowUpBuffer();
+		getResponse.put((byte) 0x00).put((byte) 0xC0).put((byte) 0x00).put((byte) 0x00).put((byte) le).flip();
+		return getResponse;
+	}
+
+	private ByteBuffer getFollowUpBuffer() {
+		if (followUpBuffer == null) {
+			followUpBuffer = ByteBuffer.allocateDirect(FOLLOW_UP_LENGTH);
+		}
+		followUpBuffer.clear();
+		return followUpBuffer;
+	}
+
+	private int doTransmitOnce(final ByteBuffer command, final ByteBuffer response) throws CardException {
+		final Card connectedCard = getCard();
+		final int ins = command.remaining() > 1 ? command.get(command.position() + 1) : 0;
+		final int commandStart = command.position();
+		final int responseStart = response.position();
+		final long start = System.nanoTime();
+		final int length;
+		try {
+			length = connectedCard.getBasicChannel().transmit(command, response);
+		} catch (final CardException | RuntimeException e) {
+			readerMetrics.countError();
+			throw e;
+		}
+		final long nanos = System.nanoTime() - start;
+		metrics.record(Phase.TRANSMIT, nanos);
+		metrics.countInstruction(ins);
+		readerMetrics.recordCommand(nanos);
+		if (length >= 2) {
+			final int sw = (response.get(response.position() - 2) & 0xFF) << 8 | response.get(response.position() - 1) & 0xFF;
+			metrics.countStatusWord(sw);
+			readerMetrics.countStatusWord(sw);
+		}
+		final ApduListener[] listeners = manager.getApduListeners();
+		if (listeners.length > 0) {
+			notifyListeners(listeners, command, commandStart, response, responseStart, start, nanos);
+		}
+		return length;
+	}
+
+	/**
+	 * Counts the connect and reset avoided by the exclusive section that is ending, once per section that sent commands: a single
+	 * command with its follow-ups, or a whole script.
+	 */
+	private void countAvoided() {
+		if (!sectionUsed) {
+			return;
+		}
+		sectionUsed = false;
+		if (freshConnection) {
+			freshConnection = false;
+		} else {
+			avoidedConnectCount++;
+		}
+		avoidedResetCount++;
+	}
+
+	/**
+	 * Shows the exchanged command and response to the listeners, restoring the buffer positions and limits afterwards.
+	 */
+	private void notifyListeners(final ApduListener[] listeners, final ByteBuffer command, final int commandStart,
+			final ByteBuffer response, final int responseStart, final long start, final long nanos) {
+		final int commandEnd = command.position();
+		final int responseEnd = response.position();
+		final int responseLimit = response.limit();
+		command.position(commandStart);
+		response.limit(responseEnd).position(responseStart);
+		try {
+			for (final ApduListener listener : listeners) {
+				try {
+					listener.transmitted(connectedTerminalName, cardId, start, nanos, command, response);
+				} catch (final RuntimeException e) {
+					LOG.log(Level.WARNING, "APDU listener failed", e);
+				} finally {
+					command.position(commandStart);
+					response.position(responseStart);
+				}
+			}
+		} finally {
+			command.position(commandEnd);
+			response.limit(responseLimit).position(responseEnd);
+		}
+	}
+
+	private void lockCard() throws CardException {
+		final Card connectedCard = getCard();
+		final long start = System.nanoTime();
+		connectedCard.beginExclusive();
+		metrics.record(Phase.BEGIN_EXCLUSIVE, System.nanoTime() - start);
+	}
+
+	private ByteBuffer getCommandBuffer() {
+		if (commandBuffer == null) {
+			commandBuffer = getBufferPool().acquire();
+		}
+		commandBuffer.clear();
+		return commandBuffer;
+	}
+
+	private ByteBuffer getResponseBuffer() {
+		if (responseBuffer == null) {
+			responseBuffer = getBufferPool().acquire();
+		}
+		responseBuffer.clear();
+		return responseBuffer;
+	}
+
+	private CardTerminal findTerminal() throws CardException {
+		if (terminalName != null) {
+			final CardTerminal namedTerminal = manager.getTerminals().getTerminal(terminalName);
+			if (namedTerminal == null) {
+				throw new CardException("Card reader not found: " + terminalName);
+			}
+			return namedTerminal;
+		}
+		final List<CardTerminal> terminalList = manager.getTerminals().list();
+		if (terminalList.isEmpty()) {
+			throw new CardException("No card reader found");
+		}
+		return terminalList.get(0);
+	}
+
+	/**
+	 * Returns whether the given exception indicates that the card handle is no longer valid.
+	 * 
+	 * @param e
+	 *            the exception
+	 * @return <code>true</code> if the card must be reconnected
+	 */
+	static boolean isStale(final Throwable e) {
+		if (e instanceof IllegalStateException) {
+			// card was disconnected
+			return true;
+		}
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			final String message = cause.getMessage();
+			if (message != null) {
+				for (final String error : STALE_CARD_ERRORS) {
+					if (message.contains(error)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,508 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactory;
+
+import be.healthconnect.testeidutil.metrics.CardMetrics;
+import be.healthconnect.testeidutil.metrics.CardMetrics.Phase;
+import be.healthconnect.testeidutil.util.DirectBufferPool;
+
+/**
+ * Keeps the {@link TerminalFactory} and one {@link CardSession} per card reader open for the lifetime of the application, so that commands
+ * do not pay for provider lookup, reader enumeration, card connect and card reset every time.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class CardSessionManager implements AutoCloseable {
+
+	/** The default {@link TerminalFactory} type. */
+	public static final String PCSC = "PC/SC";
+	/** Size of pooled APDU buffers: the longest extended length command APDU. */
+	public static final int MAX_APDU_LENGTH = 4 + 3 + 65535 + 2;
+
+	private static final int BUFFER_POOL_CAPACITY = 32;
+
+	private static final Logger LOG = Logger.getLogger(CardSessionManager.class.getName());
+
+	private final String type;
+	private final Executor callbackExecutor;
+	private final Map<String, CardSession> sessions = new LinkedHashMap<>();
+	private final Map<CardSession, CardExecutor> executors = new LinkedHashMap<>();
+	private final DirectBufferPool bufferPool = new DirectBufferPool(MAX_APDU_LENGTH, BUFFER_POOL_CAPACITY);
+	private final CardMetrics metrics = new CardMetrics();
+	private final AtomicLong cardIds = new AtomicLong();
+	/** Guards changes to {@link #apduListeners}, apart from the manager lock, which is held while the PC/SC provider loads. */
+	private final Object apduListenerLock = new Object();
+	private volatile ApduListener[] apduListeners = new ApduListener[0];
+	private volatile EidFileCache fileCache;
+	private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "Card dispatcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private TerminalFactory terminalFactory;
+	private CardSession defaultSession;
+
+	/**
+	 * Creates a new {@link CardSessionManager} for the {@value #PCSC} terminal type, which delivers asynchronous results on the worker
+	 * threads.
+	 */
+	public CardSessionManager() {
+		this(PCSC, Runnable::run);
+	}
+
+	/**
+	 * Creates a new {@link CardSessionManager}.
+	 * 
+	 * @param type
+	 *            the {@link TerminalFactory} type
+	 * @param callbackExecutor
+	 *            the executor on which the {@link CardExecutor}s deliver their results
+	 */
+	public CardSessionManager(final String type, final Executor callbackExecutor) {
+		super();
+		this.type = type;
+		this.callbackExecutor = callbackExecutor;
+	}
+
+	/**
+	 * Creates a new {@link CardSessionManager} for the given {@link TerminalFactory}, e.g. a card simulator.
+	 * 
+	 * @param terminalFactory
+	 *            the {@link TerminalFactory}
+	 * @param callbackExecutor
+	 *            the executor on which the {@link CardExecutor}s deliver their results
+	 */
+	public CardSessionManager(final TerminalFactory terminalFactory, final Executor callbackExecutor) {
+		this(terminalFactory.getType(), callbackExecutor);
+		this.terminalFactory = terminalFactory;
+	}
+
+	/**
+	 * Returns the executor on which asynchronous results are delivered.
+	 * 
+	 * @return the callback executor
+	 */
+	public Executor getCallbackExecutor() {
+		return callbackExecutor;
+	}
+
+	/**
+	 * Returns the pool of APDU buffers shared by all sessions.
+	 * 
+	 * @return the buffer pool
+	 */
+	public DirectBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Returns the latency histograms and command counters of all sessions.
+	 * 
+	 * @return the card metrics
+	 */
+	public CardMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the cache of eID files shared by all sessions.
+	 * 
+	 * @return the file cache, or <code>null</code> if files are always read from the card
+	 */
+	public EidFileCache getFileCache() {
+		return fileCache;
+	}
+
+	/**
+	 * Sets the cache of eID files shared by all sessions. {@link EidFileReader}s created afterwards read immutable files through it.
+	 * 
+	 * @param fileCache
+	 *            the file cache, or <code>null</code> to always read files from the card
+	 */
+	public void setFileCache(final EidFileCache fileCache) {
+		this.fileCache = fileCache;
+	}
+
+	/**
+	 * Adds a listener that observes the card traffic of all sessions.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addApduListener(final ApduListener listener) {
+		synchronized (apduListenerLock) {
+			final ApduListener[] listeners = Arrays.copyOf(apduListeners, apduListeners.length + 1);
+			listeners[listeners.length - 1] = listener;
+			apduListeners = listeners;
+		}
+	}
+
+	/**
+	 * Removes the given listener.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeApduListener(final ApduListener listener) {
+		synchronized (apduListenerLock) {
+			final List<ApduListener> listeners = new ArrayList<>(Arrays.asList(apduListeners));
+			listeners.remove(listener);
+			apduListeners = listeners.toArray(new ApduListener[listeners.size()]);
+		}
+	}
+
+	/**
+	 * Returns the current card traffic listeners, without locking.
+	 * 
+	 * @return the listeners, not to be modified
+	 */
+	ApduListener[] getApduListeners() {
+		return apduListeners;
+	}
+
+	/**
+	 * Returns a new card connection identifier.
+	 * 
+	 * @return the card connection identifier
+	 */
+	long nextCardId() {
+		return cardIds.incrementAndGet();
+	}
+
+	/**
+	 * Returns the {@link CardTerminals} of the (cached) {@link TerminalFactory}.
+	 * 
+	 * @return the {@link CardTerminals}
+	 * @throws CardException
+	 *             if the {@link TerminalFactory} is not available
+	 */
+	public synchronized CardTerminals getTerminals() throws CardException {
+		if (terminalFactory == null) {
+			try {
+				terminalFactory = TerminalFactory.getInstance(type, null);
+			} catch (final NoSuchAlgorithmException e) {
+				throw new CardException("Terminal type " + type + " is not available", e);
+			}
+		}
+		return terminalFactory.terminals();
+	}
+
+	/**
+	 * Initialises the {@link TerminalFactory} and lists the card readers on a background thread, so that the first command does not pay
+	 * for loading the PC/SC provider.
+	 * 
+	 * @return the names of the available card readers, completed on the background thread
+	 */
+	public CompletableFuture<List<String>> warmUp() {
+		final CompletableFuture<List<String>> result = new CompletableFuture<>();
+		final Thread thread = new Thread(() -> {
+			try {
+				result.complete(listTerminalNames(false));
+			} catch (final CardException | RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		}, "Card reader warm-up");
+		thread.setDaemon(true);
+		thread.start();
+		return result;
+	}
+
+	/**
+	 * Returns the names of the available card readers.
+	 * 
+	 * @param cardPresent
+	 *            whether to return only the card readers that hold a card
+	 * @return the card reader names
+	 * @throws CardException
+	 *             if the card readers cannot be listed
+	 */
+	public List<String> listTerminalNames(final boolean cardPresent) throws CardException {
+		final CardTerminals terminals = getTerminals();
+		final long start = System.nanoTime();
+		final List<CardTerminal> terminalList = cardPresent ? terminals.list(CardTerminals.State.CARD_PRESENT) : terminals.list();
+		metrics.record(Phase.ENUMERATE, System.nanoTime() - start);
+		final List<String> names = new ArrayList<>(terminalList.size());
+		for (final CardTerminal terminal : terminalList) {
+			names.add(terminal.getName());
+		}
+		return names;
+	}
+
+	/**
+	 * Runs the given task on the worker thread of the given card reader.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 * @param task
+	 *            the task to run
+	 * @return the result, completed on the callback executor; failures are reported in the {@link ReaderResult}
+	 */
+	public <V> CompletableFuture<ReaderResult<V>> submit(final String terminalName, final CardTask<V> task) {
+		return getExecutor(terminalName).submit(ReaderResult.timed(terminalName, task))
+				.exceptionally(error -> ReaderResult.failed(terminalName, CardExecutor.unwrap(error)));
+	}
+
+	/**
+	 * Runs the given task concurrently on every card reader that holds a card, each on the worker thread of its own
+	 * {@link CardExecutor}. Failures on individual readers are reported in their {@link ReaderResult}, so one bad card does not affect
+	 * the others.
+	 * 
+	 * @param task
+	 *            the task to run
+	 * @return the results per card reader in card reader order, completed on the callback executor when all readers are done
+	 */
+	public <V> CompletableFuture<List<ReaderResult<V>>> submitToAll(final CardTask<V> task) {
+		final CompletableFuture<List<ReaderResult<V>>> results = new CompletableFuture<>();
+		try {
+			dispatcher.execute(() -> {
+				final List<String> names;
+				try {
+					names = listTerminalNames(true);
+				} catch (final CardException | RuntimeException e) {
+					callbackExecutor.execute(() -> results.completeExceptionally(e));
+					return;
+				}
+				if (names.isEmpty()) {
+					callbackExecutor.execute(() -> results.complete(Collections.emptyList()));
+					return;
+				}
+				final List<CompletableFuture<ReaderResult<V>>> futures = new ArrayList<>(names.size());
+				for (final String name : names) {
+					futures.add(submit(name, task));
+				}
+				CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).whenComplete((ignored, error) -> {
+					final List<ReaderResult<V>> readerResults = new ArrayList<>(futures.size());
+					futures.forEach(future -> readerResults.add(future.getNow(null)));
+					results.complete(readerResults);
+				});
+			});
+		} catch (final RejectedExecutionException e) {
+			results.completeExceptionally(e);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the session for the first available card reader.
+	 * 
+	 * @return the default {@link CardSession}
+	 */
+	public synchronized CardSession getSession() {
+		if (defaultSession == null) {
+			defaultSession = new CardSession(this, null);
+		}
+		return defaultSession;
+	}
+
+	/**
+	 * Returns the session for the card reader with the given name.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 * @return the {@link CardSession}
+	 */
+	public synchronized CardSession getSession(final String terminalName) {
+		CardSession session = sessions.get(terminalName);
+		if (session == null) {
+			session = new CardSession(this, terminalName);
+			sessions.put(terminalName, session);
+		}
+		return session;
+	}
+
+	/**
+	 * Returns the executor for the first available card reader.
+	 * 
+	 * @return the default {@link CardExecutor}
+	 */
+	public synchronized CardExecutor getExecutor() {
+		return getExecutor(getSession());
+	}
+
+	/**
+	 * Returns the executor for the card reader with the given name.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 * @return the {@link CardExecutor}
+	 */
+	public synchronized CardExecutor getExecutor(final String terminalName) {
+		return getExecutor(getSession(terminalName));
+	}
+
+	private CardExecutor getExecutor(final CardSession session) {
+		CardExecutor executor = executors.get(session);
+		if (executor == null) {
+			executor = new CardExecutor(session, callbackExecutor);
+			executors.put(session, executor);
+		}
+		return executor;
+	}
+
+	/**
+	 * Returns the number of tasks queued or running for the given card reader, over all its sessions.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 * @return the queue depth
+	 */
+	public synchronized int getQueueDepth(final String terminalName) {
+		int queueDepth = 0;
+		for (final CardExecutor executor : executors.values()) {
+			final CardSession session = executor.getSession();
+			final String name = session.getTerminalName() != null ? session.getTerminalName() : session.getConnectedTerminalName();
+			if (terminalName.equals(name)) {
+				queueDepth += executor.getQueueDepth();
+			}
+		}
+		return queueDepth;
+	}
+
+	/**
+	 * Returns the number of tasks queued or running for all card readers.
+	 * 
+	 * @return the queue depth
+	 */
+	public synchronized int getQueueDepth() {
+		int queueDepth = 0;
+		for (final CardExecutor executor : executors.values()) {
+			queueDepth += executor.getQueueDepth();
+		}
+		return queueDepth;
+	}
+
+	/**
+	 * Notifies the sessions of the given card reader that its card was removed, so that they reconnect on the next command instead of
+	 * first failing on the stale card handle.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 */
+	public synchronized void cardRemoved(final String terminalName) {
+		final CardSession session = sessions.get(terminalName);
+		if (session != null) {
+			session.cardRemoved();
+		}
+		if (defaultSession != null && terminalName.equals(defaultSession.getConnectedTerminalName())) {
+			defaultSession.cardRemoved();
+		}
+	}
+
+	/**
+	 * Returns the number of card connects performed by all sessions.
+	 * 
+	 * @return the number of card connects
+	 */
+	public synchronized long getConnectCount() {
+		long count = defaultSession == null ? 0L : defaultSession.getConnectCount();
+		for (final CardSession session : sessions.values()) {
+			count += session.getConnectCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of card connects avoided by all sessions.
+	 * 
+	 * @return the number of card connects avoided by reusing an open card connection
+	 */
+	public synchronized long getAvoidedConnectCount() {
+		long count = defaultSession == null ? 0L : defaultSession.getAvoidedConnectCount();
+		for (final CardSession session : sessions.values()) {
+			count += session.getAvoidedConnectCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of card resets performed by all sessions.
+	 * 
+	 * @return the number of card resets
+	 */
+	public synchronized long getResetCount() {
+		long count = defaultSession == null ? 0L : defaultSession.getResetCount();
+		for (final CardSession session : sessions.values()) {
+			count += session.getResetCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of card resets avoided by all sessions.
+	 * 
+	 * @return the number of card resets avoided by keeping the card connection open between commands
+	 */
+	public synchronized long getAvoidedResetCount() {
+		long count = defaultSession == null ? 0L : defaultSession.getAvoidedResetCount();
+		for (final CardSession session : sessions.values()) {
+			count += session.getAvoidedResetCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Stops all executors, disconnects all sessions and logs the connect/reset statistics. The executors are stopped together, against one
+	 * shared deadline, and without holding the lock of this manager, which their pending tasks may need to connect.
+	 */
+	@Override
+	public void close() {
+		final List<CardExecutor> closing;
+		final List<CardSession> idle = new ArrayList<>();
+		synchronized (this) {
+			dispatcher.shutdownNow();
+			closing = new ArrayList<>(executors.values());
+			if (defaultSession != null && !executors.containsKey(defaultSession)) {
+				idle.add(defaultSession);
+			}
+			for (final CardSession session : sessions.values()) {
+				if (!executors.containsKey(session)) {
+					idle.add(session);
+				}
+			}
+			executors.clear();
+		}
+		closing.forEach(CardExecutor::shutdown);
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CardExecutor.CLOSE_TIMEOUT_MILLIS);
+		for (final CardExecutor executor : closing) {
+			executor.awaitTermination(deadline);
+		}
+		idle.forEach(CardSessionManager::closeQuietly);
+		if (getConnectCount() > 0) {
+			LOG.info(String.format("Card sessions closed: %d connects (%d avoided), %d resets (%d avoided)", getConnectCount(),
+					getAvoidedConnectCount(), getResetCount(), getAvoidedResetCount()));
+		}
+	}
+
+	private static void closeQuietly(final CardSession session) {
+		try {
+			session.close();
+		} catch (final CardException e) {
+			LOG.log(Level.FINE, "Could not disconnect card", e);
+		}
+	}
+
+}
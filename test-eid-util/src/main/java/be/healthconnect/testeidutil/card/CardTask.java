@@ -0,0 +1,29 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import javax.smartcardio.CardException;
+
+/**
+ * A unit of work that talks to the card in a {@link CardSession}.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ * 
+ * @param <V>
+ *            the result type
+ */
+public interface CardTask<V> {
+
+	/**
+	 * Executes this task against the card.
+	 * 
+	 * @param session
+	 *            the card session to use
+	 * @return the result
+	 * @throws CardException
+	 *             if communication with the card fails
+	 */
+	V execute(CardSession session) throws CardException;
+
+}
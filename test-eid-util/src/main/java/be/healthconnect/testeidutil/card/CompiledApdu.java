@@ -0,0 +1,115 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.smartcardio.CommandAPDU;
+
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * Immutable, pre-encoded command APDU. Constant commands are compiled once, so that sending them does not parse or allocate anything.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class CompiledApdu {
+
+	private final byte[] bytes;
+
+	private CompiledApdu(final byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Compiles the given command APDU.
+	 * 
+	 * @param bytes
+	 *            the command APDU bytes, which are copied
+	 * @return the compiled command APDU
+	 * @throws IllegalArgumentException
+	 *             if <code>bytes</code> is not a valid command APDU
+	 */
+	public static CompiledApdu of(final byte[] bytes) {
+		// validates the APDU structure
+		new CommandAPDU(bytes);
+		return new CompiledApdu(bytes.clone());
+	}
+
+	/**
+	 * Compiles the given command APDU.
+	 * 
+	 * @param hex
+	 *            the command APDU in hex
+	 * @return the compiled command APDU
+	 * @throws IllegalArgumentException
+	 *             if <code>hex</code> is not a valid command APDU
+	 */
+	public static CompiledApdu of(final String hex) {
+		return of(HexCodec.decode(hex));
+	}
+
+	/**
+	 * Writes the command bytes into the given buffer, starting at its position.
+	 * 
+	 * @param dst
+	 *            the destination buffer
+	 */
+	public void writeTo(final ByteBuffer dst) {
+		dst.put(bytes);
+	}
+
+	/**
+	 * Returns the length of the command APDU.
+	 * 
+	 * @return the number of bytes
+	 */
+	public int length() {
+		return bytes.length;
+	}
+
+	/**
+	 * Returns the instruction byte.
+	 * 
+	 * @return the INS byte
+	 */
+	public int getINS() {
+		return bytes[1] & 0xFF;
+	}
+
+	/**
+	 * Returns a copy of the command bytes.
+	 * 
+	 * @return the command bytes
+	 */
+	public byte[] getBytes() {
+		return bytes.clone();
+	}
+
+	/**
+	 * Returns the command as a {@link CommandAPDU}.
+	 * 
+	 * @return a new {@link CommandAPDU}
+	 */
+	public CommandAPDU toCommand() {
+		return new CommandAPDU(bytes);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		return obj instanceof CompiledApdu && Arrays.equals(bytes, ((CompiledApdu) obj).bytes);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(bytes);
+	}
+
+	@Override
+	public String toString() {
+		return HexCodec.toHex(bytes);
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+/**
+ * Standard Belgian eID files, with their SELECT commands compiled once.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public enum EidFile {
+
+	IDENTITY("identity", "Identity", "3F00DF014031", true),
+	IDENTITY_SIGNATURE("identity-signature", "Identity signature", "3F00DF014032", true),
+	ADDRESS("address", "Address", "3F00DF014033", false),
+	ADDRESS_SIGNATURE("address-signature", "Address signature", "3F00DF014034", false),
+	PHOTO("photo", "Photo", "3F00DF014035", true),
+	AUTHENTICATION_CERTIFICATE("auth-cert", "Authentication certificate", "3F00DF005038", true),
+	SIGNING_CERTIFICATE("sign-cert", "Signing certificate", "3F00DF005039", true),
+	CA_CERTIFICATE("ca-cert", "CA certificate", "3F00DF00503A", true),
+	ROOT_CERTIFICATE("root-cert", "Root certificate", "3F00DF00503B", true),
+	RRN_CERTIFICATE("rrn-cert", "National register certificate", "3F00DF00503C", true);
+
+	private final String name;
+	private final String label;
+	private final String path;
+	private final CompiledApdu select;
+	private final boolean immutable;
+
+	private EidFile(final String name, final String label, final String path, final boolean immutable) {
+		this.name = name;
+		this.label = label;
+		this.path = path;
+		this.immutable = immutable;
+		this.select = CompiledApdu.of("00A4080C" + String.format("%02X", path.length() / 2) + path);
+	}
+
+	/**
+	 * Returns the file name, as used on the command line.
+	 * 
+	 * @return the file name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the file label, as shown in the GUI.
+	 * 
+	 * @return the file label
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Returns the absolute file path.
+	 * 
+	 * @return the file path in hex, starting with the master file
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Returns the command that selects this file by path.
+	 * 
+	 * @return the SELECT command
+	 */
+	public CompiledApdu getSelect() {
+		return select;
+	}
+
+	/**
+	 * Returns whether the file contents are fixed when the card is issued. Only the address and its signature are rewritten during the
+	 * lifetime of a card.
+	 * 
+	 * @return <code>true</code> if the file never changes on a given card
+	 */
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	/**
+	 * Returns the file with the given name.
+	 * 
+	 * @param name
+	 *            the file name, as used on the command line
+	 * @return the file
+	 * @throws IllegalArgumentException
+	 *             if there is no file with the given name
+	 */
+	public static EidFile forName(final String name) {
+		for (final EidFile file : values()) {
+			if (file.name.equals(name)) {
+				return file;
+			}
+		}
+		throw new IllegalArgumentException("Unknown eID file: " + name);
+	}
+
+}
@@ -0,0 +1,291 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of eID file contents, keyed by chip number and file path. Entries live in an in-memory tier that evicts the least recently used
+ * files once its size limit is exceeded and, optionally, in an on-disk tier that survives restarts: one directory per chip number with one
+ * file per eID file path. Disk errors are logged and treated as a cache miss. Only {@link EidFile#isImmutable() immutable} files belong in
+ * the cache; {@link EidFileReader} takes care of that.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class EidFileCache {
+
+	/** Default size limit of the in-memory tier: enough for all immutable files of a few dozen cards. */
+	public static final long DEFAULT_MEMORY_LIMIT = 4L << 20;
+
+	private static final Logger LOG = Logger.getLogger(EidFileCache.class.getName());
+
+	private static final Pattern CHIP_NUMBER = Pattern.compile("[0-9A-F]+");
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final long memoryLimit;
+	private final Path directory;
+	private final Map<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long memorySize;
+	private long hits;
+	private long diskHits;
+	private long misses;
+
+	/**
+	 * Creates a new in-memory {@link EidFileCache}.
+	 * 
+	 * @param memoryLimit
+	 *            the maximum total size of the cached files in bytes
+	 */
+	public EidFileCache(final long memoryLimit) {
+		this(memoryLimit, null);
+	}
+
+	/**
+	 * Creates a new {@link EidFileCache} with an on-disk tier.
+	 * 
+	 * @param memoryLimit
+	 *            the maximum total size of the files cached in memory in bytes
+	 * @param directory
+	 *            the directory of the on-disk tier, created if necessary, or <code>null</code> for an in-memory cache
+	 */
+	public EidFileCache(final long memoryLimit, final Path directory) {
+		super();
+		if (memoryLimit < 0) {
+			throw new IllegalArgumentException("Negative memory limit: " + memoryLimit);
+		}
+		this.memoryLimit = memoryLimit;
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the directory of the on-disk tier.
+	 * 
+	 * @return the directory, or <code>null</code> for an in-memory cache
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the cached contents of the given file. A file found on disk is promoted to the in-memory tier.
+	 * 
+	 * @param chipNumber
+	 *            the chip number of the card in upper case hex
+	 * @param file
+	 *            the file
+	 * @return the file contents, which must not be modified, or <code>null</code> if not cached
+	 */
+	public byte[] get(final String chipNumber, final EidFile file) {
+		final String key = key(chipNumber, file);
+		synchronized (this) {
+			final byte[] contents = memory.get(key);
+			if (contents != null) {
+				hits++;
+				return contents;
+			}
+		}
+		final byte[] contents = directory == null ? null : readDisk(chipNumber, file);
+		synchronized (this) {
+			if (contents == null) {
+				misses++;
+				return null;
+			}
+			diskHits++;
+			putMemory(key, contents);
+			return contents;
+		}
+	}
+
+	/**
+	 * Caches the contents of the given file, in memory and on disk.
+	 * 
+	 * @param chipNumber
+	 *            the chip number of the card in upper case hex
+	 * @param file
+	 *            the file
+	 * @param contents
+	 *            the file contents, which must not be modified afterwards
+	 */
+	public void put(final String chipNumber, final EidFile file, final byte[] contents) {
+		final String key = key(chipNumber, file);
+		synchronized (this) {
+			putMemory(key, contents);
+		}
+		if (directory != null) {
+			writeDisk(chipNumber, file, contents);
+		}
+	}
+
+	/**
+	 * Removes the given file of the given card from the cache.
+	 * 
+	 * @param chipNumber
+	 *            the chip number of the card in upper case hex
+	 * @param file
+	 *            the file
+	 */
+	public void invalidate(final String chipNumber, final EidFile file) {
+		final String key = key(chipNumber, file);
+		synchronized (this) {
+			removeMemory(key);
+		}
+		if (directory != null) {
+			delete(directory.resolve(chipNumber).resolve(file.getPath()));
+		}
+	}
+
+	/**
+	 * Removes all files of the given card from the cache.
+	 * 
+	 * @param chipNumber
+	 *            the chip number of the card in upper case hex
+	 */
+	public void invalidate(final String chipNumber) {
+		for (final EidFile file : EidFile.values()) {
+			invalidate(chipNumber, file);
+		}
+		if (directory != null) {
+			delete(directory.resolve(chipNumber));
+		}
+	}
+
+	/**
+	 * Removes all files of all cards from the cache.
+	 */
+	public void invalidateAll() {
+		synchronized (this) {
+			memory.clear();
+			memorySize = 0;
+		}
+		if (directory == null || !Files.isDirectory(directory)) {
+			return;
+		}
+		try (final DirectoryStream<Path> chips = Files.newDirectoryStream(directory)) {
+			for (final Path chip : chips) {
+				if (CHIP_NUMBER.matcher(chip.getFileName().toString()).matches()) {
+					invalidate(chip.getFileName().toString());
+				}
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Cannot list file cache " + directory, e);
+		}
+	}
+
+	/**
+	 * Returns the total size of the files cached in memory.
+	 * 
+	 * @return the size in bytes
+	 */
+	public synchronized long getMemorySize() {
+		return memorySize;
+	}
+
+	/**
+	 * Returns the number of lookups answered from memory.
+	 * 
+	 * @return the number of in-memory hits
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups answered from disk.
+	 * 
+	 * @return the number of on-disk hits
+	 */
+	public synchronized long getDiskHitCount() {
+		return diskHits;
+	}
+
+	/**
+	 * Returns the number of lookups that found nothing.
+	 * 
+	 * @return the number of misses
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	private void putMemory(final String key, final byte[] contents) {
+		removeMemory(key);
+		if (contents.length > memoryLimit) {
+			return;
+		}
+		memory.put(key, contents);
+		memorySize += contents.length;
+		// iteration order is least recently used first
+		final Iterator<byte[]> eldest = memory.values().iterator();
+		while (memorySize > memoryLimit) {
+			memorySize -= eldest.next().length;
+			eldest.remove();
+		}
+	}
+
+	private void removeMemory(final String key) {
+		final byte[] previous = memory.remove(key);
+		if (previous != null) {
+			memorySize -= previous.length;
+		}
+	}
+
+	private byte[] readDisk(final String chipNumber, final EidFile file) {
+		final Path path = directory.resolve(chipNumber).resolve(file.getPath());
+		try {
+			return Files.readAllBytes(path);
+		} catch (final NoSuchFileException e) {
+			return null;
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Cannot read cached file " + path, e);
+			return null;
+		}
+	}
+
+	private void writeDisk(final String chipNumber, final EidFile file, final byte[] contents) {
+		final Path path = directory.resolve(chipNumber).resolve(file.getPath());
+		final Path temp = path.resolveSibling(file.getPath() + TEMP_SUFFIX);
+		try {
+			Files.createDirectories(path.getParent());
+			Files.write(temp, contents);
+			// readers never see a partially written file
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Cannot write cached file " + path, e);
+			delete(temp);
+		}
+	}
+
+	private static void delete(final Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Cannot delete cached file " + path, e);
+		}
+	}
+
+	private static String key(final String chipNumber, final EidFile file) {
+		if (!CHIP_NUMBER.matcher(chipNumber).matches()) {
+			throw new IllegalArgumentException("Invalid chip number: " + chipNumber);
+		}
+		return chipNumber + '/' + file.getPath();
+	}
+
+}
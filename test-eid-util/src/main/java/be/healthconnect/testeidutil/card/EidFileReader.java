@@ -0,0 +1,316 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.smartcardio.CardException;
+
+import be.healthconnect.testeidutil.util.DirectBufferPool;
+
+/**
+ * Reads the standard Belgian eID files with as few READ BINARY round trips as the card and card reader allow. Each read starts with the
+ * largest chunk possible: 65536 bytes when the card reader accepts extended length APDUs, 256 bytes otherwise. A <code>6Cxx</code>
+ * response re-issues the read with the exact remaining length, <code>6282</code> or a short chunk ends the file, and <code>6700</code>
+ * falls back to a smaller chunk. Whether extended length works is found out once per card connection, see
+ * {@link CardSession#getExtendedLength()}.
+ * <p>
+ * {@link EidFile#isImmutable() Immutable} files are read through the {@link EidFileCache}, if any: the card is identified by its chip
+ * number, which costs one GET CARD DATA per card connection, and a cached file is returned without selecting or reading it.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class EidFileReader {
+
+	private static final Logger LOG = Logger.getLogger(EidFileReader.class.getName());
+
+	private static final int SW_OK = 0x9000;
+	private static final int SW_END_OF_FILE = 0x6282;
+	private static final int SW_WRONG_LENGTH = 0x6700;
+	private static final int SW_WRONG_OFFSET = 0x6B00;
+	private static final int SW1_CORRECT_LENGTH = 0x6C;
+
+	/** Largest chunk in a short READ BINARY, encoded as Le = 00. */
+	private static final int SHORT_CHUNK = 256;
+	/** Largest chunk in an extended READ BINARY, encoded as Le = 0000. */
+	private static final int EXTENDED_CHUNK = 65536;
+	/** Chunk size that every eID card and card reader accepts. */
+	private static final int SAFE_CHUNK = 0xF8;
+	/** READ BINARY offsets are 15 bits wide. */
+	private static final int MAX_OFFSET = 0x7FFF;
+
+	private final CardSession session;
+	private final EidFileCache cache;
+
+	/**
+	 * Creates a new {@link EidFileReader} that uses the file cache of the session, if any.
+	 * 
+	 * @param session
+	 *            the card session to read from
+	 * @see CardSession#getFileCache()
+	 */
+	public EidFileReader(final CardSession session) {
+		this(session, session.getFileCache());
+	}
+
+	/**
+	 * Creates a new {@link EidFileReader}.
+	 * 
+	 * @param session
+	 *            the card session to read from
+	 * @param cache
+	 *            the cache for immutable files, or <code>null</code> to always read from the card
+	 */
+	public EidFileReader(final CardSession session, final EidFileCache cache) {
+		super();
+		this.session = session;
+		this.cache = cache;
+	}
+
+	/**
+	 * Reads the given file completely.
+	 * 
+	 * @param file
+	 *            the file to read
+	 * @return the file contents
+	 * @throws CardException
+	 *             if the file could not be selected or read
+	 */
+	public byte[] read(final EidFile file) throws CardException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(SHORT_CHUNK);
+		try {
+			read(file, out);
+		} catch (final IOException e) {
+			// ByteArrayOutputStream does not throw IOException
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads the given file into the given buffer, starting at its position.
+	 * 
+	 * @param file
+	 *            the file to read
+	 * @param dst
+	 *            the buffer that receives the file contents
+	 * @return the file length
+	 * @throws CardException
+	 *             if the file could not be selected or read
+	 * @throws java.nio.BufferOverflowException
+	 *             if the file does not fit in <code>dst</code>
+	 */
+	public int read(final EidFile file, final ByteBuffer dst) throws CardException {
+		try {
+			return (int) read(file, (Sink) dst::put);
+		} catch (final IOException e) {
+			// ByteBuffer.put does not throw IOException
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Streams the given file into the given output stream.
+	 * 
+	 * @param file
+	 *            the file to read
+	 * @param out
+	 *            the stream that receives the file contents, which is not closed
+	 * @return the file length
+	 * @throws CardException
+	 *             if the file could not be selected or read
+	 * @throws IOException
+	 *             if the file contents could not be written
+	 */
+	public long read(final EidFile file, final OutputStream out) throws CardException, IOException {
+		final WritableByteChannel channel = Channels.newChannel(out);
+		return read(file, (Sink) chunk -> writeFully(channel, chunk));
+	}
+
+	/**
+	 * Streams the given file into the given output file, replacing it if it exists.
+	 * 
+	 * @param file
+	 *            the file to read
+	 * @param path
+	 *            the output file
+	 * @return the file length
+	 * @throws CardException
+	 *             if the file could not be selected or read
+	 * @throws IOException
+	 *             if the output file could not be written
+	 */
+	public long read(final EidFile file, final Path path) throws CardException, IOException {
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			return read(file, (Sink) chunk -> writeFully(channel, chunk));
+		}
+	}
+
+	private long read(final EidFile file, final Sink sink) throws CardException, IOException {
+		if (cache == null || !file.isImmutable()) {
+			return readCard(file, sink);
+		}
+		// the chip number check and the read must see the same card
+		session.beginExclusive();
+		try {
+			final String chipNumber = session.getChipNumber();
+			final byte[] cached = cache.get(chipNumber, file);
+			if (cached != null) {
+				sink.write(ByteBuffer.wrap(cached));
+				return cached.length;
+			}
+			final ByteArrayOutputStream contents = new ByteArrayOutputStream(SHORT_CHUNK);
+			final long length = readCard(file, chunk -> {
+				final byte[] bytes = new byte[chunk.remaining()];
+				chunk.duplicate().get(bytes);
+				contents.write(bytes, 0, bytes.length);
+				sink.write(chunk);
+			});
+			cache.put(chipNumber, file, contents.toByteArray());
+			return length;
+		} finally {
+			session.endExclusive();
+		}
+	}
+
+	private long readCard(final EidFile file, final Sink sink) throws CardException, IOException {
+		final DirectBufferPool pool = session.getBufferPool();
+		final ByteBuffer command = pool.acquire();
+		final ByteBuffer response = pool.acquire();
+		session.beginExclusive();
+		try {
+			response.clear();
+			final int selectSW = statusWord(response, session.transmit(file.getSelect(), response));
+			if (selectSW != SW_OK) {
+				throw new CardException(String.format("SELECT %s failed: %04X", file.getName(), selectSW));
+			}
+
+			int offset = 0;
+			int chunk = Boolean.FALSE.equals(session.getExtendedLength()) ? SHORT_CHUNK : EXTENDED_CHUNK;
+			boolean exact = false;
+			while (true) {
+				if (offset > MAX_OFFSET) {
+					throw new CardException(String.format("%s is larger than READ BINARY can address", file.getName()));
+				}
+				final int length;
+				try {
+					length = transmit(readBinary(command, offset, chunk), response);
+				} catch (final CardException e) {
+					if (chunk <= SHORT_CHUNK || session.getExtendedLength() != null || CardSession.isStale(e)) {
+						throw e;
+					}
+					// the card reader rejected the extended length APDU outright
+					LOG.log(Level.FINE, "Extended length READ BINARY failed, falling back to short APDUs", e);
+					session.setExtendedLength(Boolean.FALSE);
+					chunk = SHORT_CHUNK;
+					continue;
+				}
+				final int sw = statusWord(response, length);
+				final int dataLength = length - 2;
+				if (sw == SW_OK || sw == SW_END_OF_FILE) {
+					if (chunk > SHORT_CHUNK) {
+						session.setExtendedLength(Boolean.TRUE);
+					}
+					response.flip().limit(dataLength);
+					sink.write(response);
+					offset += dataLength;
+					// extended length responses may be capped below the end of the file by the card or card reader, but an empty
+					// response means the previous chunk ended exactly at the end of the file
+					if (exact || sw == SW_END_OF_FILE || dataLength == 0 || dataLength < chunk && chunk <= SHORT_CHUNK) {
+						return offset;
+					}
+				} else if (sw >> 8 == SW1_CORRECT_LENGTH) {
+					// the card tells the exact number of bytes left
+					chunk = (sw & 0xFF) == 0 ? SHORT_CHUNK : sw & 0xFF;
+					exact = true;
+				} else if (sw == SW_WRONG_OFFSET && offset > 0) {
+					// the previous chunk ended exactly at the end of the file
+					return offset;
+				} else if (sw == SW_WRONG_LENGTH && chunk > SHORT_CHUNK) {
+					session.setExtendedLength(Boolean.FALSE);
+					chunk = SHORT_CHUNK;
+				} else if (sw == SW_WRONG_LENGTH && chunk > SAFE_CHUNK) {
+					chunk = SAFE_CHUNK;
+				} else {
+					throw new CardException(String.format("READ BINARY of %s failed at offset %d: %04X", file.getName(), offset, sw));
+				}
+			}
+		} finally {
+			session.endExclusive();
+			pool.release(response);
+			pool.release(command);
+		}
+	}
+
+	private int transmit(final ByteBuffer command, final ByteBuffer response) throws CardException {
+		response.clear();
+		return session.transmit(command, response);
+	}
+
+	/**
+	 * Encodes a READ BINARY command into the given buffer.
+	 * 
+	 * @param command
+	 *            the command buffer
+	 * @param offset
+	 *            the file offset
+	 * @param chunk
+	 *            the number of bytes to read, 1 to 65536
+	 * @return the command buffer, flipped
+	 */
+	private static ByteBuffer readBinary(final ByteBuffer command, final int offset, final int chunk) {
+		command.clear();
+		command.put((byte) 0x00).put((byte) 0xB0).put((byte) (offset >> 8)).put((byte) offset);
+		if (chunk > SHORT_CHUNK) {
+			command.put((byte) 0x00).put((byte) (chunk >> 8)).put((byte) chunk);
+		} else {
+			command.put((byte) chunk);
+		}
+		command.flip();
+		return command;
+	}
+
+	private static int statusWord(final ByteBuffer response, final int length) throws CardException {
+		if (length < 2) {
+			throw new CardException("Response APDU too short: " + length + " bytes");
+		}
+		return (response.get(length - 2) & 0xFF) << 8 | response.get(length - 1) & 0xFF;
+	}
+
+	private static void writeFully(final WritableByteChannel channel, final ByteBuffer chunk) throws IOException {
+		while (chunk.hasRemaining()) {
+			channel.write(chunk);
+		}
+	}
+
+	/**
+	 * Destination of the file contents.
+	 */
+	private interface Sink {
+
+		/**
+		 * Consumes the given chunk of file contents.
+		 * 
+		 * @param chunk
+		 *            the chunk, between position and limit
+		 * @throws IOException
+		 *             if the chunk could not be written
+		 */
+		void write(ByteBuffer chunk) throws IOException;
+
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+/**
+ * Named command macro from a {@link MacroCatalogue}, shared by the GUI and the command line.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class Macro {
+
+	private final String name;
+	private final String label;
+	private final ApduScript script;
+
+	/**
+	 * Creates a new {@link Macro}.
+	 * 
+	 * @param name
+	 *            the macro name, as used on the command line
+	 * @param label
+	 *            the macro label, as shown in the GUI
+	 * @param script
+	 *            the precompiled macro script
+	 */
+	public Macro(final String name, final String label, final ApduScript script) {
+		super();
+		this.name = name;
+		this.label = label;
+		this.script = script;
+	}
+
+	/**
+	 * Returns the macro name, as used on the command line.
+	 * 
+	 * @return the macro name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the macro label, as shown in the GUI.
+	 * 
+	 * @return the macro label
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Returns the macro script.
+	 * 
+	 * @return the parsed macro script
+	 */
+	public ApduScript getScript() {
+		return script;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
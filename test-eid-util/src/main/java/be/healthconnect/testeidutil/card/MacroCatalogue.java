@@ -0,0 +1,207 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Catalogue of command macros, parsed and compiled once. Catalogue syntax:
+ * 
+ * <pre>
+ * [unblock3] Unblock eID (3)
+ * PUK = 222222111111
+ * 00 2C 00 01 08 2C ${PUK} FF -&gt; 9000
+ * </pre>
+ * 
+ * Each header line <code>[name] Label</code> starts a macro; the lines up to the next header form its {@link ApduScript}, with its
+ * parameters as script variables. Line numbers in script errors and step results refer to the catalogue file. The built-in catalogue
+ * is the resource {@value #DEFAULT_RESOURCE}.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class MacroCatalogue {
+
+	/** The built-in catalogue resource. */
+	public static final String DEFAULT_RESOURCE = "macros.conf";
+
+	private static final Pattern HEADER = Pattern.compile("\\[([A-Za-z0-9_.-]+)\\]\\s*(.*)");
+
+	private static volatile MacroCatalogue defaultCatalogue;
+
+	private final Map<String, Macro> macros;
+
+	private MacroCatalogue(final Map<String, Macro> macros) {
+		this.macros = Collections.unmodifiableMap(macros);
+	}
+
+	/**
+	 * Returns the built-in catalogue.
+	 * 
+	 * @return the built-in catalogue
+	 */
+	public static MacroCatalogue getDefault() {
+		MacroCatalogue catalogue = defaultCatalogue;
+		if (catalogue == null) {
+			try (final InputStream in = MacroCatalogue.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+				if (in == null) {
+					throw new IllegalStateException("Missing resource " + DEFAULT_RESOURCE);
+				}
+				catalogue = parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+			} catch (final IOException e) {
+				throw new IllegalStateException(e);
+			}
+			defaultCatalogue = catalogue;
+		}
+		return catalogue;
+	}
+
+	/**
+	 * Parses the given catalogue file.
+	 * 
+	 * @param file
+	 *            the catalogue file (UTF-8)
+	 * @return the parsed {@link MacroCatalogue}
+	 * @throws IOException
+	 *             if the file cannot be read
+	 * @throws IllegalArgumentException
+	 *             if the catalogue contains a syntax error
+	 */
+	public static MacroCatalogue load(final Path file) throws IOException {
+		try (final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return parse(reader);
+		}
+	}
+
+	/**
+	 * Parses the given catalogue.
+	 * 
+	 * @param reader
+	 *            the catalogue source
+	 * @return the parsed {@link MacroCatalogue}
+	 * @throws IOException
+	 *             if the catalogue cannot be read
+	 * @throws IllegalArgumentException
+	 *             if the catalogue contains a syntax error
+	 */
+	public static MacroCatalogue parse(final Reader reader) throws IOException {
+		final Map<String, Macro> macros = new LinkedHashMap<>();
+		// GUI insertion jobs look macros up by label
+		final Set<String> labels = new HashSet<>();
+		final BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+		// blank lines in front of each script keep the line numbers of the catalogue
+		final StringBuilder script = new StringBuilder();
+		String name = null;
+		String label = null;
+		String line;
+		int lineNumber = 0;
+		while ((line = lines.readLine()) != null) {
+			lineNumber++;
+			final Matcher header = HEADER.matcher(line.trim());
+			if (header.matches()) {
+				addMacro(macros, name, label, script);
+				name = header.group(1);
+				label = header.group(2).isEmpty() ? name : header.group(2);
+				if (macros.containsKey(name)) {
+					throw new IllegalArgumentException("Line " + lineNumber + ": duplicate macro " + name);
+				}
+				if (!labels.add(label)) {
+					throw new IllegalArgumentException("Line " + lineNumber + ": duplicate label " + label);
+				}
+				script.setLength(0);
+				for (int i = 0; i < lineNumber; i++) {
+					script.append('\n');
+				}
+			} else if (name != null) {
+				script.append(line).append('\n');
+			} else if (!isComment(line)) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": statement outside of a macro");
+			}
+		}
+		addMacro(macros, name, label, script);
+		return new MacroCatalogue(macros);
+	}
+
+	/**
+	 * Returns the macros, in catalogue order.
+	 * 
+	 * @return the macros
+	 */
+	public List<Macro> getMacros() {
+		return new ArrayList<>(macros.values());
+	}
+
+	/**
+	 * Returns the macro with the given name.
+	 * 
+	 * @param name
+	 *            the macro name, as used on the command line
+	 * @return the macro
+	 * @throws IllegalArgumentException
+	 *             if there is no macro with the given name
+	 */
+	public Macro forName(final String name) {
+		final Macro macro = macros.get(name);
+		if (macro == null) {
+			throw new IllegalArgumentException("Unknown macro: " + name);
+		}
+		return macro;
+	}
+
+	/**
+	 * Returns the macro with the given label.
+	 * 
+	 * @param label
+	 *            the macro label, as shown in the GUI
+	 * @return the macro, or <code>null</code> if there is no macro with the given label
+	 */
+	public Macro forLabel(final String label) {
+		for (final Macro macro : macros.values()) {
+			if (macro.getLabel().equals(label)) {
+				return macro;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the macro names, separated by commas.
+	 */
+	@Override
+	public String toString() {
+		return String.join(", ", macros.keySet());
+	}
+
+	private static void addMacro(final Map<String, Macro> macros, final String name, final String label, final CharSequence script) {
+		if (name == null) {
+			return;
+		}
+		try {
+			macros.put(name, new Macro(name, label, ApduScript.parse(script.toString())));
+		} catch (final IllegalArgumentException e) {
+			throw new IllegalArgumentException("Macro " + name + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static boolean isComment(final String line) {
+		final String trimmed = line.trim();
+		return trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.startsWith("//");
+	}
+
+}
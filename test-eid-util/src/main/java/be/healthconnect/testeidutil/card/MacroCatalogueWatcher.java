@@ -0,0 +1,133 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import be.healthconnect.testeidutil.concurrent.CallResponse;
+
+/**
+ * Keeps a {@link MacroCatalogue} in sync with its file. The file is parsed on a background thread whenever it changes; readers always see
+ * a complete, compiled catalogue. A catalogue with errors is logged and ignored, so the previous catalogue stays in use.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class MacroCatalogueWatcher implements AutoCloseable {
+
+	private static final Logger LOG = Logger.getLogger(MacroCatalogueWatcher.class.getName());
+
+	/** Editors often write a file in several steps; wait for the writes to settle. */
+	private static final long SETTLE_MILLIS = 200L;
+
+	private final Path file;
+	private final WatchService watchService;
+	private final Thread thread;
+	private final List<CallResponse<MacroCatalogue>> listeners = new CopyOnWriteArrayList<>();
+	private volatile MacroCatalogue catalogue;
+
+	/**
+	 * Loads the given catalogue file and starts watching it.
+	 * 
+	 * @param file
+	 *            the catalogue file
+	 * @throws IOException
+	 *             if the file cannot be read or watched
+	 * @throws IllegalArgumentException
+	 *             if the catalogue contains a syntax error
+	 */
+	public MacroCatalogueWatcher(final Path file) throws IOException {
+		super();
+		this.file = file.toAbsolutePath();
+		this.catalogue = MacroCatalogue.load(this.file);
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		this.thread = new Thread(this::watch, "Macro catalogue watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the current catalogue.
+	 * 
+	 * @return the current catalogue
+	 */
+	public MacroCatalogue getCatalogue() {
+		return catalogue;
+	}
+
+	/**
+	 * Adds a listener that is notified on the watcher thread with each reloaded catalogue.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addListener(final CallResponse<MacroCatalogue> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stops watching the catalogue file.
+	 */
+	@Override
+	public void close() {
+		try {
+			watchService.close();
+		} catch (final IOException e) {
+			LOG.log(Level.FINE, "Could not close watch service", e);
+		}
+		thread.interrupt();
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				final WatchKey key = watchService.take();
+				boolean changed = false;
+				for (final WatchEvent<?> event : key.pollEvents()) {
+					changed |= event.context() instanceof Path && file.getFileName().equals(event.context());
+				}
+				key.reset();
+				if (changed) {
+					// drain the events of the same save
+					TimeUnit.MILLISECONDS.sleep(SETTLE_MILLIS);
+					for (WatchKey pending = watchService.poll(); pending != null; pending = watchService.poll()) {
+						pending.pollEvents();
+						pending.reset();
+					}
+					reload();
+				}
+			}
+		} catch (final InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	private void reload() {
+		final MacroCatalogue reloaded;
+		try {
+			reloaded = MacroCatalogue.load(file);
+		} catch (final IOException | IllegalArgumentException e) {
+			LOG.warning("Macro catalogue " + file + " not reloaded: " + e.getMessage());
+			return;
+		}
+		catalogue = reloaded;
+		LOG.info("Macro catalogue reloaded: " + reloaded);
+		for (final CallResponse<MacroCatalogue> listener : listeners) {
+			listener.response(reloaded);
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+/**
+ * Format 2 PIN blocks, as used by the eID VERIFY, CHANGE REFERENCE DATA and RESET RETRY COUNTER commands: <code>2N</code> with N the
+ * number of digits, followed by the digits in BCD, padded with <code>F</code> to 8 bytes. The PUK <code>222222111111</code> becomes
+ * <code>2C222222111111FF</code>.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class PinBlock {
+
+	/** Length of a PIN block in bytes. */
+	public static final int LENGTH = 8;
+
+	private static final int MIN_DIGITS = 4;
+	private static final int MAX_DIGITS = 12;
+
+	private PinBlock() {
+		super();
+	}
+
+	/**
+	 * Encodes the given digits into a PIN block.
+	 * 
+	 * @param digits
+	 *            the PIN or PUK, 4 to 12 decimal digits
+	 * @param dst
+	 *            the destination array
+	 * @param offset
+	 *            the offset of the PIN block in <code>dst</code>
+	 * @throws IllegalArgumentException
+	 *             if <code>digits</code> is not a valid PIN or PUK
+	 */
+	public static void encode(final CharSequence digits, final byte[] dst, final int offset) {
+		validate(digits);
+		dst[offset] = (byte) (0x20 | digits.length());
+		for (int i = 0; i < 2 * (LENGTH - 1); i++) {
+			final int nibble = i < digits.length() ? digits.charAt(i) - '0' : 0x0F;
+			final int index = offset + 1 + i / 2;
+			dst[index] = (byte) (i % 2 == 0 ? nibble << 4 : dst[index] & 0xF0 | nibble);
+		}
+	}
+
+	/**
+	 * Encodes the given digits into a new PIN block.
+	 * 
+	 * @param digits
+	 *            the PIN or PUK, 4 to 12 decimal digits
+	 * @return the PIN block
+	 * @throws IllegalArgumentException
+	 *             if <code>digits</code> is not a valid PIN or PUK
+	 */
+	public static byte[] encode(final CharSequence digits) {
+		final byte[] block = new byte[LENGTH];
+		encode(digits, block, 0);
+		return block;
+	}
+
+	/**
+	 * Checks that the given digits form a valid PIN or PUK.
+	 * 
+	 * @param digits
+	 *            the PIN or PUK
+	 * @throws IllegalArgumentException
+	 *             if <code>digits</code> is not 4 to 12 decimal digits
+	 */
+	public static void validate(final CharSequence digits) {
+		if (digits.length() < MIN_DIGITS || digits.length() > MAX_DIGITS) {
+			throw new IllegalArgumentException("PIN or PUK must have " + MIN_DIGITS + " to " + MAX_DIGITS + " digits: " + digits.length());
+		}
+		for (int i = 0; i < digits.length(); i++) {
+			if (digits.charAt(i) < '0' || digits.charAt(i) > '9') {
+				throw new IllegalArgumentException("PIN or PUK must only contain digits");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+/**
+ * Outcome of a {@link CardTask} on a single card reader.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ * 
+ * @param <V>
+ *            the task result type
+ */
+public final class ReaderResult<V> {
+
+	private final String terminalName;
+	private final V value;
+	private final Throwable error;
+	private final long durationNanos;
+
+	private ReaderResult(final String terminalName, final V value, final Throwable error, final long durationNanos) {
+		this.terminalName = terminalName;
+		this.value = value;
+		this.error = error;
+		this.durationNanos = durationNanos;
+	}
+
+	/**
+	 * Wraps the given task, so that it reports its result, error and duration as a {@link ReaderResult}.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 * @param task
+	 *            the task to wrap
+	 * @return the wrapping task, which never fails
+	 */
+	static <V> CardTask<ReaderResult<V>> timed(final String terminalName, final CardTask<V> task) {
+		return session -> {
+			final long start = System.nanoTime();
+			try {
+				final V value = task.execute(session);
+				return new ReaderResult<>(terminalName, value, null, System.nanoTime() - start);
+			} catch (final Exception e) {
+				return new ReaderResult<>(terminalName, null, e, System.nanoTime() - start);
+			}
+		};
+	}
+
+	/**
+	 * Creates a {@link ReaderResult} for a task that could not be run.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 * @param error
+	 *            the reason why the task could not be run
+	 * @return the failed {@link ReaderResult}
+	 */
+	static <V> ReaderResult<V> failed(final String terminalName, final Throwable error) {
+		return new ReaderResult<>(terminalName, null, error, 0L);
+	}
+
+	/**
+	 * Returns the card reader name.
+	 * 
+	 * @return the card reader name
+	 */
+	public String getTerminalName() {
+		return terminalName;
+	}
+
+	/**
+	 * Returns the task result.
+	 * 
+	 * @return the task result, or <code>null</code> if the task failed
+	 */
+	public V getValue() {
+		return value;
+	}
+
+	/**
+	 * Returns the task error.
+	 * 
+	 * @return the error, or <code>null</code> if the task succeeded
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * Returns the time spent on the card worker thread.
+	 * 
+	 * @return the task duration in nanoseconds
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * Returns whether the task succeeded.
+	 * 
+	 * @return <code>true</code> if the task did not fail
+	 */
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+}
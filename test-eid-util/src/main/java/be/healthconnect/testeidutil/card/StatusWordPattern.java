@@ -0,0 +1,72 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card;
+
+/**
+ * Expected status word, written as four hex digits in which <code>X</code> or <code>?</code> matches any digit, e.g. <code>9000</code>
+ * or <code>63CX</code>.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class StatusWordPattern {
+
+	private final String pattern;
+	private final int value;
+	private final int mask;
+
+	private StatusWordPattern(final String pattern, final int value, final int mask) {
+		this.pattern = pattern;
+		this.value = value;
+		this.mask = mask;
+	}
+
+	/**
+	 * Parses the given status word pattern.
+	 * 
+	 * @param pattern
+	 *            the pattern, e.g. <code>9000</code> or <code>63CX</code>
+	 * @return the parsed {@link StatusWordPattern}
+	 * @throws IllegalArgumentException
+	 *             if the pattern is not four hex digits or wildcards
+	 */
+	public static StatusWordPattern parse(final String pattern) {
+		final String trimmed = pattern.trim().toUpperCase();
+		if (trimmed.length() != 4) {
+			throw new IllegalArgumentException("Status word must have 4 hex digits: " + pattern);
+		}
+		int value = 0;
+		int mask = 0;
+		for (int i = 0; i < 4; i++) {
+			final char c = trimmed.charAt(i);
+			value <<= 4;
+			mask <<= 4;
+			if (c != 'X' && c != '?') {
+				final int digit = Character.digit(c, 16);
+				if (digit < 0) {
+					throw new IllegalArgumentException("Invalid status word digit '" + c + "': " + pattern);
+				}
+				value |= digit;
+				mask |= 0xF;
+			}
+		}
+		return new StatusWordPattern(trimmed, value, mask);
+	}
+
+	/**
+	 * Returns whether the given status word matches this pattern.
+	 * 
+	 * @param sw
+	 *            the status word (SW1 SW2)
+	 * @return <code>true</code> if <code>sw</code> matches
+	 */
+	public boolean matches(final int sw) {
+		return (sw & mask) == value;
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+}
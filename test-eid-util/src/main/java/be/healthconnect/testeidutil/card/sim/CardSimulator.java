@@ -0,0 +1,215 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card.sim;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.smartcardio.TerminalFactory;
+
+/**
+ * In-process simulator of card readers holding virtual Belgian test eIDs. Use {@link #getTerminalFactory()} wherever a PC/SC
+ * {@link TerminalFactory} would be used, e.g. in {@link be.healthconnect.testeidutil.card.CardSessionManager}. Cards can be inserted and
+ * removed at any time, and each instruction can be given a latency to mimic a real card.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class CardSimulator {
+
+	/** The {@link TerminalFactory} type of the simulator. */
+	public static final String TYPE = SimulatorProvider.TERMINAL_FACTORY_TYPE;
+
+	private static final SimulatorProvider PROVIDER = new SimulatorProvider();
+
+	private final Object lock = new Object();
+	private final Map<String, Slot> slots = new LinkedHashMap<>();
+	private final AtomicLongArray latencyNanos = new AtomicLongArray(256);
+
+	/**
+	 * Creates a new {@link CardSimulator} with the given number of card readers, each holding a virtual eID.
+	 * 
+	 * @param readerCount
+	 *            the number of card readers
+	 */
+	public CardSimulator(final int readerCount) {
+		super();
+		for (int i = 0; i < readerCount; i++) {
+			final Slot slot = new Slot();
+			slot.card = new VirtualEid(i + 1);
+			slot.insertCount = 1;
+			slots.put("Virtual eID reader " + i, slot);
+		}
+	}
+
+	/**
+	 * Returns the names of the simulated card readers.
+	 * 
+	 * @return the card reader names
+	 */
+	public List<String> getReaderNames() {
+		synchronized (lock) {
+			return Collections.unmodifiableList(new ArrayList<>(slots.keySet()));
+		}
+	}
+
+	/**
+	 * Returns the card in the given card reader.
+	 * 
+	 * @param readerName
+	 *            the card reader name
+	 * @return the card, or <code>null</code> if the card reader is empty
+	 */
+	public VirtualEid getCard(final String readerName) {
+		synchronized (lock) {
+			return slot(readerName).card;
+		}
+	}
+
+	/**
+	 * Inserts the given card into the given card reader, removing the card that was there.
+	 * 
+	 * @param readerName
+	 *            the card reader name
+	 * @param card
+	 *            the card to insert
+	 */
+	public void insertCard(final String readerName, final VirtualEid card) {
+		synchronized (lock) {
+			final Slot slot = slot(readerName);
+			card.reset();
+			slot.card = card;
+			slot.insertCount++;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Removes the card from the given card reader.
+	 * 
+	 * @param readerName
+	 *            the card reader name
+	 * @return the removed card, or <code>null</code> if the card reader was empty
+	 */
+	public VirtualEid removeCard(final String readerName) {
+		synchronized (lock) {
+			final Slot slot = slot(readerName);
+			final VirtualEid card = slot.card;
+			slot.card = null;
+			lock.notifyAll();
+			return card;
+		}
+	}
+
+	/**
+	 * Sets the latency of all instructions.
+	 * 
+	 * @param latency
+	 *            the time each command takes
+	 * @param unit
+	 *            the unit of <code>latency</code>
+	 */
+	public void setLatency(final long latency, final TimeUnit unit) {
+		for (int ins = 0; ins < latencyNanos.length(); ins++) {
+			latencyNanos.set(ins, unit.toNanos(latency));
+		}
+	}
+
+	/**
+	 * Sets the latency of the given instruction.
+	 * 
+	 * @param ins
+	 *            the instruction byte
+	 * @param latency
+	 *            the time each command with this instruction takes
+	 * @param unit
+	 *            the unit of <code>latency</code>
+	 */
+	public void setLatency(final int ins, final long latency, final TimeUnit unit) {
+		latencyNanos.set(ins & 0xFF, unit.toNanos(latency));
+	}
+
+	/**
+	 * Returns the latency of the given instruction.
+	 * 
+	 * @param ins
+	 *            the instruction byte
+	 * @return the latency in nanoseconds
+	 */
+	public long getLatencyNanos(final int ins) {
+		return latencyNanos.get(ins & 0xFF);
+	}
+
+	/**
+	 * Returns a new {@link TerminalFactory} for this simulator.
+	 * 
+	 * @return the {@link TerminalFactory}
+	 */
+	public TerminalFactory getTerminalFactory() {
+		try {
+			return TerminalFactory.getInstance(TYPE, this, PROVIDER);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the lock that guards the card reader state, and that is notified on every card insertion and removal.
+	 * 
+	 * @return the lock
+	 */
+	Object getLock() {
+		return lock;
+	}
+
+	/**
+	 * Returns the card reader state, which identifies the inserted card: the insertion count if a card is present, or the negated insertion
+	 * count if not. Must be called while holding {@link #getLock()}.
+	 * 
+	 * @param readerName
+	 *            the card reader name
+	 * @return the card reader state
+	 */
+	long getState(final String readerName) {
+		final Slot slot = slot(readerName);
+		return slot.card != null ? slot.insertCount : -slot.insertCount;
+	}
+
+	/**
+	 * Returns whether the given card reader exists.
+	 * 
+	 * @param readerName
+	 *            the card reader name
+	 * @return <code>true</code> if the card reader is simulated
+	 */
+	boolean hasReader(final String readerName) {
+		synchronized (lock) {
+			return slots.containsKey(readerName);
+		}
+	}
+
+	private Slot slot(final String readerName) {
+		final Slot slot = slots.get(readerName);
+		if (slot == null) {
+			throw new IllegalArgumentException("Unknown card reader: " + readerName);
+		}
+		return slot;
+	}
+
+	/**
+	 * A simulated card reader.
+	 */
+	private static final class Slot {
+
+		private VirtualEid card;
+		private long insertCount;
+
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card.sim;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+
+/**
+ * Connection to a {@link VirtualEid} in a {@link SimulatorTerminal}. Like a PC/SC card handle, the connection becomes unusable when the
+ * card is removed, or when it is reset through another connection.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+class SimulatorCard extends Card {
+
+	/** The only supported protocol. */
+	static final String PROTOCOL = "T=1";
+
+	/** ATR of a Belgian eID. */
+	private static final ATR EID_ATR = new ATR(new byte[] { 0x3B, (byte) 0x98, 0x13, 0x40, 0x0A, (byte) 0xA5, 0x03, 0x01, 0x01, 0x01,
+			(byte) 0xAD, 0x13, 0x11 });
+
+	private final CardSimulator simulator;
+	private final String terminalName;
+	private final long state;
+	private final VirtualEid card;
+	private final long resetCount;
+	private final SimulatorChannel basicChannel = new SimulatorChannel(this);
+
+	private volatile boolean disconnected;
+
+	SimulatorCard(final CardSimulator simulator, final String terminalName, final long state, final VirtualEid card) {
+		super();
+		this.simulator = simulator;
+		this.terminalName = terminalName;
+		this.state = state;
+		this.card = card;
+		this.resetCount = card.getResetCount();
+	}
+
+	@Override
+	public ATR getATR() {
+		return EID_ATR;
+	}
+
+	@Override
+	public String getProtocol() {
+		return PROTOCOL;
+	}
+
+	@Override
+	public CardChannel getBasicChannel() {
+		checkConnected();
+		return basicChannel;
+	}
+
+	@Override
+	public CardChannel openLogicalChannel() throws CardException {
+		throw new CardException("Logical channels are not supported");
+	}
+
+	@Override
+	public void beginExclusive() throws CardException {
+		checkCard();
+		card.getLock().lock();
+	}
+
+	@Override
+	public void endExclusive() throws CardException {
+		checkConnected();
+		final ReentrantLock lock = card.getLock();
+		if (!lock.isHeldByCurrentThread()) {
+			throw new IllegalStateException("Exclusive access not held by this thread");
+		}
+		lock.unlock();
+	}
+
+	@Override
+	public byte[] transmitControlCommand(final int controlCode, final byte[] command) throws CardException {
+		throw new CardException("Control commands are not supported");
+	}
+
+	@Override
+	public void disconnect(final boolean reset) throws CardException {
+		if (disconnected) {
+			return;
+		}
+		disconnected = true;
+		final ReentrantLock lock = card.getLock();
+		while (lock.isHeldByCurrentThread()) {
+			lock.unlock();
+		}
+		if (reset) {
+			card.reset();
+		}
+	}
+
+	/**
+	 * Sends the given command to the card, after the simulated latency of its instruction.
+	 * 
+	 * @param command
+	 *            the command APDU
+	 * @return the response APDU
+	 * @throws CardException
+	 *             if the card was removed or reset
+	 */
+	byte[] transmit(final byte[] command) throws CardException {
+		final ReentrantLock lock = card.getLock();
+		lock.lock();
+		try {
+			checkCard();
+			final long latency = simulator.getLatencyNanos(command.length > 1 ? command[1] : 0);
+			if (latency > 0) {
+				TimeUnit.NANOSECONDS.sleep(latency);
+			}
+			return card.process(command);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CardException("Interrupted while waiting for the card", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void checkConnected() {
+		if (disconnected) {
+			throw new IllegalStateException("Card has been disconnected");
+		}
+	}
+
+	private void checkCard() throws CardException {
+		checkConnected();
+		final long currentState;
+		synchronized (simulator.getLock()) {
+			currentState = simulator.getState(terminalName);
+		}
+		if (currentState != state) {
+			throw new CardException("transmit() failed", new CardException("SCARD_W_REMOVED_CARD"));
+		}
+		if (card.getResetCount() != resetCount) {
+			throw new CardException("transmit() failed", new CardException("SCARD_W_RESET_CARD"));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Simulated card in " + terminalName + ", protocol " + PROTOCOL;
+	}
+
+}
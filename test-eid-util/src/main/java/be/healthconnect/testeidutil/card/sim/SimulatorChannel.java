@@ -0,0 +1,60 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card.sim;
+
+import java.nio.ByteBuffer;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * Basic channel of a {@link SimulatorCard}.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+class SimulatorChannel extends CardChannel {
+
+	private final SimulatorCard card;
+
+	SimulatorChannel(final SimulatorCard card) {
+		super();
+		this.card = card;
+	}
+
+	@Override
+	public Card getCard() {
+		return card;
+	}
+
+	@Override
+	public int getChannelNumber() {
+		return 0;
+	}
+
+	@Override
+	public ResponseAPDU transmit(final CommandAPDU command) throws CardException {
+		return new ResponseAPDU(card.transmit(command.getBytes()));
+	}
+
+	@Override
+	public int transmit(final ByteBuffer command, final ByteBuffer response) throws CardException {
+		final byte[] commandBytes = new byte[command.remaining()];
+		command.get(commandBytes);
+		final byte[] responseBytes = card.transmit(commandBytes);
+		if (response.remaining() < responseBytes.length) {
+			throw new CardException("Insufficient space in response buffer");
+		}
+		response.put(responseBytes);
+		return responseBytes.length;
+	}
+
+	@Override
+	public void close() throws CardException {
+		throw new IllegalStateException("Cannot close basic logical channel");
+	}
+
+}
@@ -0,0 +1,29 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card.sim;
+
+import java.security.Provider;
+
+/**
+ * Security provider for the {@link CardSimulator} {@link javax.smartcardio.TerminalFactory}. The provider is not registered globally;
+ * {@link CardSimulator#getTerminalFactory()} passes it explicitly.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class SimulatorProvider extends Provider {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The {@link javax.smartcardio.TerminalFactory} type. */
+	public static final String TERMINAL_FACTORY_TYPE = "Simulator";
+
+	/**
+	 * Creates a new {@link SimulatorProvider}.
+	 */
+	public SimulatorProvider() {
+		super("TestEIDSimulator", 1.0, "Virtual Belgian eID card readers");
+		put("TerminalFactory." + TERMINAL_FACTORY_TYPE, SimulatorTerminalFactorySpi.class.getName());
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card.sim;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+
+/**
+ * {@link CardTerminal} of the {@link CardSimulator}.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+class SimulatorTerminal extends CardTerminal {
+
+	private final CardSimulator simulator;
+	private final String name;
+
+	SimulatorTerminal(final CardSimulator simulator, final String name) {
+		super();
+		this.simulator = simulator;
+		this.name = name;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Card connect(final String protocol) throws CardException {
+		if (!"*".equals(protocol) && !SimulatorCard.PROTOCOL.equals(protocol)) {
+			throw new CardException("Unsupported protocol: " + protocol);
+		}
+		synchronized (simulator.getLock()) {
+			final VirtualEid card = simulator.getCard(name);
+			if (card == null) {
+				throw new CardException("connect() failed", new CardException("SCARD_E_NO_SMARTCARD"));
+			}
+			return new SimulatorCard(simulator, name, simulator.getState(name), card);
+		}
+	}
+
+	@Override
+	public boolean isCardPresent() throws CardException {
+		return simulator.getCard(name) != null;
+	}
+
+	@Override
+	public boolean waitForCardPresent(final long timeout) throws CardException {
+		return waitForCard(true, timeout);
+	}
+
+	@Override
+	public boolean waitForCardAbsent(final long timeout) throws CardException {
+		return waitForCard(false, timeout);
+	}
+
+	private boolean waitForCard(final boolean present, final long timeout) throws CardException {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+		}
+		final Object lock = simulator.getLock();
+		synchronized (lock) {
+			final long deadline = System.currentTimeMillis() + timeout;
+			while ((simulator.getCard(name) != null) != present) {
+				final long wait = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+				if (timeout != 0 && wait <= 0) {
+					return false;
+				}
+				try {
+					lock.wait(wait);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CardException("Interrupted while waiting for the card", e);
+				}
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Simulated terminal: " + name;
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card.sim;
+
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactorySpi;
+
+/**
+ * {@link TerminalFactorySpi} of the {@link CardSimulator}.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class SimulatorTerminalFactorySpi extends TerminalFactorySpi {
+
+	private final CardSimulator simulator;
+
+	/**
+	 * Creates a new {@link SimulatorTerminalFactorySpi}. Called by the JCA framework.
+	 * 
+	 * @param parameter
+	 *            the {@link CardSimulator}
+	 * @throws IllegalArgumentException
+	 *             if <code>parameter</code> is not a {@link CardSimulator}
+	 */
+	public SimulatorTerminalFactorySpi(final Object parameter) {
+		super();
+		if (!(parameter instanceof CardSimulator)) {
+			throw new IllegalArgumentException("Parameter must be a " + CardSimulator.class.getSimpleName());
+		}
+		this.simulator = (CardSimulator) parameter;
+	}
+
+	@Override
+	protected CardTerminals engineTerminals() {
+		return new SimulatorTerminals(simulator);
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card.sim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+/**
+ * {@link CardTerminals} of the {@link CardSimulator}. Like the PC/SC implementation, insertions and removals are reported relative to the
+ * previous call to {@link #waitForChange(long)} on the same instance.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+class SimulatorTerminals extends CardTerminals {
+
+	private final CardSimulator simulator;
+
+	private Map<String, Long> states;
+	private final Set<String> inserted = new LinkedHashSet<>();
+	private final Set<String> removed = new LinkedHashSet<>();
+
+	SimulatorTerminals(final CardSimulator simulator) {
+		super();
+		this.simulator = simulator;
+	}
+
+	@Override
+	public List<CardTerminal> list(final State state) throws CardException {
+		final List<CardTerminal> terminals = new ArrayList<>();
+		synchronized (simulator.getLock()) {
+			for (final String name : simulator.getReaderNames()) {
+				final boolean include;
+				switch (state) {
+				case CARD_PRESENT:
+					include = simulator.getState(name) > 0;
+					break;
+				case CARD_ABSENT:
+					include = simulator.getState(name) < 0;
+					break;
+				case CARD_INSERTION:
+					include = inserted.contains(name);
+					break;
+				case CARD_REMOVAL:
+					include = removed.contains(name);
+					break;
+				default:
+					include = true;
+				}
+				if (include) {
+					terminals.add(new SimulatorTerminal(simulator, name));
+				}
+			}
+		}
+		return terminals;
+	}
+
+	@Override
+	public CardTerminal getTerminal(final String name) {
+		return simulator.hasReader(name) ? new SimulatorTerminal(simulator, name) : null;
+	}
+
+	@Override
+	public boolean waitForChange(final long timeout) throws CardException {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+		}
+		final Object lock = simulator.getLock();
+		synchronized (lock) {
+			final long deadline = System.currentTimeMillis() + timeout;
+			if (states == null) {
+				// the first call always waits for the next change
+				states = snapshot();
+			}
+			Map<String, Long> current = snapshot();
+			while (current.equals(states)) {
+				final long wait = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+				if (timeout != 0 && wait <= 0) {
+					return false;
+				}
+				try {
+					lock.wait(wait);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CardException("Interrupted while waiting for a card reader change", e);
+				}
+				current = snapshot();
+			}
+			inserted.clear();
+			removed.clear();
+			for (final Map.Entry<String, Long> state : current.entrySet()) {
+				final Long previous = states.get(state.getKey());
+				if (state.getValue().equals(previous)) {
+					continue;
+				}
+				if (previous != null && previous > 0) {
+					removed.add(state.getKey());
+				}
+				if (state.getValue() > 0) {
+					inserted.add(state.getKey());
+				}
+			}
+			states = current;
+			return true;
+		}
+	}
+
+	private Map<String, Long> snapshot() {
+		final Map<String, Long> snapshot = new HashMap<>();
+		for (final String name : simulator.getReaderNames()) {
+			snapshot.put(name, simulator.getState(name));
+		}
+		return snapshot;
+	}
+
+}
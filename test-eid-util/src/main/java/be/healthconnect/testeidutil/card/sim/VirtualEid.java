@@ -0,0 +1,604 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.card.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.smartcardio.CommandAPDU;
+
+import be.healthconnect.testeidutil.card.EidFile;
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * Virtual Belgian test eID. Implements the subset of the eID applet that this tool uses: SELECT, READ BINARY, VERIFY, CHANGE REFERENCE
+ * DATA, RESET RETRY COUNTER, GET CHALLENGE, MANAGE SECURITY ENVIRONMENT, PERFORM SECURITY OPERATION, GET RESPONSE and GET CARD DATA. File
+ * contents and the chip number are generated from the card number, so that they are the same in every run; certificates and signatures
+ * are random bytes, not valid ASN.1.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class VirtualEid {
+
+	/** PIN of a new virtual eID. */
+	public static final String DEFAULT_PIN = "1234";
+	/** PUK of a new virtual eID. */
+	public static final String DEFAULT_PUK = "222222111111";
+	/** Number of wrong PIN entries before the PIN is blocked. */
+	public static final int MAX_PIN_TRIES = 3;
+	/** Number of wrong PUK entries before the PUK is blocked. */
+	public static final int MAX_PUK_TRIES = 10;
+
+	/** BELPIC application identifier. */
+	private static final String BELPIC_AID = "A000000177504B43532D3135";
+	private static final String MF = "3F00";
+	private static final String BELPIC_DF = "3F00DF00";
+	private static final String ID_DF = "3F00DF01";
+
+	private static final int PIN_REFERENCE = 0x01;
+	private static final int PUK_REFERENCE = 0x84;
+	private static final int PIN_BLOCK_LENGTH = 8;
+	/** Chip number, followed by the component, OS, softmask and applet versions. */
+	private static final int CARD_DATA_LENGTH = 28;
+	private static final String CARD_DATA_VERSIONS = "A5030101011711010101000F";
+	private static final int SIGNATURE_LENGTH = 128;
+
+	private static final int SW_OK = 0x9000;
+	private static final int SW_END_OF_FILE = 0x6282;
+	private static final int SW_WRONG_LENGTH = 0x6700;
+	private static final int SW_NO_CURRENT_EF = 0x6986;
+	private static final int SW_SECURITY_STATUS = 0x6982;
+	private static final int SW_BLOCKED = 0x6983;
+	private static final int SW_CONDITIONS = 0x6985;
+	private static final int SW_WRONG_DATA = 0x6A80;
+	private static final int SW_FILE_NOT_FOUND = 0x6A82;
+	private static final int SW_WRONG_P1P2 = 0x6A86;
+	private static final int SW_WRONG_OFFSET = 0x6B00;
+	private static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+	private static final int SW_CLA_NOT_SUPPORTED = 0x6E00;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final int cardNumber;
+	private final Map<String, byte[]> files = new HashMap<>();
+
+	private boolean extendedLength;
+	private String pin = DEFAULT_PIN;
+	private String puk = DEFAULT_PUK;
+	private int pinTries = MAX_PIN_TRIES;
+	private int pukTries = MAX_PUK_TRIES;
+
+	private volatile long resetCount;
+	private String selected = MF;
+	private boolean pinVerified;
+	private boolean securityEnvironmentSet;
+	private byte[] pendingResponse;
+	private int pendingOffset;
+
+	/**
+	 * Creates a new {@link VirtualEid}.
+	 * 
+	 * @param cardNumber
+	 *            the card number, from which the file contents are generated
+	 */
+	public VirtualEid(final int cardNumber) {
+		super();
+		this.cardNumber = cardNumber;
+		final Random random = new Random(cardNumber);
+		final byte[] photo = photo(random);
+		files.put(EidFile.IDENTITY.getPath(), identity(photo));
+		files.put(EidFile.IDENTITY_SIGNATURE.getPath(), randomBytes(random, SIGNATURE_LENGTH));
+		files.put(EidFile.ADDRESS.getPath(), address());
+		files.put(EidFile.ADDRESS_SIGNATURE.getPath(), randomBytes(random, SIGNATURE_LENGTH));
+		files.put(EidFile.PHOTO.getPath(), photo);
+		for (final EidFile certificate : new EidFile[] { EidFile.AUTHENTICATION_CERTIFICATE, EidFile.SIGNING_CERTIFICATE,
+				EidFile.CA_CERTIFICATE, EidFile.ROOT_CERTIFICATE, EidFile.RRN_CERTIFICATE }) {
+			files.put(certificate.getPath(), certificate(random));
+		}
+	}
+
+	/**
+	 * Returns the card number.
+	 * 
+	 * @return the card number
+	 */
+	public int getCardNumber() {
+		return cardNumber;
+	}
+
+	/**
+	 * Returns the contents of the given file.
+	 * 
+	 * @param file
+	 *            the file
+	 * @return a copy of the file contents
+	 */
+	public synchronized byte[] getFile(final EidFile file) {
+		return files.get(file.getPath()).clone();
+	}
+
+	/**
+	 * Sets whether the card accepts extended length APDUs. Real Belgian eIDs do not, so this is disabled by default.
+	 * 
+	 * @param extendedLength
+	 *            <code>true</code> to accept extended length APDUs
+	 * @return this card
+	 */
+	public synchronized VirtualEid setExtendedLength(final boolean extendedLength) {
+		this.extendedLength = extendedLength;
+		return this;
+	}
+
+	/**
+	 * Returns the PIN.
+	 * 
+	 * @return the PIN digits
+	 */
+	public synchronized String getPin() {
+		return pin;
+	}
+
+	/**
+	 * Returns the number of PIN tries left.
+	 * 
+	 * @return the number of PIN tries left, 0 if the PIN is blocked
+	 */
+	public synchronized int getPinTries() {
+		return pinTries;
+	}
+
+	/**
+	 * Sets the PIN and PUK, and unblocks both.
+	 * 
+	 * @param pin
+	 *            the PIN digits
+	 * @param puk
+	 *            the PUK digits
+	 * @return this card
+	 */
+	public synchronized VirtualEid setCodes(final String pin, final String puk) {
+		this.pin = pin;
+		this.puk = puk;
+		this.pinTries = MAX_PIN_TRIES;
+		this.pukTries = MAX_PUK_TRIES;
+		return this;
+	}
+
+	/**
+	 * Resets the card: clears the security status, the selected file and any pending response.
+	 */
+	public synchronized void reset() {
+		resetCount++;
+		selected = MF;
+		pinVerified = false;
+		securityEnvironmentSet = false;
+		pendingResponse = null;
+	}
+
+	/**
+	 * Processes the given command APDU.
+	 * 
+	 * @param apdu
+	 *            the command APDU
+	 * @return the response APDU
+	 */
+	public synchronized byte[] process(final byte[] apdu) {
+		final CommandAPDU command;
+		try {
+			command = new CommandAPDU(apdu);
+		} catch (final IllegalArgumentException e) {
+			return sw(SW_WRONG_LENGTH);
+		}
+		if (!extendedLength && isExtended(apdu)) {
+			return sw(SW_WRONG_LENGTH);
+		}
+		final int cla = command.getCLA();
+		final int ins = command.getINS();
+		if (cla == 0x80 && ins == 0xE4) {
+			pendingResponse = null;
+			return getCardData(command);
+		}
+		if (cla != 0x00) {
+			return sw(SW_CLA_NOT_SUPPORTED);
+		}
+		if (ins != 0xC0) {
+			pendingResponse = null;
+		}
+		switch (ins) {
+		case 0xA4:
+			return select(command);
+		case 0xB0:
+			return readBinary(command, isExtended(apdu));
+		case 0x20:
+			return verify(command);
+		case 0x24:
+			return changeReferenceData(command);
+		case 0x2C:
+			return resetRetryCounter(command);
+		case 0x84:
+			return getChallenge(command);
+		case 0x22:
+			return manageSecurityEnvironment(command);
+		case 0x2A:
+			return performSecurityOperation(command);
+		case 0xC0:
+			return getResponse(command);
+		default:
+			return sw(SW_INS_NOT_SUPPORTED);
+		}
+	}
+
+	/**
+	 * Returns the chip number, as returned by GET CARD DATA.
+	 * 
+	 * @return the chip number in upper case hex
+	 */
+	public String getChipNumber() {
+		return String.format("534C494E3366%020X", cardNumber);
+	}
+
+	/**
+	 * Returns the lock that simulated card connections use for exclusive access.
+	 * 
+	 * @return the lock
+	 */
+	ReentrantLock getLock() {
+		return lock;
+	}
+
+	/**
+	 * Returns the number of resets, so that connections can detect a reset through another connection.
+	 * 
+	 * @return the number of resets
+	 */
+	long getResetCount() {
+		return resetCount;
+	}
+
+	private byte[] select(final CommandAPDU command) {
+		final String id = HexCodec.toHex(command.getData()).toUpperCase();
+		final String path;
+		switch (command.getP1()) {
+		case 0x00:
+		case 0x02:
+			path = MF.equals(id) ? MF : directory() + id;
+			break;
+		case 0x04:
+			if (!BELPIC_AID.equals(id)) {
+				return sw(SW_FILE_NOT_FOUND);
+			}
+			path = BELPIC_DF;
+			break;
+		case 0x08:
+			path = id.startsWith(MF) ? id : MF + id;
+			break;
+		default:
+			return sw(SW_WRONG_P1P2);
+		}
+		if (!files.containsKey(path) && !MF.equals(path) && !BELPIC_DF.equals(path) && !ID_DF.equals(path)) {
+			return sw(SW_FILE_NOT_FOUND);
+		}
+		selected = path;
+		return sw(SW_OK);
+	}
+
+	private String directory() {
+		return files.containsKey(selected) ? selected.substring(0, selected.length() - 4) : selected;
+	}
+
+	private byte[] readBinary(final CommandAPDU command, final boolean extended) {
+		final byte[] file = files.get(selected);
+		if (file == null) {
+			return sw(SW_NO_CURRENT_EF);
+		}
+		final int offset = (command.getP1() << 8 | command.getP2()) & 0x7FFF;
+		if (offset >= file.length) {
+			return sw(SW_WRONG_OFFSET);
+		}
+		final int remaining = file.length - offset;
+		final int ne = command.getNe();
+		if (ne <= remaining) {
+			return response(file, offset, ne, SW_OK);
+		}
+		if (extended) {
+			return response(file, offset, remaining, SW_END_OF_FILE);
+		}
+		return sw(0x6C00 | remaining);
+	}
+
+	private byte[] verify(final CommandAPDU command) {
+		if (command.getP1() != 0x00) {
+			return sw(SW_WRONG_P1P2);
+		}
+		final boolean isPin = command.getP2() == PIN_REFERENCE;
+		if (!isPin && command.getP2() != PUK_REFERENCE) {
+			return sw(SW_WRONG_P1P2);
+		}
+		final int tries = isPin ? pinTries : pukTries;
+		if (command.getNc() == 0) {
+			// query the number of tries left
+			return isPin && pinVerified ? sw(SW_OK) : triesLeft(tries);
+		}
+		if (command.getNc() != PIN_BLOCK_LENGTH) {
+			return sw(SW_WRONG_LENGTH);
+		}
+		final String code = decodePinBlock(command.getData(), 0);
+		if (code == null) {
+			return sw(SW_WRONG_DATA);
+		}
+		return isPin ? checkPin(code) : checkPuk(code);
+	}
+
+	private byte[] changeReferenceData(final CommandAPDU command) {
+		if (command.getP1() != 0x00 || command.getP2() != PIN_REFERENCE) {
+			return sw(SW_WRONG_P1P2);
+		}
+		if (command.getNc() != 2 * PIN_BLOCK_LENGTH) {
+			return sw(SW_WRONG_LENGTH);
+		}
+		final String oldPin = decodePinBlock(command.getData(), 0);
+		final String newPin = decodePinBlock(command.getData(), PIN_BLOCK_LENGTH);
+		if (oldPin == null || newPin == null) {
+			return sw(SW_WRONG_DATA);
+		}
+		final byte[] response = checkPin(oldPin);
+		if (pinVerified) {
+			pin = newPin;
+		}
+		return response;
+	}
+
+	private byte[] resetRetryCounter(final CommandAPDU command) {
+		if (command.getP1() != 0x00 || command.getP2() != PIN_REFERENCE) {
+			return sw(SW_WRONG_P1P2);
+		}
+		final int nc = command.getNc();
+		if (nc != PIN_BLOCK_LENGTH && nc != 2 * PIN_BLOCK_LENGTH) {
+			return sw(SW_WRONG_LENGTH);
+		}
+		final String code = decodePinBlock(command.getData(), 0);
+		final String newPin = nc == PIN_BLOCK_LENGTH ? pin : decodePinBlock(command.getData(), PIN_BLOCK_LENGTH);
+		if (code == null || newPin == null) {
+			return sw(SW_WRONG_DATA);
+		}
+		final byte[] response = checkPuk(code);
+		if (response.length == 2 && response[0] == (byte) 0x90) {
+			pin = newPin;
+			pinTries = MAX_PIN_TRIES;
+		}
+		return response;
+	}
+
+	private byte[] getCardData(final CommandAPDU command) {
+		if (command.getP1() != 0x00 || command.getP2() != 0x00) {
+			return sw(SW_WRONG_P1P2);
+		}
+		if (command.getNe() < CARD_DATA_LENGTH) {
+			return sw(0x6C00 | CARD_DATA_LENGTH);
+		}
+		final byte[] cardData = HexCodec.decode(getChipNumber() + CARD_DATA_VERSIONS);
+		return response(cardData, 0, cardData.length, SW_OK);
+	}
+
+	private byte[] getChallenge(final CommandAPDU command) {
+		if (command.getP1() != 0x00 || command.getP2() != 0x00) {
+			return sw(SW_WRONG_P1P2);
+		}
+		final byte[] challenge = new byte[command.getNe()];
+		if (challenge.length == 0) {
+			return sw(SW_WRONG_LENGTH);
+		}
+		ThreadLocalRandom.current().nextBytes(challenge);
+		return response(challenge, 0, challenge.length, SW_OK);
+	}
+
+	private byte[] manageSecurityEnvironment(final CommandAPDU command) {
+		if (command.getP1() != 0x41 || command.getP2() != 0xB6) {
+			return sw(SW_WRONG_P1P2);
+		}
+		securityEnvironmentSet = true;
+		return sw(SW_OK);
+	}
+
+	private byte[] performSecurityOperation(final CommandAPDU command) {
+		if (command.getP1() != 0x9E || command.getP2() != 0x9A) {
+			return sw(SW_WRONG_P1P2);
+		}
+		if (!securityEnvironmentSet) {
+			return sw(SW_CONDITIONS);
+		}
+		if (!pinVerified) {
+			return sw(SW_SECURITY_STATUS);
+		}
+		// a deterministic stand-in for the RSA signature, returned through GET RESPONSE like the real card does
+		pendingResponse = expand(command.getData(), SIGNATURE_LENGTH);
+		pendingOffset = 0;
+		return sw(0x6100 | SIGNATURE_LENGTH);
+	}
+
+	private byte[] getResponse(final CommandAPDU command) {
+		if (pendingResponse == null) {
+			return sw(SW_CONDITIONS);
+		}
+		final int remaining = pendingResponse.length - pendingOffset;
+		final int length = Math.min(command.getNe(), remaining);
+		final int left = remaining - length;
+		final byte[] response = response(pendingResponse, pendingOffset, length, left == 0 ? SW_OK : 0x6100 | Math.min(left, 0xFF));
+		pendingOffset += length;
+		if (left == 0) {
+			pendingResponse = null;
+		}
+		return response;
+	}
+
+	private byte[] checkPin(final String code) {
+		if (pinTries == 0) {
+			return sw(SW_BLOCKED);
+		}
+		if (!pin.equals(code)) {
+			pinVerified = false;
+			pinTries--;
+			return pinTries == 0 ? sw(SW_BLOCKED) : triesLeft(pinTries);
+		}
+		pinTries = MAX_PIN_TRIES;
+		pinVerified = true;
+		return sw(SW_OK);
+	}
+
+	private byte[] checkPuk(final String code) {
+		if (pukTries == 0) {
+			return sw(SW_BLOCKED);
+		}
+		if (!puk.equals(code)) {
+			pukTries--;
+			return pukTries == 0 ? sw(SW_BLOCKED) : triesLeft(pukTries);
+		}
+		pukTries = MAX_PUK_TRIES;
+		return sw(SW_OK);
+	}
+
+	/**
+	 * Decodes a format 2 PIN block: <code>2N</code> with N the number of digits, followed by the BCD digits, padded with <code>F</code>.
+	 * 
+	 * @param data
+	 *            the command data
+	 * @param offset
+	 *            the offset of the PIN block
+	 * @return the digits, or <code>null</code> if the PIN block is invalid
+	 */
+	private static String decodePinBlock(final byte[] data, final int offset) {
+		final int control = data[offset] & 0xFF;
+		final int digits = control & 0x0F;
+		if ((control & 0xF0) != 0x20 || digits < 4 || digits > 12) {
+			return null;
+		}
+		final StringBuilder code = new StringBuilder(digits);
+		for (int i = 0; i < 2 * (PIN_BLOCK_LENGTH - 1); i++) {
+			final int nibble = data[offset + 1 + i / 2] >> (i % 2 == 0 ? 4 : 0) & 0x0F;
+			if (i < digits) {
+				if (nibble > 9) {
+					return null;
+				}
+				code.append((char) ('0' + nibble));
+			} else if (nibble != 0x0F) {
+				return null;
+			}
+		}
+		return code.toString();
+	}
+
+	private static boolean isExtended(final byte[] apdu) {
+		return apdu.length > 5 && apdu[4] == 0;
+	}
+
+	private static byte[] triesLeft(final int tries) {
+		return sw(0x63C0 | Math.min(tries, 0x0F));
+	}
+
+	private static byte[] sw(final int sw) {
+		return new byte[] { (byte) (sw >> 8), (byte) sw };
+	}
+
+	private static byte[] response(final byte[] data, final int offset, final int length, final int sw) {
+		final byte[] response = Arrays.copyOfRange(data, offset, offset + length + 2);
+		response[length] = (byte) (sw >> 8);
+		response[length + 1] = (byte) sw;
+		return response;
+	}
+
+	private static byte[] expand(final byte[] seed, final int length) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			final byte[] result = new byte[length];
+			byte[] block = seed;
+			for (int offset = 0; offset < length; offset += block.length) {
+				block = digest.digest(block);
+				System.arraycopy(block, 0, result, offset, Math.min(block.length, length - offset));
+			}
+			return result;
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private byte[] identity(final byte[] photo) {
+		final String nationalNumber = String.format("80010100%03d", cardNumber % 1000);
+		final ByteArrayOutputStream tlv = new ByteArrayOutputStream();
+		tlv(tlv, 0x01, String.format("591%09d", cardNumber));
+		tlv(tlv, 0x02, expand(Integer.toString(cardNumber).getBytes(StandardCharsets.US_ASCII), 16));
+		tlv(tlv, 0x03, "01.01.2016");
+		tlv(tlv, 0x04, "01.01.2026");
+		tlv(tlv, 0x05, "Brussel");
+		tlv(tlv, 0x06, nationalNumber);
+		tlv(tlv, 0x07, "Specimen");
+		tlv(tlv, 0x08, "Virtual " + cardNumber);
+		tlv(tlv, 0x09, "");
+		tlv(tlv, 0x0A, "Belg");
+		tlv(tlv, 0x0B, "Brussel");
+		tlv(tlv, 0x0C, "01 JAN 1980");
+		tlv(tlv, 0x0D, "M");
+		tlv(tlv, 0x0E, "");
+		tlv(tlv, 0x0F, "1");
+		tlv(tlv, 0x10, "0");
+		try {
+			tlv(tlv, 0x11, MessageDigest.getInstance("SHA-1").digest(photo));
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		return tlv.toByteArray();
+	}
+
+	private byte[] address() {
+		final ByteArrayOutputStream tlv = new ByteArrayOutputStream();
+		tlv(tlv, 0x01, "Teststraat " + cardNumber);
+		tlv(tlv, 0x02, "1000");
+		tlv(tlv, 0x03, "Brussel");
+		return tlv.toByteArray();
+	}
+
+	private static byte[] photo(final Random random) {
+		// JPEG start and end markers around random bytes, about the size of a real eID photo
+		final byte[] photo = randomBytes(random, 3000 + random.nextInt(200));
+		photo[0] = (byte) 0xFF;
+		photo[1] = (byte) 0xD8;
+		photo[photo.length - 2] = (byte) 0xFF;
+		photo[photo.length - 1] = (byte) 0xD9;
+		return photo;
+	}
+
+	private static byte[] certificate(final Random random) {
+		// an ASN.1 SEQUENCE header around random bytes, about the size of a real eID certificate
+		final byte[] certificate = randomBytes(random, 900 + random.nextInt(600));
+		final int length = certificate.length - 4;
+		certificate[0] = 0x30;
+		certificate[1] = (byte) 0x82;
+		certificate[2] = (byte) (length >> 8);
+		certificate[3] = (byte) length;
+		return certificate;
+	}
+
+	private static byte[] randomBytes(final Random random, final int length) {
+		final byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private static void tlv(final ByteArrayOutputStream out, final int tag, final String value) {
+		tlv(out, tag, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void tlv(final ByteArrayOutputStream out, final int tag, final byte[] value) {
+		out.write(tag);
+		out.write(value.length);
+		out.write(value, 0, value.length);
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.cli;
+
+import be.healthconnect.testeidutil.card.ApduScript.StepResult;
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * Output formats of the command line mode.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public enum OutputFormat {
+
+	/** Response in hex, one per line, prefixed with the card reader name in multi-reader mode. */
+	HEX {
+		@Override
+		public String header() {
+			return null;
+		}
+
+		@Override
+		public String format(final String terminalName, final boolean showTerminal, final StepResult result) {
+			final String response = HexCodec.toHex(result.getResponse().getBytes());
+			return showTerminal ? "[" + terminalName + "] " + response : response;
+		}
+	},
+
+	/** Comma-separated values with a header line. */
+	CSV {
+		@Override
+		public String header() {
+			return "reader,line,command,response,sw,expected,passed,micros";
+		}
+
+		@Override
+		public String format(final String terminalName, final boolean showTerminal, final StepResult result) {
+			final StringBuilder line = new StringBuilder();
+			line.append('"').append(terminalName == null ? "" : terminalName.replace("\"", "\"\"")).append('"');
+			line.append(',').append(result.getStep().getLine());
+			HexCodec.append(line.append(','), result.getCommand().getBytes());
+			HexCodec.append(line.append(','), result.getResponse().getBytes());
+			line.append(',').append(String.format("%04X", result.getResponse().getSW()));
+			line.append(',').append(result.getStep().getExpected() == null ? "" : result.getStep().getExpected().toString());
+			line.append(',').append(result.isPassed());
+			line.append(',').append(result.getDurationNanos() / 1000L);
+			return line.toString();
+		}
+	},
+
+	/** One JSON object per line. */
+	JSONL {
+		@Override
+		public String header() {
+			return null;
+		}
+
+		@Override
+		public String format(final String terminalName, final boolean showTerminal, final StepResult result) {
+			final StringBuilder line = new StringBuilder();
+			line.append("{\"reader\":");
+			appendJsonString(line, terminalName);
+			line.append(",\"line\":").append(result.getStep().getLine());
+			HexCodec.append(line.append(",\"command\":\""), result.getCommand().getBytes()).append('"');
+			HexCodec.append(line.append(",\"response\":\""), result.getResponse().getBytes()).append('"');
+			line.append(",\"sw\":\"").append(String.format("%04X", result.getResponse().getSW())).append('"');
+			line.append(",\"expected\":");
+			appendJsonString(line, result.getStep().getExpected() == null ? null : result.getStep().getExpected().toString());
+			line.append(",\"passed\":").append(result.isPassed());
+			line.append(",\"micros\":").append(result.getDurationNanos() / 1000L);
+			return line.append('}').toString();
+		}
+	};
+
+	/**
+	 * Returns the header line.
+	 * 
+	 * @return the header line, or <code>null</code> if the format has no header
+	 */
+	public abstract String header();
+
+	/**
+	 * Formats a single step result.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 * @param showTerminal
+	 *            whether results of several card readers are mixed
+	 * @param result
+	 *            the step result
+	 * @return the formatted line
+	 */
+	public abstract String format(String terminalName, boolean showTerminal, StepResult result);
+
+	/**
+	 * Returns the output format with the given name.
+	 * 
+	 * @param name
+	 *            the format name, case insensitive
+	 * @return the output format
+	 * @throws IllegalArgumentException
+	 *             if there is no format with the given name
+	 */
+	public static OutputFormat forName(final String name) {
+		for (final OutputFormat format : values()) {
+			if (format.name().equalsIgnoreCase(name)) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException("Unknown output format: " + name);
+	}
+
+	private static void appendJsonString(final StringBuilder json, final String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+}
@@ -0,0 +1,630 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.cli;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.CardException;
+
+import be.healthconnect.testeidutil.card.ApduScript;
+import be.healthconnect.testeidutil.card.ApduScript.StepResult;
+import be.healthconnect.testeidutil.card.BulkUnblock;
+import be.healthconnect.testeidutil.card.CardExecutor;
+import be.healthconnect.testeidutil.card.CardManifest;
+import be.healthconnect.testeidutil.card.CardSession;
+import be.healthconnect.testeidutil.card.CardSessionManager;
+import be.healthconnect.testeidutil.card.CardTask;
+import be.healthconnect.testeidutil.card.EidFile;
+import be.healthconnect.testeidutil.card.EidFileCache;
+import be.healthconnect.testeidutil.card.EidFileReader;
+import be.healthconnect.testeidutil.card.MacroCatalogue;
+import be.healthconnect.testeidutil.card.ReaderResult;
+import be.healthconnect.testeidutil.card.sim.CardSimulator;
+import be.healthconnect.testeidutil.trace.TraceDecoder;
+import be.healthconnect.testeidutil.trace.TraceRecorder;
+import be.healthconnect.testeidutil.trace.TraceReplayer;
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * Headless command line mode. Uses the same card engine as the GUI, but never loads the JavaFX toolkit.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class TestEIDUtilCLI {
+
+	/** Command line flag that selects the headless mode in {@link be.healthconnect.testeidutil.Launcher#main(String[])}. */
+	public static final String HEADLESS = "--headless";
+
+	/** Exit code: all commands executed and all status word checks passed. */
+	public static final int EXIT_OK = 0;
+	/** Exit code: a status word check failed. */
+	public static final int EXIT_CHECK_FAILED = 1;
+	/** Exit code: invalid command line arguments. */
+	public static final int EXIT_USAGE = 2;
+	/** Exit code: card, card reader or I/O error. */
+	public static final int EXIT_ERROR = 3;
+
+	private static final String USAGE = "Usage: java -jar test-eid-util.jar " + HEADLESS + " [options]\n" //
+			+ "  -c, --command HEX[->SW]  send a command APDU, optionally checking the status word (repeatable)\n" //
+			+ "  -s, --script FILE        run an APDU script, '-' for standard input (repeatable)\n" //
+			+ "  -m, --macro NAME         run a macro from the catalogue, built in: unblock1, unblock2, unblock3 (repeatable)\n" //
+			+ "  --macros FILE            use the macro catalogue in FILE instead of the built-in one\n" //
+			+ "  -e, --read-file NAME[=FILE]  read an eID file into FILE, or print it in hex: identity, identity-signature,\n" //
+			+ "                           address, address-signature, photo, auth-cert, sign-cert, ca-cert, root-cert,\n" //
+			+ "                           rrn-cert (repeatable)\n" //
+			+ "  --file-cache DIR         keep the files that never change per card in DIR, and read them from there\n" //
+			+ "  --refresh-cache          drop the cached files of the card before reading\n" //
+			+ "  -u, --unblock FILE       unblock the PINs of all cards in all card readers, with the PUKs and PINs from a\n" //
+			+ "                           card manifest: CHIP_NUMBER PUK_HALF_1 PUK_HALF_2 [PIN] per line\n" //
+			+ "  -D NAME=VALUE            set a script variable\n" //
+			+ "  -r, --reader NAME        use the given card reader instead of the first one\n" //
+			+ "  -a, --all-readers        run on all card readers that hold a card, concurrently\n" //
+			+ "  -n, --no-auto-response   return 61xx and 6Cxx responses instead of sending GET RESPONSE or retrying\n" //
+			+ "  -f, --format FORMAT      output format: hex (default), csv, jsonl\n" //
+			+ "  -l, --list-readers       list the card readers\n" //
+			+ "  --simulator N            use N simulated card readers with virtual test eIDs instead of PC/SC\n" //
+			+ "  --latency [INS=]MICROS   simulated latency of all instructions, or of instruction INS in hex (repeatable)\n" //
+			+ "  --trace FILE             record all commands and responses into a binary trace file\n" //
+			+ "  --trace-size MB          size of the trace ring, older records are overwritten (default 16)\n" //
+			+ "  --decode-trace FILE      print a trace file as text\n" //
+			+ "  --replay-trace FILE      replay a trace file against simulated card readers\n" //
+			+ "  --real-time              replay with the recorded pauses between commands\n" //
+			+ "  -h, --help               show this help\n" //
+			+ "Exit codes: 0 = OK, 1 = status word check failed, 2 = usage error, 3 = card or I/O error";
+
+	private final PrintStream out;
+	private final PrintStream err;
+	private final List<ApduScript> scripts = new ArrayList<>();
+	private final Map<String, String> variables = new LinkedHashMap<>();
+	private final Map<EidFile, Path> files = new LinkedHashMap<>();
+	private final Map<Integer, String> macros = new LinkedHashMap<>();
+
+	private String terminalName;
+	private boolean allReaders;
+	private boolean listReaders;
+	private boolean autoResponse = true;
+	private int simulatorReaders;
+	private final Map<Integer, Long> latencies = new LinkedHashMap<>();
+	private OutputFormat format = OutputFormat.HEX;
+	private CardSimulator simulator;
+	private Path macroFile;
+	private CardManifest manifest;
+	private Path fileCache;
+	private boolean refreshCache;
+	private Path traceFile;
+	private int traceSize = TraceRecorder.DEFAULT_CAPACITY;
+	private Path decodeTrace;
+	private Path replayTrace;
+	private boolean realTime;
+
+	/**
+	 * Creates a new {@link TestEIDUtilCLI}.
+	 * 
+	 * @param out
+	 *            the stream for results
+	 * @param err
+	 *            the stream for errors and failed checks
+	 */
+	public TestEIDUtilCLI(final PrintStream out, final PrintStream err) {
+		super();
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Main method.
+	 * 
+	 * @param args
+	 */
+	public static void main(final String[] args) {
+		System.exit(new TestEIDUtilCLI(System.out, System.err).run(args));
+	}
+
+	/**
+	 * Returns whether the given application arguments select the headless mode.
+	 * 
+	 * @param args
+	 *            the application arguments
+	 * @return <code>true</code> if the first argument is {@value #HEADLESS}
+	 */
+	public static boolean isHeadless(final String[] args) {
+		return args.length > 0 && HEADLESS.equals(args[0]);
+	}
+
+	/**
+	 * Runs the command line mode.
+	 * 
+	 * @param args
+	 *            the command line arguments, optionally starting with {@value #HEADLESS}
+	 * @return the exit code
+	 */
+	public int run(final String[] args) {
+		try {
+			if (!parseArguments(args)) {
+				out.println(USAGE);
+				return EXIT_OK;
+			}
+		} catch (final IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println(USAGE);
+			return EXIT_USAGE;
+		} catch (final IOException e) {
+			err.println(e);
+			return EXIT_ERROR;
+		}
+
+		if (decodeTrace != null) {
+			return decodeTrace();
+		}
+		if (replayTrace != null) {
+			return replayTrace();
+		}
+
+		try (final CardSessionManager manager = createManager()) {
+			final TraceRecorder recorder = traceFile == null ? null : new TraceRecorder(traceFile, traceSize);
+			if (recorder == null) {
+				return execute(manager);
+			}
+			manager.addApduListener(recorder);
+			try {
+				return execute(manager);
+			} finally {
+				manager.removeApduListener(recorder);
+				recorder.close();
+			}
+		} catch (final CardException e) {
+			err.println(e.getMessage());
+			return EXIT_ERROR;
+		} catch (final IOException e) {
+			err.println(e);
+			return EXIT_ERROR;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return EXIT_ERROR;
+		}
+	}
+
+	/**
+	 * Executes the card actions selected on the command line.
+	 * 
+	 * @param manager
+	 *            the card session manager
+	 * @return the exit code
+	 */
+	private int execute(final CardSessionManager manager) throws CardException, InterruptedException {
+		if (listReaders) {
+			listReaders(manager);
+			if (scripts.isEmpty() && files.isEmpty() && manifest == null) {
+				return EXIT_OK;
+			}
+		}
+		if (manifest != null) {
+			return unblock(manager);
+		}
+		if (scripts.isEmpty() && files.isEmpty()) {
+			err.println("Nothing to do");
+			err.println(USAGE);
+			return EXIT_USAGE;
+		}
+		if (scripts.isEmpty()) {
+			return readFiles(manager);
+		}
+		if (format.header() != null) {
+			out.println(format.header());
+		}
+		final int exitCode = allReaders ? runOnAllReaders(manager) : runOnReader(manager);
+		return exitCode == EXIT_OK && !files.isEmpty() ? readFiles(manager) : exitCode;
+	}
+
+	/**
+	 * Parses the command line arguments.
+	 * 
+	 * @param args
+	 *            the command line arguments
+	 * @return <code>false</code> if help was requested
+	 * @throws IllegalArgumentException
+	 *             if the arguments are invalid
+	 * @throws IOException
+	 *             if a script or the macro catalogue cannot be read
+	 */
+	private boolean parseArguments(final String[] args) throws IOException {
+		for (int i = isHeadless(args) ? 1 : 0; i < args.length; i++) {
+			final String arg = args[i];
+			switch (arg) {
+			case "-c":
+			case "--command":
+				scripts.add(ApduScript.parse(value(args, ++i, arg)));
+				break;
+			case "-s":
+			case "--script":
+				final String script = value(args, ++i, arg);
+				scripts.add("-".equals(script) ? ApduScript.parse(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+						: ApduScript.load(Paths.get(script)));
+				break;
+			case "-m":
+			case "--macro":
+				// resolved once the catalogue is known
+				macros.put(scripts.size(), value(args, ++i, arg));
+				scripts.add(null);
+				break;
+			case "-u":
+			case "--unblock":
+				manifest = CardManifest.load(Paths.get(value(args, ++i, arg)));
+				break;
+			case "--macros":
+				macroFile = Paths.get(value(args, ++i, arg));
+				break;
+			case "-e":
+			case "--read-file":
+				final String file = value(args, ++i, arg);
+				final int separator = file.indexOf('=');
+				files.put(EidFile.forName(separator < 0 ? file : file.substring(0, separator)),
+						separator < 0 ? null : Paths.get(file.substring(separator + 1)));
+				break;
+			case "--file-cache":
+				fileCache = Paths.get(value(args, ++i, arg));
+				break;
+			case "--refresh-cache":
+				refreshCache = true;
+				break;
+			case "-r":
+			case "--reader":
+				terminalName = value(args, ++i, arg);
+				break;
+			case "-a":
+			case "--all-readers":
+				allReaders = true;
+				break;
+			case "-n":
+			case "--no-auto-response":
+				autoResponse = false;
+				break;
+			case "-f":
+			case "--format":
+				format = OutputFormat.forName(value(args, ++i, arg));
+				break;
+			case "-l":
+			case "--list-readers":
+				listReaders = true;
+				break;
+			case "--simulator":
+				simulatorReaders = parseInt(value(args, ++i, arg), 10, arg);
+				if (simulatorReaders < 1) {
+					throw new IllegalArgumentException("Option " + arg + " needs at least one card reader");
+				}
+				break;
+			case "--latency":
+				final String latency = value(args, ++i, arg);
+				final int equals = latency.indexOf('=');
+				// key -1 stands for all instructions
+				latencies.put(equals < 0 ? -1 : parseInt(latency.substring(0, equals), 16, arg),
+						(long) parseInt(latency.substring(equals + 1), 10, arg));
+				break;
+			case "--trace":
+				traceFile = Paths.get(value(args, ++i, arg));
+				break;
+			case "--trace-size":
+				final int megabytes = parseInt(value(args, ++i, arg), 10, arg);
+				if (megabytes < 1 || megabytes > 1024) {
+					throw new IllegalArgumentException("Option " + arg + " needs a size between 1 and 1024 MB");
+				}
+				traceSize = megabytes << 20;
+				break;
+			case "--decode-trace":
+				decodeTrace = Paths.get(value(args, ++i, arg));
+				break;
+			case "--replay-trace":
+				replayTrace = Paths.get(value(args, ++i, arg));
+				break;
+			case "--real-time":
+				realTime = true;
+				break;
+			case "-h":
+			case "--help":
+				return false;
+			default:
+				if (arg.startsWith("-D") && arg.indexOf('=') > 2) {
+					variables.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+				} else {
+					throw new IllegalArgumentException("Unknown option: " + arg);
+				}
+			}
+		}
+		if (!macros.isEmpty()) {
+			final MacroCatalogue catalogue = macroFile == null ? MacroCatalogue.getDefault() : MacroCatalogue.load(macroFile);
+			for (final Map.Entry<Integer, String> macro : macros.entrySet()) {
+				scripts.set(macro.getKey(), catalogue.forName(macro.getValue()).getScript());
+			}
+		}
+		if (allReaders && terminalName != null) {
+			throw new IllegalArgumentException("Options --reader and --all-readers cannot be combined");
+		}
+		if (!latencies.isEmpty() && simulatorReaders == 0) {
+			throw new IllegalArgumentException("Option --latency needs --simulator");
+		}
+		if (realTime && replayTrace == null) {
+			throw new IllegalArgumentException("Option --real-time needs --replay-trace");
+		}
+		if (traceFile != null && (decodeTrace != null || replayTrace != null)) {
+			throw new IllegalArgumentException("Option --trace cannot be combined with --decode-trace or --replay-trace");
+		}
+		if (manifest != null && (!scripts.isEmpty() || !files.isEmpty() || terminalName != null)) {
+			throw new IllegalArgumentException("Option --unblock runs on all card readers, and cannot be combined with other commands");
+		}
+		if (refreshCache && fileCache == null) {
+			throw new IllegalArgumentException("Option --refresh-cache needs --file-cache");
+		}
+		if (fileCache != null && files.isEmpty()) {
+			throw new IllegalArgumentException("Option --file-cache needs --read-file");
+		}
+		if (allReaders && !files.isEmpty()) {
+			throw new IllegalArgumentException("Options --read-file and --all-readers cannot be combined");
+		}
+		return true;
+	}
+
+	private static int parseInt(final String value, final int radix, final String option) {
+		try {
+			return Integer.parseInt(value, radix);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for option " + option + ": " + value);
+		}
+	}
+
+	private CardSessionManager createManager() {
+		if (simulatorReaders == 0) {
+			return new CardSessionManager();
+		}
+		simulator = new CardSimulator(simulatorReaders);
+		for (final Map.Entry<Integer, Long> latency : latencies.entrySet()) {
+			if (latency.getKey() < 0) {
+				simulator.setLatency(latency.getValue(), TimeUnit.MICROSECONDS);
+			} else {
+				simulator.setLatency(latency.getKey(), latency.getValue(), TimeUnit.MICROSECONDS);
+			}
+		}
+		return new CardSessionManager(simulator.getTerminalFactory(), Runnable::run);
+	}
+
+	private int decodeTrace() {
+		try {
+			new TraceDecoder(decodeTrace).dump(out);
+			return EXIT_OK;
+		} catch (final IOException e) {
+			err.println(e);
+			return EXIT_ERROR;
+		}
+	}
+
+	/**
+	 * Replays a trace file against simulated card readers, one per recorded card reader unless <code>--simulator</code> says otherwise.
+	 * 
+	 * @return {@link #EXIT_OK} if all status words matched the recording, {@link #EXIT_CHECK_FAILED} otherwise
+	 */
+	private int replayTrace() {
+		final TraceReplayer replayer;
+		try {
+			replayer = new TraceReplayer(new TraceDecoder(replayTrace).getRecords());
+		} catch (final IOException e) {
+			err.println(e);
+			return EXIT_ERROR;
+		}
+		if (replayer.getSessionCount() == 0) {
+			err.println("No card sessions in " + replayTrace);
+			return EXIT_ERROR;
+		}
+		if (simulatorReaders == 0) {
+			simulatorReaders = replayer.getTerminalNames().size();
+		}
+		replayer.setRealTime(realTime);
+		try (final CardSessionManager manager = createManager()) {
+			final TraceReplayer.Result result = replayer.replay(simulator, manager);
+			for (final String mismatch : result.getMismatches()) {
+				err.println(mismatch);
+			}
+			out.println(result);
+			return result.getStatusWordMismatchCount() == 0 ? EXIT_OK : EXIT_CHECK_FAILED;
+		} catch (final CardException e) {
+			err.println(describe(e));
+			return EXIT_ERROR;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return EXIT_ERROR;
+		}
+	}
+
+	private static String value(final String[] args, final int index, final String option) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Missing value for option " + option);
+		}
+		return args[index];
+	}
+
+	private void listReaders(final CardSessionManager manager) throws CardException {
+		final List<String> present = manager.listTerminalNames(true);
+		for (final String name : manager.listTerminalNames(false)) {
+			out.println(name + (present.contains(name) ? "\tcard present" : "\tno card"));
+		}
+	}
+
+	private int runOnReader(final CardSessionManager manager) throws InterruptedException {
+		final CardExecutor executor = terminalName == null ? manager.getExecutor() : manager.getExecutor(terminalName);
+		try {
+			final List<StepResult> results = executor.submit(task(false)).get();
+			return isPassed(results) ? EXIT_OK : EXIT_CHECK_FAILED;
+		} catch (final ExecutionException e) {
+			err.println(describe(CardExecutor.unwrap(e)));
+			return EXIT_ERROR;
+		}
+	}
+
+	private int runOnAllReaders(final CardSessionManager manager) throws InterruptedException {
+		final List<ReaderResult<List<StepResult>>> results;
+		try {
+			results = manager.submitToAll(task(true)).get();
+		} catch (final ExecutionException e) {
+			err.println(describe(CardExecutor.unwrap(e)));
+			return EXIT_ERROR;
+		}
+		if (results.isEmpty()) {
+			err.println("No card present in any card reader");
+			return EXIT_ERROR;
+		}
+		int exitCode = EXIT_OK;
+		for (final ReaderResult<List<StepResult>> result : results) {
+			if (!result.isSuccess()) {
+				err.println("[" + result.getTerminalName() + "] " + describe(result.getError()));
+				exitCode = EXIT_ERROR;
+			} else if (!isPassed(result.getValue()) && exitCode == EXIT_OK) {
+				exitCode = EXIT_CHECK_FAILED;
+			}
+		}
+		return exitCode;
+	}
+
+	/**
+	 * Unblocks the cards in all card readers concurrently, and prints the outcome per card reader.
+	 * 
+	 * @param manager
+	 *            the card session manager
+	 * @return {@link #EXIT_OK} if all cards were unblocked, {@link #EXIT_CHECK_FAILED} if a card was rejected or is not in the manifest
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the cards
+	 */
+	private int unblock(final CardSessionManager manager) throws InterruptedException {
+		final List<ReaderResult<BulkUnblock.Outcome>> results;
+		try {
+			results = new BulkUnblock(manifest).run(manager).get();
+		} catch (final ExecutionException e) {
+			err.println(describe(CardExecutor.unwrap(e)));
+			return EXIT_ERROR;
+		}
+		if (results.isEmpty()) {
+			err.println("No card present in any card reader");
+			return EXIT_ERROR;
+		}
+		int exitCode = EXIT_OK;
+		for (final ReaderResult<BulkUnblock.Outcome> result : results) {
+			if (!result.isSuccess()) {
+				err.println("[" + result.getTerminalName() + "] " + describe(result.getError()));
+				exitCode = EXIT_ERROR;
+			} else {
+				out.println(result.getTerminalName() + "\t" + result.getValue());
+				if (result.getValue().getStatus() != BulkUnblock.Status.UNBLOCKED && exitCode == EXIT_OK) {
+					exitCode = EXIT_CHECK_FAILED;
+				}
+			}
+		}
+		return exitCode;
+	}
+
+	/**
+	 * Reads the requested eID files in a single exclusive section, through the file cache if requested. Files without an output file are
+	 * printed in hex.
+	 * 
+	 * @param manager
+	 *            the card session manager
+	 * @return the exit code
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the card
+	 */
+	private int readFiles(final CardSessionManager manager) throws InterruptedException {
+		final CardExecutor executor = terminalName == null ? manager.getExecutor() : manager.getExecutor(terminalName);
+		if (fileCache != null) {
+			manager.setFileCache(new EidFileCache(EidFileCache.DEFAULT_MEMORY_LIMIT, fileCache));
+		}
+		try {
+			executor.submit(session -> {
+				final EidFileReader reader = new EidFileReader(session);
+				session.setAutoResponse(autoResponse);
+				session.beginExclusive();
+				try {
+					if (refreshCache) {
+						session.getFileCache().invalidate(session.getChipNumber());
+					}
+					for (final Map.Entry<EidFile, Path> file : files.entrySet()) {
+						if (file.getValue() == null) {
+							out.println(file.getKey().getName() + "\t" + HexCodec.toHex(reader.read(file.getKey())).toUpperCase());
+						} else {
+							final long length = reader.read(file.getKey(), file.getValue());
+							out.println(file.getKey().getName() + "\t" + length + " bytes\t" + file.getValue());
+						}
+					}
+				} catch (final IOException e) {
+					throw new CardException("Cannot write eID file", e);
+				} finally {
+					session.endExclusive();
+				}
+				return null;
+			}).get();
+			return EXIT_OK;
+		} catch (final ExecutionException e) {
+			err.println(describe(CardExecutor.unwrap(e)));
+			return EXIT_ERROR;
+		}
+	}
+
+	/**
+	 * Returns a task that runs all scripts in a single exclusive section, and prints each step result as it arrives.
+	 * 
+	 * @param showTerminal
+	 *            whether results of several card readers are mixed
+	 * @return the task
+	 */
+	private CardTask<List<StepResult>> task(final boolean showTerminal) {
+		return session -> {
+			final List<StepResult> results = new ArrayList<>();
+			session.setAutoResponse(autoResponse);
+			session.beginExclusive();
+			try {
+				for (final ApduScript script : scripts) {
+					final List<StepResult> scriptResults = script.execute(session, variables, result -> print(session, showTerminal, result));
+					results.addAll(scriptResults);
+					if (!script.isPassed(scriptResults)) {
+						break;
+					}
+				}
+			} finally {
+				session.endExclusive();
+			}
+			return results;
+		};
+	}
+
+	private void print(final CardSession session, final boolean showTerminal, final StepResult result) {
+		final String terminal = session.getConnectedTerminalName();
+		synchronized (out) {
+			out.println(format.format(terminal, showTerminal, result));
+		}
+		if (!result.isPassed()) {
+			err.println((showTerminal ? "[" + terminal + "] " : "") + "Line " + result.getStep().getLine() + ": expected "
+					+ result.getStep().getExpected() + ", got " + String.format("%04X", result.getResponse().getSW()));
+		}
+	}
+
+	private boolean isPassed(final List<StepResult> results) {
+		int steps = 0;
+		for (final ApduScript script : scripts) {
+			steps += script.getSteps().size();
+		}
+		return results.size() == steps && (results.isEmpty() || results.get(results.size() - 1).isPassed());
+	}
+
+	private static String describe(final Throwable error) {
+		final String message = error.getLocalizedMessage();
+		return message == null || message.isEmpty() ? error.getClass().getName() : message;
+	}
+
+}
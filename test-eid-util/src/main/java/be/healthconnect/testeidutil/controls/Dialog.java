@@ -3,7 +3,6 @@
  */
 package be.healthconnect.testeidutil.controls;
 
-import be.healthconnect.testeidutil.util.OSUtility;
 import javafx.beans.InvalidationListener;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
@@ -66,9 +65,6 @@ public abstract class Dialog extends Popup {
 	private double startDragX;
 	private double startDragY;
 	private boolean hideOnClose;
-	private InvalidationListener xListener;
-	private InvalidationListener yListener;
-	private InvalidationListener windowFocusedListener;
 
 	/**
 	 * Creates a new {@link Dialog}.
@@ -126,7 +122,10 @@ public abstract class Dialog extends Popup {
 		};
 		titleVisibleProperty().addListener(visibleListener);
 		closeVisibleProperty().addListener(visibleListener);
-		getStylesheets().add("be/healthconnect/javafx/controls/controls.css");
+		final String stylesheet = Stylesheets.getControls();
+		if (stylesheet != null) {
+			getStylesheets().add(stylesheet);
+		}
 		getStyleClass().add("dialog");
 
 	}
@@ -146,66 +145,37 @@ public abstract class Dialog extends Popup {
 	}
 
 	/**
-	 * Opens (shows) the dialog.
+	 * Opens (shows) the dialog, centered on {@link #owner} for as long as it is open.
+	 * 
+	 * @see DialogPositioner
 	 */
 	public void open() {
 		show(owner);
-		updateX();
-		updateY();
-		if (xListener == null) {
-			xListener = property -> {
-				if (isShowing()) {
-					updateX();
-				}
-			};
-			owner.xProperty().addListener(xListener);
-			owner.widthProperty().addListener(xListener);
-		}
-		if (yListener == null) {
-			yListener = property -> {
-				if (isShowing()) {
-					updateY();
-				}
-			};
-			owner.yProperty().addListener(yListener);
-			owner.heightProperty().addListener(yListener);
-		}
-		if (windowFocusedListener == null) {
-			// On windows the popup windows stick on top of other applications, so we hide them manually when the main window loses focus.
-			if (OSUtility.isWindows()) {
-				windowFocusedListener = property -> {
-					if (!owner.isFocused() && isShowing()) {
-						Dialog.super.hide();
-					} else if (!isShowing()) {
-						show(owner);
-						updateX();
-						updateY();
-					}
-				};
-				owner.focusedProperty().addListener(windowFocusedListener);
-			}
-		}
+		DialogPositioner.forOwner(owner).add(this);
 	}
 
 	@Override
 	public void hide() {
-		if (windowFocusedListener != null) {
-			owner.focusedProperty().removeListener(windowFocusedListener);
-			windowFocusedListener = null;
-		}
-		if (xListener != null) {
-			owner.xProperty().removeListener(xListener);
-			owner.widthProperty().removeListener(xListener);
-			xListener = null;
-		}
-		if (yListener != null) {
-			owner.yProperty().removeListener(yListener);
-			owner.heightProperty().removeListener(yListener);
-			yListener = null;
-		}
+		DialogPositioner.forOwner(owner).remove(this);
 		super.hide();
 	}
 
+	/**
+	 * Hides the dialog while keeping it open, e.g. while {@link #owner} does not have the focus.
+	 */
+	void suspend() {
+		super.hide();
+	}
+
+	/**
+	 * Shows a suspended dialog again.
+	 */
+	void resume() {
+		show(owner);
+		updateX();
+		updateY();
+	}
+
 	/**
 	 * Returns the applicable CSS stylesheets.
 	 * 
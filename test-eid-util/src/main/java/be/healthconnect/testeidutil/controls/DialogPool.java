@@ -0,0 +1,111 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.controls;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of {@link MessageDialog}s of the same owner, so that frequent dialogs do not each build a new popup, scene graph and
+ * stylesheet. A released dialog is {@link MessageDialog#reset() reset}, which detaches all handlers, and kept for the next
+ * {@link #acquire()}; dialogs that do not fit in the pool are left to the garbage collector. Only to be used on the JavaFX Application
+ * Thread.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ * 
+ * @param <D>
+ *            the dialog type
+ */
+public final class DialogPool<D extends MessageDialog> {
+
+	private final Supplier<D> factory;
+	private final int capacity;
+	private final Deque<D> free = new ArrayDeque<>();
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a new {@link DialogPool}.
+	 * 
+	 * @param factory
+	 *            creates a new dialog when the pool is empty
+	 * @param capacity
+	 *            the maximum number of idle dialogs kept in the pool
+	 */
+	public DialogPool(final Supplier<D> factory, final int capacity) {
+		super();
+		this.factory = factory;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Fills the pool with new dialogs, up to the given number of idle dialogs.
+	 * 
+	 * @param count
+	 *            the number of idle dialogs to have, at most the pool capacity
+	 */
+	public void prestart(final int count) {
+		while (free.size() < Math.min(count, capacity)) {
+			free.push(factory.get());
+		}
+	}
+
+	/**
+	 * Takes a reset dialog from the pool, or creates a new one if the pool is empty.
+	 * 
+	 * @return a hidden dialog in its initial state
+	 */
+	public D acquire() {
+		final D dialog = free.poll();
+		if (dialog != null) {
+			hits++;
+			return dialog;
+		}
+		misses++;
+		return factory.get();
+	}
+
+	/**
+	 * Resets the given dialog and returns it to the pool, unless the pool is full or the dialog is still showing.
+	 * 
+	 * @param dialog
+	 *            a dialog obtained from {@link #acquire()}, which must no longer be used by the caller
+	 */
+	public void release(final D dialog) {
+		dialog.reset();
+		if (!dialog.isShowing() && free.size() < capacity && !free.contains(dialog)) {
+			free.push(dialog);
+		}
+	}
+
+	/**
+	 * Returns the number of dialogs reused from the pool.
+	 * 
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of dialogs created because the pool was empty.
+	 * 
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of idle dialogs in the pool.
+	 * 
+	 * @return the number of idle dialogs
+	 */
+	public int getIdleCount() {
+		return free.size();
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.controls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.healthconnect.testeidutil.util.OSUtility;
+import javafx.animation.AnimationTimer;
+import javafx.beans.InvalidationListener;
+import javafx.stage.Window;
+
+/**
+ * Keeps the open dialogs of a window centered on it. There is one positioner per window, with a single set of listeners on the window
+ * position, size and, on Windows, focus, which are only attached while dialogs are open. Moves and resizes of the window are batched:
+ * all dialogs are repositioned at most once per pulse. Only to be used on the JavaFX Application Thread.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class DialogPositioner {
+
+	private final Window owner;
+	private final List<Dialog> dialogs = new ArrayList<>();
+	private final InvalidationListener boundsListener = property -> schedule();
+	private final InvalidationListener focusListener = property -> focusChanged();
+	private final AnimationTimer pulse = new AnimationTimer() {
+
+		@Override
+		public void handle(final long now) {
+			stop();
+			scheduled = false;
+			reposition();
+		}
+
+	};
+
+	private boolean scheduled;
+
+	private DialogPositioner(final Window owner) {
+		super();
+		this.owner = owner;
+	}
+
+	/**
+	 * Returns the positioner of the given window, creating it on first use.
+	 * 
+	 * @param owner
+	 *            the window
+	 * @return the positioner
+	 */
+	public static DialogPositioner forOwner(final Window owner) {
+		return (DialogPositioner) owner.getProperties().computeIfAbsent(DialogPositioner.class, key -> new DialogPositioner(owner));
+	}
+
+	/**
+	 * Starts keeping the given dialog centered, and centers it right away.
+	 * 
+	 * @param dialog
+	 *            an open dialog of the window
+	 */
+	public void add(final Dialog dialog) {
+		dialog.updateX();
+		dialog.updateY();
+		if (dialogs.contains(dialog)) {
+			return;
+		}
+		if (dialogs.isEmpty()) {
+			owner.xProperty().addListener(boundsListener);
+			owner.yProperty().addListener(boundsListener);
+			owner.widthProperty().addListener(boundsListener);
+			owner.heightProperty().addListener(boundsListener);
+			if (OSUtility.isWindows()) {
+				owner.focusedProperty().addListener(focusListener);
+			}
+		}
+		dialogs.add(dialog);
+	}
+
+	/**
+	 * Stops keeping the given dialog centered. All listeners are removed from the window once no dialogs are left.
+	 * 
+	 * @param dialog
+	 *            a dialog of the window that is being hidden
+	 */
+	public void remove(final Dialog dialog) {
+		if (!dialogs.remove(dialog) || !dialogs.isEmpty()) {
+			return;
+		}
+		owner.xProperty().removeListener(boundsListener);
+		owner.yProperty().removeListener(boundsListener);
+		owner.widthProperty().removeListener(boundsListener);
+		owner.heightProperty().removeListener(boundsListener);
+		owner.focusedProperty().removeListener(focusListener);
+		pulse.stop();
+		scheduled = false;
+	}
+
+	/**
+	 * Returns the number of dialogs kept centered.
+	 * 
+	 * @return the number of open dialogs
+	 */
+	public int getDialogCount() {
+		return dialogs.size();
+	}
+
+	private void schedule() {
+		if (!scheduled) {
+			scheduled = true;
+			pulse.start();
+		}
+	}
+
+	private void reposition() {
+		for (final Dialog dialog : dialogs) {
+			if (dialog.isShowing()) {
+				dialog.updateX();
+				dialog.updateY();
+			}
+		}
+	}
+
+	/**
+	 * On Windows the popup windows stick on top of other applications, so they are hidden manually when the window loses focus, and
+	 * shown again when it regains focus.
+	 */
+	private void focusChanged() {
+		for (final Dialog dialog : new ArrayList<>(dialogs)) {
+			if (!owner.isFocused() && dialog.isShowing()) {
+				dialog.suspend();
+			} else if (owner.isFocused() && !dialog.isShowing()) {
+				dialog.resume();
+			}
+		}
+	}
+
+}
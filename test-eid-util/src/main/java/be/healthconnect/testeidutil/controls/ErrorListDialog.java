@@ -0,0 +1,115 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.controls;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javafx.scene.control.ListView;
+import javafx.scene.control.TitledPane;
+import javafx.scene.layout.VBox;
+import javafx.stage.Window;
+
+/**
+ * Message dialog that collects several errors: the first error is shown as the message, together with the total number of errors, and
+ * an expandable list shows each distinct error once per source, with the number of times it occurred. The list keeps at most
+ * {@link #MAX_ENTRIES} distinct errors; further errors are only counted.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class ErrorListDialog extends MessageDialog {
+
+	/** Maximum number of distinct errors in the list. */
+	public static final int MAX_ENTRIES = 100;
+
+	protected final ListView<String> errorList = new ListView<>();
+	protected final TitledPane details = new TitledPane("Details", errorList);
+	protected final VBox errorBox = new VBox();
+
+	private final Map<String, Integer> entryIndexes = new HashMap<>();
+	private final Map<String, Integer> entryCounts = new HashMap<>();
+	private String firstMessage;
+	private int errorCount;
+	private int droppedCount;
+
+	/**
+	 * Creates a new {@link ErrorListDialog}.
+	 * 
+	 * @param owner
+	 *            the owning window
+	 */
+	public ErrorListDialog(final Window owner) {
+		super(owner);
+		errorList.setPrefHeight(150.0);
+		details.setExpanded(false);
+		details.setVisible(false);
+		details.managedProperty().bind(details.visibleProperty());
+		errorBox.setSpacing(10.0);
+		errorBox.getChildren().setAll(textFlow, details);
+		centerPane.getChildren().setAll(errorBox);
+	}
+
+	/**
+	 * {@inheritDoc} Forgets all errors.
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		errorList.getItems().clear();
+		entryIndexes.clear();
+		entryCounts.clear();
+		firstMessage = null;
+		errorCount = 0;
+		droppedCount = 0;
+		details.setText("Details");
+		details.setExpanded(false);
+		details.setVisible(false);
+		errorBox.getChildren().setAll(textFlow, details);
+		centerPane.getChildren().setAll(errorBox);
+	}
+
+	/**
+	 * Adds an error. The details list becomes visible from the second error on.
+	 * 
+	 * @param source
+	 *            where the error comes from, e.g. a card reader name, or <code>null</code> if not known
+	 * @param message
+	 *            the error message
+	 */
+	public void addError(final String source, final String message) {
+		errorCount++;
+		if (firstMessage == null) {
+			firstMessage = message;
+		}
+		final String entry = source == null ? message : source + ": " + message;
+		final Integer index = entryIndexes.get(entry);
+		if (index != null) {
+			final int count = entryCounts.merge(entry, 1, Integer::sum);
+			errorList.getItems().set(index, entry + " (" + count + "x)");
+		} else if (entryIndexes.size() < MAX_ENTRIES) {
+			entryIndexes.put(entry, errorList.getItems().size());
+			entryCounts.put(entry, 1);
+			errorList.getItems().add(entry);
+		} else {
+			droppedCount++;
+		}
+		if (errorCount == 1) {
+			setMessage(message);
+		} else {
+			setMessage(String.format("%d errors occurred, the first one: %s", errorCount, firstMessage));
+			details.setText(droppedCount == 0 ? "Details" : String.format("Details (%d more not listed)", droppedCount));
+			details.setVisible(true);
+		}
+	}
+
+	/**
+	 * Returns the number of errors added.
+	 * 
+	 * @return the error count
+	 */
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+}
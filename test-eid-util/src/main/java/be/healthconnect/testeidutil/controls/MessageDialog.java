@@ -19,6 +19,7 @@ import javafx.scene.control.Button;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Region;
 import javafx.scene.layout.StackPane;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
@@ -44,6 +45,8 @@ public class MessageDialog extends ModalDialog {
 
 	private final BooleanProperty cancelVisible = new SimpleBooleanProperty(this, "cancelVisible");
 
+	private final EventHandler<ActionEvent> defaultOkHandler;
+
 	private StringProperty message;
 	private String messageNodesText;
 
@@ -81,6 +84,27 @@ public class MessageDialog extends ModalDialog {
 		getStyleClass().add("message-dialog");
 		setContents(buildContents());
 		setHideOnClose(true);
+		defaultOkHandler = okButton.getOnAction();
+	}
+
+	/**
+	 * Restores the state of a new {@link MessageDialog}, so that the dialog can be reused once hidden. Detaches the dialog closed event
+	 * handler and any OK button handler, and removes added message nodes.
+	 */
+	public void reset() {
+		setOnDialogClosed(null);
+		okButton.setOnAction(defaultOkHandler);
+		setMessage(null);
+		setMessageNodesText(null);
+		setTitle(null);
+		setTitleVisible(false);
+		setCloseVisible(false);
+		setCancelVisible(false);
+		setOkText("OK");
+		setCancelText("Cancel");
+		setHideOnClose(true);
+		setMaxContentWidth(Region.USE_COMPUTED_SIZE);
+		centerPane.getChildren().setAll(textFlow);
 	}
 
 	/**
@@ -117,8 +141,10 @@ public class MessageDialog extends ModalDialog {
 		buttonBar.getChildren().add(okButton);
 
 		cancelVisibleProperty().addListener((InvalidationListener) property -> {
-			if (cancelButton.isVisible()) {
-				buttonBar.getChildren().add(cancelButton);
+			if (getCancelVisible()) {
+				if (!buttonBar.getChildren().contains(cancelButton)) {
+					buttonBar.getChildren().add(cancelButton);
+				}
 			} else {
 				buttonBar.getChildren().remove(cancelButton);
 			}
@@ -7,13 +7,6 @@ import com.sun.javafx.tk.Toolkit;
 
 import be.healthconnect.testeidutil.util.OSUtility;
 import javafx.beans.value.ChangeListener;
-import javafx.scene.Group;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
-import javafx.scene.effect.BlendMode;
-import javafx.scene.layout.Region;
-import javafx.scene.layout.StackPane;
-import javafx.scene.shape.Rectangle;
 import javafx.stage.Window;
 
 /**
@@ -25,11 +18,10 @@ import javafx.stage.Window;
 @SuppressWarnings("restriction")
 public abstract class ModalDialog extends Dialog {
 
-	private static final double OVERLAY_OPACITY = 0.5;
-	protected final Group group = new Group();
-	protected final Rectangle overlay = new Rectangle();
+	protected final ModalOverlayHost overlayHost;
 
 	private boolean inNestedEventLoop = false;
+	private boolean overlayShown;
 
 	private final ChangeListener<Boolean> focusListener = (observable, oldValue, newValue) -> {
 		if (newValue) {
@@ -47,10 +39,7 @@ public abstract class ModalDialog extends Dialog {
 	 */
 	public ModalDialog(final Window owner) {
 		super(owner);
-		group.setBlendMode(BlendMode.DARKEN);
-		overlay.setOpacity(OVERLAY_OPACITY);
-		overlay.widthProperty().bind(owner.widthProperty());
-		overlay.heightProperty().bind(owner.heightProperty());
+		overlayHost = ModalOverlayHost.forOwner(owner);
 	}
 
 	@Override
@@ -74,7 +63,11 @@ public abstract class ModalDialog extends Dialog {
 	 *
 	 * @param owner
 	 *            the owner window
+	 * @deprecated nested event loops pile up when several dialogs open at once; use {@link #open()} with
+	 *             {@link #setOnDialogClosed(javafx.event.EventHandler)}, or the asynchronous methods of
+	 *             {@link be.healthconnect.testeidutil.view.Dialogs}
 	 */
+	@Deprecated
 	public void openAndWait() {
 		open();
 		setOnHiding(windowEvent -> {
@@ -94,23 +87,9 @@ public abstract class ModalDialog extends Dialog {
 	 *            boolean indicating if called from focused listener
 	 */
 	private void hide(final boolean fromListener) {
-		// if dealing with a root which is a stackpane it is much faster to add the overlay directly to it instead of replacing the root
-		final Parent sceneRoot = owner.getScene().getRoot();
-		if (sceneRoot != null && sceneRoot instanceof StackPane) {
-			if (!fromListener) {
-				final StackPane rootStackPane = (StackPane) sceneRoot;
-				rootStackPane.getChildren().remove(overlay);
-			}
-		} else if (!group.getChildren().isEmpty()) {
-			assert group.getChildren().size() == 2;
-			final Parent root = (Parent) group.getChildren().get(0);
-			group.getChildren().remove(root);
-			if (!fromListener) {
-				group.getChildren().remove(overlay);
-			}
-			assert group.getChildren().isEmpty();
-			owner.getScene().setRoot(root);
-			root.setDisable(false);
+		if (!fromListener && overlayShown) {
+			overlayShown = false;
+			overlayHost.hide();
 		}
 
 		if (OSUtility.isMac() && !fromListener) {
@@ -128,29 +107,9 @@ public abstract class ModalDialog extends Dialog {
 	 */
 	private void open(final boolean fromListener) {
 		super.open();
-		final Parent root = owner.getScene().getRoot();
-		if (root != null) {
-			// if dealing with a root which is a stackpane it is much faster to add the overlay directly to it instead of replacing the root
-			if (root instanceof StackPane) {
-				if (!fromListener) {
-					final StackPane rootStackPane = (StackPane) root;
-					if (!rootStackPane.getChildren().contains(overlay)) {
-						rootStackPane.getChildren().add(overlay);
-					}
-				}
-			} else if (group.getChildren().isEmpty()) {
-				group.getChildren().add(0, root);
-				if (!fromListener) {
-					group.getChildren().add(overlay);
-				}
-				final Scene scene = owner.getScene();
-				scene.setRoot(group);
-				// Bind root Region size to Scene size
-				if (root instanceof Region) {
-					((Region) root).prefWidthProperty().bind(scene.widthProperty());
-					((Region) root).prefHeightProperty().bind(scene.heightProperty());
-				}
-			}
+		if (!fromListener && !overlayShown) {
+			overlayShown = true;
+			overlayHost.show();
 		}
 
 		if (OSUtility.isMac() && !fromListener) {
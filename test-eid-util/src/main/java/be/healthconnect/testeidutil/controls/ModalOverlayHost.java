@@ -0,0 +1,112 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.controls;
+
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.layout.StackPane;
+import javafx.scene.shape.Rectangle;
+import javafx.stage.Window;
+
+/**
+ * Layer that dims a window while modal dialogs are open. The layer is installed once per window, on top of the scene root: directly if
+ * the root is a {@link StackPane}, otherwise by wrapping the root in a {@link StackPane} once. From then on, opening and closing a modal
+ * dialog only toggles the visibility of the layer, whatever the size of the scene. The layer stays visible until the last modal dialog
+ * is closed. Only to be used on the JavaFX Application Thread.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class ModalOverlayHost {
+
+	private static final double OVERLAY_OPACITY = 0.5;
+
+	private final Window owner;
+	private final Rectangle overlay = new Rectangle();
+
+	private int modalCount;
+
+	private ModalOverlayHost(final Window owner) {
+		super();
+		this.owner = owner;
+		overlay.getStyleClass().add("modal-overlay");
+		overlay.setOpacity(OVERLAY_OPACITY);
+		overlay.setManaged(false);
+		overlay.setVisible(false);
+	}
+
+	/**
+	 * Returns the overlay host of the given window, creating it on first use.
+	 * 
+	 * @param owner
+	 *            the window
+	 * @return the overlay host
+	 */
+	public static ModalOverlayHost forOwner(final Window owner) {
+		return (ModalOverlayHost) owner.getProperties().computeIfAbsent(ModalOverlayHost.class, key -> new ModalOverlayHost(owner));
+	}
+
+	/**
+	 * Dims the window for one more modal dialog.
+	 */
+	public void show() {
+		modalCount++;
+		final Parent host = install();
+		if (host == null) {
+			return;
+		}
+		final int last = host.getChildrenUnmodifiable().size() - 1;
+		if (host.getChildrenUnmodifiable().get(last) != overlay) {
+			// something was added on top since the last modal dialog
+			overlay.toFront();
+		}
+		overlay.setVisible(true);
+	}
+
+	/**
+	 * Undims the window when the last modal dialog is closed.
+	 */
+	public void hide() {
+		if (modalCount > 0 && --modalCount == 0) {
+			overlay.setVisible(false);
+		}
+	}
+
+	/**
+	 * Returns whether any modal dialog dims the window.
+	 * 
+	 * @return <code>true</code> if the overlay is shown
+	 */
+	public boolean isShowing() {
+		return modalCount > 0;
+	}
+
+	/**
+	 * Puts the overlay on top of the scene root, unless it is there already.
+	 * 
+	 * @return the scene root that holds the overlay, or <code>null</code> if the window has no scene
+	 */
+	private Parent install() {
+		final Scene scene = owner.getScene();
+		if (scene == null || scene.getRoot() == null) {
+			return null;
+		}
+		final Parent root = scene.getRoot();
+		if (overlay.getParent() == root) {
+			return root;
+		}
+		final StackPane host;
+		if (root instanceof StackPane) {
+			host = (StackPane) root;
+		} else {
+			host = new StackPane();
+			host.getChildren().add(root);
+			scene.setRoot(host);
+		}
+		overlay.widthProperty().bind(host.widthProperty());
+		overlay.heightProperty().bind(host.heightProperty());
+		host.getChildren().add(overlay);
+		return host;
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.controls;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.VBox;
+import javafx.stage.Window;
+
+/**
+ * Message dialog that lets the user edit a set of named parameters, e.g. the PIN and PUK variables of a macro, one text field per
+ * parameter.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class ParameterDialog extends MessageDialog {
+
+	protected final GridPane parameterGrid = new GridPane();
+	protected final VBox parameterBox = new VBox();
+
+	private final Map<String, TextField> fields = new LinkedHashMap<>();
+
+	/**
+	 * Creates a new {@link ParameterDialog}.
+	 * 
+	 * @param owner
+	 *            the owning window
+	 */
+	public ParameterDialog(final Window owner) {
+		super(owner);
+		parameterGrid.setHgap(10.0);
+		parameterGrid.setVgap(5.0);
+		parameterBox.setSpacing(10.0);
+		parameterBox.getChildren().setAll(textFlow, parameterGrid);
+		centerPane.getChildren().setAll(parameterBox);
+	}
+
+	/**
+	 * {@inheritDoc} Removes all parameters.
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		fields.clear();
+		parameterGrid.getChildren().clear();
+		centerPane.getChildren().setAll(parameterBox);
+	}
+
+	/**
+	 * Shows a text field for each of the given parameters, in iteration order, replacing the current parameters.
+	 * 
+	 * @param parameters
+	 *            the parameter names and their initial values
+	 */
+	public void setParameters(final Map<String, String> parameters) {
+		fields.clear();
+		parameterGrid.getChildren().clear();
+		int row = 0;
+		for (final Map.Entry<String, String> parameter : parameters.entrySet()) {
+			final TextField field = new TextField(parameter.getValue());
+			field.setPrefColumnCount(20);
+			fields.put(parameter.getKey(), field);
+			parameterGrid.addRow(row++, new Label(parameter.getKey()), field);
+		}
+	}
+
+	/**
+	 * Returns the parameters as currently entered.
+	 * 
+	 * @return the parameter names and their values, in the order given to {@link #setParameters(Map)}
+	 */
+	public Map<String, String> getParameters() {
+		final Map<String, String> parameters = new LinkedHashMap<>();
+		for (final Map.Entry<String, TextField> field : fields.entrySet()) {
+			parameters.put(field.getKey(), field.getValue().getText().trim());
+		}
+		return parameters;
+	}
+
+}
@@ -0,0 +1,56 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.controls;
+
+import java.net.URL;
+import java.util.logging.Logger;
+
+/**
+ * Stylesheets shared by all dialogs. Each stylesheet is looked up on the class path once, so that every dialog adds the same URL and the
+ * JavaFX style manager parses it only once. A stylesheet that is not on the class path is left out, instead of being looked up and
+ * reported as missing for every dialog.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class Stylesheets {
+
+	/** Class path location of the stylesheet of the controls. */
+	public static final String CONTROLS_PATH = "be/healthconnect/javafx/controls/controls.css";
+
+	private static final Logger LOG = Logger.getLogger(Stylesheets.class.getName());
+
+	private static volatile String controls;
+
+	private Stylesheets() {
+		super();
+	}
+
+	/**
+	 * Looks up all stylesheets, e.g. on a background thread during startup.
+	 */
+	public static void preload() {
+		getControls();
+	}
+
+	/**
+	 * Returns the stylesheet of the controls.
+	 * 
+	 * @return the stylesheet URL, or <code>null</code> if it is not on the class path
+	 */
+	public static String getControls() {
+		String result = controls;
+		if (result == null) {
+			final URL url = Stylesheets.class.getClassLoader().getResource(CONTROLS_PATH);
+			if (url == null) {
+				LOG.warning("Stylesheet not found: " + CONTROLS_PATH);
+				result = "";
+			} else {
+				result = url.toExternalForm();
+			}
+			controls = result;
+		}
+		return result.isEmpty() ? null : result;
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import be.healthconnect.testeidutil.concurrent.CallResponse;
+
+/**
+ * Latency histograms per phase of the card path, and command counters per instruction and per card reader. Recording does not allocate
+ * and does not block; readers of the metrics, such as the GUI, only see pre-aggregated values.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class CardMetrics {
+
+	/**
+	 * Phase of the card path.
+	 */
+	public enum Phase {
+
+		ENUMERATE("Reader enumeration"),
+		CONNECT("Connect"),
+		BEGIN_EXCLUSIVE("Begin exclusive"),
+		TRANSMIT("Transmit"),
+		DISCONNECT("Disconnect (reset)");
+
+		private final String label;
+
+		private Phase(final String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Returns the phase label, as shown in the GUI.
+		 * 
+		 * @return the phase label
+		 */
+		public String getLabel() {
+			return label;
+		}
+
+	}
+
+	private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+	private final AtomicLongArray instructions = new AtomicLongArray(256);
+	private final AtomicLongArray statusWords = new AtomicLongArray(0x10000);
+	private final ConcurrentMap<String, ReaderMetrics> readers = new ConcurrentHashMap<>();
+	private final List<CallResponse<ReaderMetrics>> readerListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Creates a new {@link CardMetrics}.
+	 */
+	public CardMetrics() {
+		super();
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Records the latency of the given phase.
+	 * 
+	 * @param phase
+	 *            the phase
+	 * @param nanos
+	 *            the latency in nanoseconds
+	 */
+	public void record(final Phase phase, final long nanos) {
+		phases[phase.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Counts a command with the given instruction.
+	 * 
+	 * @param ins
+	 *            the instruction byte
+	 */
+	public void countInstruction(final int ins) {
+		instructions.incrementAndGet(ins & 0xFF);
+	}
+
+	/**
+	 * Counts a response with the given status word.
+	 * 
+	 * @param sw
+	 *            the status word
+	 */
+	public void countStatusWord(final int sw) {
+		statusWords.incrementAndGet(sw & 0xFFFF);
+	}
+
+	/**
+	 * Returns the number of responses with the given status word.
+	 * 
+	 * @param sw
+	 *            the status word
+	 * @return the response count
+	 */
+	public long getStatusWordCount(final int sw) {
+		return statusWords.get(sw & 0xFFFF);
+	}
+
+	/**
+	 * Adds a listener that is notified, on the thread that first uses the card reader, whenever metrics for a new card reader are
+	 * created.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addReaderListener(final CallResponse<ReaderMetrics> listener) {
+		readerListeners.add(listener);
+	}
+
+	/**
+	 * Removes the given listener.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeReaderListener(final CallResponse<ReaderMetrics> listener) {
+		readerListeners.remove(listener);
+	}
+
+	/**
+	 * Returns the latency histogram of the given phase.
+	 * 
+	 * @param phase
+	 *            the phase
+	 * @return the latency histogram
+	 */
+	public LatencyHistogram getHistogram(final Phase phase) {
+		return phases[phase.ordinal()];
+	}
+
+	/**
+	 * Returns the number of commands with the given instruction.
+	 * 
+	 * @param ins
+	 *            the instruction byte
+	 * @return the command count
+	 */
+	public long getInstructionCount(final int ins) {
+		return instructions.get(ins & 0xFF);
+	}
+
+	/**
+	 * Returns the metrics of the given card reader, creating them on first use. Callers on the hot path should keep the result.
+	 * 
+	 * @param terminalName
+	 *            the card reader name
+	 * @return the card reader metrics
+	 */
+	public ReaderMetrics getReader(final String terminalName) {
+		final ReaderMetrics reader = readers.get(terminalName);
+		if (reader != null) {
+			return reader;
+		}
+		final ReaderMetrics newReader = new ReaderMetrics(terminalName);
+		final ReaderMetrics existingReader = readers.putIfAbsent(terminalName, newReader);
+		if (existingReader != null) {
+			return existingReader;
+		}
+		for (final CallResponse<ReaderMetrics> listener : readerListeners) {
+			listener.response(newReader);
+		}
+		return newReader;
+	}
+
+	/**
+	 * Returns the metrics of all card readers that have been used.
+	 * 
+	 * @return the card reader metrics, in no particular order
+	 */
+	public List<ReaderMetrics> getReaders() {
+		return new ArrayList<>(readers.values());
+	}
+
+}
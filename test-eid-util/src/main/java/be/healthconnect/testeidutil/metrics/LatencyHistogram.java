@@ -0,0 +1,130 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: every power of two is split into {@value #SUB_BUCKETS} buckets, so that
+ * percentiles are accurate to within 12.5%. Recording does not allocate and does not block, and can be done from any thread.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** Buckets for all non-negative long values. */
+	private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Records the given latency.
+	 * 
+	 * @param nanos
+	 *            the latency in nanoseconds; negative values count as 0
+	 */
+	public void record(final long nanos) {
+		final long value = Math.max(nanos, 0L);
+		buckets.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		totalNanos.addAndGet(value);
+		long max = maxNanos.get();
+		while (value > max && !maxNanos.compareAndSet(max, value)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * Returns the number of recorded latencies.
+	 * 
+	 * @return the count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the sum of the recorded latencies.
+	 * 
+	 * @return the sum in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/**
+	 * Returns the largest recorded latency.
+	 * 
+	 * @return the maximum in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Returns the given percentile. Concurrent recording may make the result slightly stale, never invalid.
+	 * 
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the upper bound of the bucket holding the percentile in nanoseconds, at most {@link #getMaxNanos()}; 0 if nothing was
+	 *         recorded
+	 */
+	public long getPercentileNanos(final double percentile) {
+		long total = 0L;
+		final long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0L) {
+			return 0L;
+		}
+		final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+		long cumulative = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			cumulative += snapshot[i];
+			if (cumulative >= rank) {
+				return Math.min(upperBound(i), getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+	/**
+	 * Clears all recorded latencies. Latencies recorded concurrently may be partly kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0L);
+		}
+		count.set(0L);
+		totalNanos.set(0L);
+		maxNanos.set(0L);
+	}
+
+	static int bucket(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long upperBound(final int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1L;
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command counters and transmit latency of a single card reader.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class ReaderMetrics {
+
+	private final String terminalName;
+	private final AtomicLong commands = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong statusWordErrors = new AtomicLong();
+	private final AtomicLong connects = new AtomicLong();
+	private final AtomicLong resets = new AtomicLong();
+	private final LatencyHistogram transmit = new LatencyHistogram();
+
+	ReaderMetrics(final String terminalName) {
+		super();
+		this.terminalName = terminalName;
+	}
+
+	/**
+	 * Records a command that reached the card.
+	 * 
+	 * @param nanos
+	 *            the transmit latency in nanoseconds
+	 */
+	public void recordCommand(final long nanos) {
+		commands.incrementAndGet();
+		transmit.record(nanos);
+	}
+
+	/**
+	 * Counts a command that failed with an exception.
+	 */
+	public void countError() {
+		errors.incrementAndGet();
+	}
+
+	/**
+	 * Counts a response with the given status word.
+	 * 
+	 * @param sw
+	 *            the status word
+	 */
+	public void countStatusWord(final int sw) {
+		if (sw != 0x9000) {
+			statusWordErrors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Counts a card connect.
+	 */
+	public void countConnect() {
+		connects.incrementAndGet();
+	}
+
+	/**
+	 * Counts a card reset.
+	 */
+	public void countReset() {
+		resets.incrementAndGet();
+	}
+
+	/**
+	 * Returns the card reader name.
+	 * 
+	 * @return the card reader name
+	 */
+	public String getTerminalName() {
+		return terminalName;
+	}
+
+	/**
+	 * Returns the number of commands that reached the card.
+	 * 
+	 * @return the command count
+	 */
+	public long getCommandCount() {
+		return commands.get();
+	}
+
+	/**
+	 * Returns the number of commands that failed with an exception.
+	 * 
+	 * @return the error count
+	 */
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	/**
+	 * Returns the number of responses with a status word other than <code>9000</code>.
+	 * 
+	 * @return the status word error count
+	 */
+	public long getStatusWordErrorCount() {
+		return statusWordErrors.get();
+	}
+
+	/**
+	 * Returns the number of card connects, including reconnects after a card removal or reset.
+	 * 
+	 * @return the connect count
+	 */
+	public long getConnectCount() {
+		return connects.get();
+	}
+
+	/**
+	 * Returns the number of card resets.
+	 * 
+	 * @return the reset count
+	 */
+	public long getResetCount() {
+		return resets.get();
+	}
+
+	/**
+	 * Returns the transmit latency histogram.
+	 * 
+	 * @return the latency histogram
+	 */
+	public LatencyHistogram getTransmitHistogram() {
+		return transmit;
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.monitoring;
+
+import java.util.Map;
+
+/**
+ * Management interface of the card engine: the totals over all card readers, registered as
+ * <code>be.healthconnect.testeidutil:type=CardEngine</code>.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public interface CardEngineMXBean {
+
+	/**
+	 * Returns the number of commands sent to all cards.
+	 * 
+	 * @return the command count
+	 */
+	long getCommandCount();
+
+	/**
+	 * Returns the number of commands that could not be sent to the card.
+	 * 
+	 * @return the transmit error count
+	 */
+	long getErrorCount();
+
+	/**
+	 * Returns the number of responses with a status word other than <code>9000</code>.
+	 * 
+	 * @return the status word error count
+	 */
+	long getStatusWordErrorCount();
+
+	/**
+	 * Returns the number of card connects, including reconnects.
+	 * 
+	 * @return the connect count
+	 */
+	long getConnectCount();
+
+	/**
+	 * Returns the number of card resets.
+	 * 
+	 * @return the reset count
+	 */
+	long getResetCount();
+
+	/**
+	 * Returns the number of card tasks queued or running.
+	 * 
+	 * @return the queue depth
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Returns the number of APDU buffers taken from the pool.
+	 * 
+	 * @return the buffer pool hits
+	 */
+	long getBufferPoolHits();
+
+	/**
+	 * Returns the number of APDU buffers allocated because the pool was empty.
+	 * 
+	 * @return the buffer pool misses
+	 */
+	long getBufferPoolMisses();
+
+	/**
+	 * Returns the response counts per status word that occurred at least once.
+	 * 
+	 * @return the response counts, keyed by status word in hex
+	 */
+	Map<String, Long> getStatusWordCounts();
+
+	/**
+	 * Returns the command counts per instruction that occurred at least once.
+	 * 
+	 * @return the command counts, keyed by instruction byte in hex
+	 */
+	Map<String, Long> getInstructionCounts();
+
+	/**
+	 * Returns the median latency per phase of the card path.
+	 * 
+	 * @return the latencies in milliseconds, keyed by phase
+	 */
+	Map<String, Double> getPhaseP50Millis();
+
+	/**
+	 * Returns the 99th percentile latency per phase of the card path.
+	 * 
+	 * @return the latencies in milliseconds, keyed by phase
+	 */
+	Map<String, Double> getPhaseP99Millis();
+
+	/**
+	 * Returns the maximum latency per phase of the card path.
+	 * 
+	 * @return the latencies in milliseconds, keyed by phase
+	 */
+	Map<String, Double> getPhaseMaxMillis();
+
+}
@@ -0,0 +1,287 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.monitoring;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import be.healthconnect.testeidutil.card.CardSessionManager;
+import be.healthconnect.testeidutil.concurrent.CallResponse;
+import be.healthconnect.testeidutil.metrics.CardMetrics;
+import be.healthconnect.testeidutil.metrics.CardMetrics.Phase;
+import be.healthconnect.testeidutil.metrics.LatencyHistogram;
+import be.healthconnect.testeidutil.metrics.ReaderMetrics;
+
+/**
+ * Registers a {@link CardEngineMXBean} for the given {@link CardSessionManager}, and a {@link ReaderMXBean} for every card reader it
+ * talks to. The MBeans only read the pre-aggregated {@link CardMetrics}, so a JMX client never touches card I/O or the JavaFX
+ * Application Thread.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class JmxExporter implements AutoCloseable {
+
+	/** The JMX domain of all MBeans. */
+	public static final String DOMAIN = "be.healthconnect.testeidutil";
+
+	private static final Logger LOG = Logger.getLogger(JmxExporter.class.getName());
+
+	private final CardSessionManager manager;
+	private final MBeanServer server;
+	private final List<ObjectName> names = new CopyOnWriteArrayList<>();
+	private final CallResponse<ReaderMetrics> readerListener = this::register;
+
+	/**
+	 * Creates a new {@link JmxExporter} on the platform MBean server.
+	 * 
+	 * @param manager
+	 *            the card session manager to expose
+	 * @throws JMException
+	 *             if the card engine MBean could not be registered
+	 */
+	public JmxExporter(final CardSessionManager manager) throws JMException {
+		this(manager, ManagementFactory.getPlatformMBeanServer());
+	}
+
+	/**
+	 * Creates a new {@link JmxExporter}.
+	 * 
+	 * @param manager
+	 *            the card session manager to expose
+	 * @param server
+	 *            the MBean server to register with
+	 * @throws JMException
+	 *             if the card engine MBean could not be registered
+	 */
+	public JmxExporter(final CardSessionManager manager, final MBeanServer server) throws JMException {
+		super();
+		this.manager = manager;
+		this.server = server;
+		final ObjectName engineName = new ObjectName(DOMAIN, "type", "CardEngine");
+		server.registerMBean(new CardEngine(), engineName);
+		names.add(engineName);
+		final CardMetrics metrics = manager.getMetrics();
+		metrics.addReaderListener(readerListener);
+		for (final ReaderMetrics reader : metrics.getReaders()) {
+			register(reader);
+		}
+	}
+
+	/**
+	 * Unregisters all MBeans.
+	 */
+	@Override
+	public void close() {
+		manager.getMetrics().removeReaderListener(readerListener);
+		for (final ObjectName name : names) {
+			try {
+				server.unregisterMBean(name);
+			} catch (final JMException e) {
+				LOG.log(Level.FINE, "Could not unregister " + name, e);
+			}
+		}
+		names.clear();
+	}
+
+	/**
+	 * Registers a {@link ReaderMXBean} for the given card reader, unless it is registered already.
+	 * 
+	 * @param reader
+	 *            the card reader metrics
+	 */
+	protected void register(final ReaderMetrics reader) {
+		try {
+			final ObjectName name = new ObjectName(DOMAIN + ":type=Reader,name=" + ObjectName.quote(reader.getTerminalName()));
+			synchronized (names) {
+				if (!server.isRegistered(name)) {
+					server.registerMBean(new Reader(reader), name);
+					names.add(name);
+				}
+			}
+		} catch (final JMException e) {
+			LOG.log(Level.WARNING, "Could not register MBean for " + reader.getTerminalName(), e);
+		}
+	}
+
+	static double millis(final long nanos) {
+		return nanos / 1000000.0;
+	}
+
+	private long sum(final ToLongFunction<ReaderMetrics> counter) {
+		long sum = 0L;
+		for (final ReaderMetrics reader : manager.getMetrics().getReaders()) {
+			sum += counter.applyAsLong(reader);
+		}
+		return sum;
+	}
+
+	/**
+	 * {@link CardEngineMXBean} implementation.
+	 */
+	private final class CardEngine implements CardEngineMXBean {
+
+		@Override
+		public long getCommandCount() {
+			return manager.getMetrics().getHistogram(Phase.TRANSMIT).getCount();
+		}
+
+		@Override
+		public long getErrorCount() {
+			return sum(ReaderMetrics::getErrorCount);
+		}
+
+		@Override
+		public long getStatusWordErrorCount() {
+			return sum(ReaderMetrics::getStatusWordErrorCount);
+		}
+
+		@Override
+		public long getConnectCount() {
+			return sum(ReaderMetrics::getConnectCount);
+		}
+
+		@Override
+		public long getResetCount() {
+			return sum(ReaderMetrics::getResetCount);
+		}
+
+		@Override
+		public int getQueueDepth() {
+			return manager.getQueueDepth();
+		}
+
+		@Override
+		public long getBufferPoolHits() {
+			return manager.getBufferPool().getHits();
+		}
+
+		@Override
+		public long getBufferPoolMisses() {
+			return manager.getBufferPool().getMisses();
+		}
+
+		@Override
+		public Map<String, Long> getStatusWordCounts() {
+			final Map<String, Long> counts = new TreeMap<>();
+			for (int sw = 0; sw <= 0xFFFF; sw++) {
+				final long count = manager.getMetrics().getStatusWordCount(sw);
+				if (count > 0) {
+					counts.put(String.format("%04X", sw), count);
+				}
+			}
+			return counts;
+		}
+
+		@Override
+		public Map<String, Long> getInstructionCounts() {
+			final Map<String, Long> counts = new TreeMap<>();
+			for (int ins = 0; ins <= 0xFF; ins++) {
+				final long count = manager.getMetrics().getInstructionCount(ins);
+				if (count > 0) {
+					counts.put(String.format("%02X", ins), count);
+				}
+			}
+			return counts;
+		}
+
+		@Override
+		public Map<String, Double> getPhaseP50Millis() {
+			return phaseMillis(histogram -> histogram.getPercentileNanos(50.0));
+		}
+
+		@Override
+		public Map<String, Double> getPhaseP99Millis() {
+			return phaseMillis(histogram -> histogram.getPercentileNanos(99.0));
+		}
+
+		@Override
+		public Map<String, Double> getPhaseMaxMillis() {
+			return phaseMillis(LatencyHistogram::getMaxNanos);
+		}
+
+		private Map<String, Double> phaseMillis(final ToLongFunction<LatencyHistogram> nanos) {
+			final Map<String, Double> latencies = new LinkedHashMap<>();
+			for (final Phase phase : Phase.values()) {
+				latencies.put(phase.name(), millis(nanos.applyAsLong(manager.getMetrics().getHistogram(phase))));
+			}
+			return latencies;
+		}
+
+	}
+
+	/**
+	 * {@link ReaderMXBean} implementation.
+	 */
+	private final class Reader implements ReaderMXBean {
+
+		private final ReaderMetrics reader;
+
+		Reader(final ReaderMetrics reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public String getTerminalName() {
+			return reader.getTerminalName();
+		}
+
+		@Override
+		public long getCommandCount() {
+			return reader.getCommandCount();
+		}
+
+		@Override
+		public long getErrorCount() {
+			return reader.getErrorCount();
+		}
+
+		@Override
+		public long getStatusWordErrorCount() {
+			return reader.getStatusWordErrorCount();
+		}
+
+		@Override
+		public long getConnectCount() {
+			return reader.getConnectCount();
+		}
+
+		@Override
+		public long getResetCount() {
+			return reader.getResetCount();
+		}
+
+		@Override
+		public int getQueueDepth() {
+			return manager.getQueueDepth(reader.getTerminalName());
+		}
+
+		@Override
+		public double getTransmitP50Millis() {
+			return millis(reader.getTransmitHistogram().getPercentileNanos(50.0));
+		}
+
+		@Override
+		public double getTransmitP99Millis() {
+			return millis(reader.getTransmitHistogram().getPercentileNanos(99.0));
+		}
+
+		@Override
+		public double getTransmitMaxMillis() {
+			return millis(reader.getTransmitHistogram().getMaxNanos());
+		}
+
+	}
+
+}
@@ -0,0 +1,228 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.monitoring;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import be.healthconnect.testeidutil.card.CardSessionManager;
+import be.healthconnect.testeidutil.metrics.CardMetrics;
+import be.healthconnect.testeidutil.metrics.CardMetrics.Phase;
+import be.healthconnect.testeidutil.metrics.LatencyHistogram;
+import be.healthconnect.testeidutil.metrics.ReaderMetrics;
+
+/**
+ * Serves the {@link CardMetrics} of a {@link CardSessionManager} in the Prometheus text exposition format on
+ * <code>http://127.0.0.1:PORT/metrics</code>. The endpoint only binds to the loopback address, and every scrape is answered from the
+ * pre-aggregated counters on a single daemon thread of its own.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+@SuppressWarnings("restriction")
+public class PrometheusEndpoint implements AutoCloseable {
+
+	/** The path that serves the metrics. */
+	public static final String PATH = "/metrics";
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+	private final CardSessionManager manager;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * Creates and starts a new {@link PrometheusEndpoint}.
+	 * 
+	 * @param manager
+	 *            the card session manager to expose
+	 * @param port
+	 *            the TCP port to listen on, or 0 for any free port
+	 * @throws IOException
+	 *             if the port could not be bound
+	 */
+	public PrometheusEndpoint(final CardSessionManager manager, final int port) throws IOException {
+		super();
+		this.manager = manager;
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "prometheus-endpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.createContext(PATH, this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Returns the TCP port the endpoint listens on.
+	 * 
+	 * @return the port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops the endpoint.
+	 */
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Writes all metrics in the Prometheus text exposition format.
+	 * 
+	 * @param out
+	 *            the builder to append to
+	 */
+	public void write(final StringBuilder out) {
+		final CardMetrics metrics = manager.getMetrics();
+		final List<ReaderMetrics> readers = metrics.getReaders();
+		readers.sort(Comparator.comparing(ReaderMetrics::getTerminalName));
+
+		header(out, "testeidutil_apdu_total", "counter", "Commands sent to the card.");
+		for (final ReaderMetrics reader : readers) {
+			sample(out, "testeidutil_apdu_total", "reader", reader.getTerminalName(), reader.getCommandCount());
+		}
+		header(out, "testeidutil_apdu_errors_total", "counter", "Commands that could not be sent to the card.");
+		for (final ReaderMetrics reader : readers) {
+			sample(out, "testeidutil_apdu_errors_total", "reader", reader.getTerminalName(), reader.getErrorCount());
+		}
+		header(out, "testeidutil_status_word_errors_total", "counter", "Responses with a status word other than 9000.");
+		for (final ReaderMetrics reader : readers) {
+			sample(out, "testeidutil_status_word_errors_total", "reader", reader.getTerminalName(), reader.getStatusWordErrorCount());
+		}
+		header(out, "testeidutil_connects_total", "counter", "Card connects, including reconnects.");
+		for (final ReaderMetrics reader : readers) {
+			sample(out, "testeidutil_connects_total", "reader", reader.getTerminalName(), reader.getConnectCount());
+		}
+		header(out, "testeidutil_resets_total", "counter", "Card resets.");
+		for (final ReaderMetrics reader : readers) {
+			sample(out, "testeidutil_resets_total", "reader", reader.getTerminalName(), reader.getResetCount());
+		}
+		header(out, "testeidutil_queue_depth", "gauge", "Card tasks queued or running.");
+		for (final ReaderMetrics reader : readers) {
+			sample(out, "testeidutil_queue_depth", "reader", reader.getTerminalName(), manager.getQueueDepth(reader.getTerminalName()));
+		}
+		header(out, "testeidutil_transmit_latency_seconds", "summary", "Transmit latency per card reader.");
+		for (final ReaderMetrics reader : readers) {
+			summary(out, "testeidutil_transmit_latency_seconds", "reader", reader.getTerminalName(), reader.getTransmitHistogram());
+		}
+
+		header(out, "testeidutil_status_word_total", "counter", "Responses per status word.");
+		for (int sw = 0; sw <= 0xFFFF; sw++) {
+			final long count = metrics.getStatusWordCount(sw);
+			if (count > 0) {
+				sample(out, "testeidutil_status_word_total", "sw", String.format("%04X", sw), count);
+			}
+		}
+		header(out, "testeidutil_apdu_by_ins_total", "counter", "Commands per instruction byte.");
+		for (int ins = 0; ins <= 0xFF; ins++) {
+			final long count = metrics.getInstructionCount(ins);
+			if (count > 0) {
+				sample(out, "testeidutil_apdu_by_ins_total", "ins", String.format("%02X", ins), count);
+			}
+		}
+		header(out, "testeidutil_phase_latency_seconds", "summary", "Latency per phase of the card path.");
+		for (final Phase phase : Phase.values()) {
+			summary(out, "testeidutil_phase_latency_seconds", "phase", phase.name().toLowerCase(), metrics.getHistogram(phase));
+		}
+
+		header(out, "testeidutil_buffer_pool_hits_total", "counter", "APDU buffers taken from the pool.");
+		sample(out, "testeidutil_buffer_pool_hits_total", null, null, manager.getBufferPool().getHits());
+		header(out, "testeidutil_buffer_pool_misses_total", "counter", "APDU buffers allocated because the pool was empty.");
+		sample(out, "testeidutil_buffer_pool_misses_total", null, null, manager.getBufferPool().getMisses());
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			final StringBuilder text = new StringBuilder(4096);
+			write(text);
+			final byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (final OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void header(final StringBuilder out, final String name, final String type, final String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void summary(final StringBuilder out, final String name, final String label, final String value,
+			final LatencyHistogram histogram) {
+		for (final double quantile : QUANTILES) {
+			out.append(name).append('{').append(label).append("=\"");
+			escape(out, value);
+			out.append("\",quantile=\"").append(quantile).append("\"} ");
+			out.append(histogram.getPercentileNanos(quantile * 100.0) / 1e9).append('\n');
+		}
+		sample(out, name + "_sum", label, value, histogram.getTotalNanos() / 1e9);
+		sample(out, name + "_count", label, value, histogram.getCount());
+	}
+
+	private static void sample(final StringBuilder out, final String name, final String label, final String value, final long sample) {
+		labels(out, name, label, value);
+		out.append(sample).append('\n');
+	}
+
+	private static void sample(final StringBuilder out, final String name, final String label, final String value, final double sample) {
+		labels(out, name, label, value);
+		out.append(sample).append('\n');
+	}
+
+	private static void labels(final StringBuilder out, final String name, final String label, final String value) {
+		out.append(name);
+		if (label != null) {
+			out.append('{').append(label).append("=\"");
+			escape(out, value);
+			out.append("\"}");
+		}
+		out.append(' ');
+	}
+
+	/**
+	 * Escapes a label value: backslash, double quote and line feed.
+	 */
+	private static void escape(final StringBuilder out, final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				out.append('\\').append(c);
+			} else if (c == '\n') {
+				out.append("\\n");
+			} else {
+				out.append(c);
+			}
+		}
+	}
+
+}
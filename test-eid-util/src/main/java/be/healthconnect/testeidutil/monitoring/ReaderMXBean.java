@@ -0,0 +1,83 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.monitoring;
+
+/**
+ * Management interface of a single card reader, registered as <code>be.healthconnect.testeidutil:type=Reader,name=...</code>.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public interface ReaderMXBean {
+
+	/**
+	 * Returns the card reader name.
+	 * 
+	 * @return the card reader name
+	 */
+	String getTerminalName();
+
+	/**
+	 * Returns the number of commands sent to the card in this card reader.
+	 * 
+	 * @return the command count
+	 */
+	long getCommandCount();
+
+	/**
+	 * Returns the number of commands that could not be sent to the card.
+	 * 
+	 * @return the transmit error count
+	 */
+	long getErrorCount();
+
+	/**
+	 * Returns the number of responses with a status word other than <code>9000</code>.
+	 * 
+	 * @return the status word error count
+	 */
+	long getStatusWordErrorCount();
+
+	/**
+	 * Returns the number of card connects, including reconnects.
+	 * 
+	 * @return the connect count
+	 */
+	long getConnectCount();
+
+	/**
+	 * Returns the number of card resets.
+	 * 
+	 * @return the reset count
+	 */
+	long getResetCount();
+
+	/**
+	 * Returns the number of card tasks queued or running for this card reader.
+	 * 
+	 * @return the queue depth
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Returns the median transmit latency.
+	 * 
+	 * @return the latency in milliseconds
+	 */
+	double getTransmitP50Millis();
+
+	/**
+	 * Returns the 99th percentile transmit latency.
+	 * 
+	 * @return the latency in milliseconds
+	 */
+	double getTransmitP99Millis();
+
+	/**
+	 * Returns the maximum transmit latency.
+	 * 
+	 * @return the latency in milliseconds
+	 */
+	double getTransmitMaxMillis();
+
+}
@@ -0,0 +1,203 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes a trace file written by {@link TraceRecorder}. When the ring has wrapped, decoding starts at the oldest record that is still
+ * complete.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class TraceDecoder {
+
+	private final ByteBuffer ring;
+	private final int capacity;
+	private final long bytesWritten;
+	private final List<TraceRecord> records = new ArrayList<>();
+	private final Map<Integer, String> readers = new HashMap<>();
+
+	/**
+	 * Reads and decodes the given trace file.
+	 * 
+	 * @param path
+	 *            the trace file
+	 * @throws IOException
+	 *             if the file could not be read, or is not a trace file
+	 */
+	public TraceDecoder(final Path path) throws IOException {
+		super();
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < TraceRecorder.HEADER_LENGTH) {
+				throw new IOException("Not a trace file: " + path);
+			}
+			final ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+			if (file.getLong(0) != TraceRecorder.FILE_MAGIC) {
+				throw new IOException("Not a trace file: " + path);
+			}
+			if (file.getInt(8) != TraceRecorder.VERSION) {
+				throw new IOException("Unsupported trace file version: " + file.getInt(8));
+			}
+			this.capacity = file.getInt(TraceRecorder.CAPACITY_OFFSET);
+			this.bytesWritten = file.getLong(TraceRecorder.POSITION_OFFSET);
+			if (capacity <= 0 || channel.size() < (long) TraceRecorder.HEADER_LENGTH + capacity || bytesWritten < 0) {
+				throw new IOException("Corrupt trace file header: " + path);
+			}
+			file.position(TraceRecorder.HEADER_LENGTH);
+			this.ring = file.slice();
+			decode();
+		}
+	}
+
+	/**
+	 * Returns the decoded records, oldest first.
+	 * 
+	 * @return the records
+	 */
+	public List<TraceRecord> getRecords() {
+		return Collections.unmodifiableList(records);
+	}
+
+	/**
+	 * Returns whether older records were overwritten because the ring was full.
+	 * 
+	 * @return <code>true</code> if the ring has wrapped
+	 */
+	public boolean isWrapped() {
+		return bytesWritten > capacity;
+	}
+
+	/**
+	 * Writes the decoded records as text, one line per record.
+	 * 
+	 * @param out
+	 *            the destination
+	 * @throws IOException
+	 *             if the text could not be written
+	 */
+	public void dump(final Appendable out) throws IOException {
+		if (isWrapped()) {
+			out.append("# ring wrapped, ").append(Long.toString(bytesWritten - capacity)).append(" older bytes overwritten\n");
+		}
+		for (final TraceRecord record : records) {
+			out.append(record.toString()).append('\n');
+		}
+	}
+
+	private void decode() {
+		long position = isWrapped() ? findOldestRecord(bytesWritten - capacity) : 0L;
+		while (position >= 0 && position < bytesWritten) {
+			final int length = recordLength(position);
+			if (length < 0) {
+				break;
+			}
+			decodeRecord(position);
+			position += length;
+		}
+	}
+
+	/**
+	 * Finds the first record at or after the given position from which the records chain up to the end of the trace.
+	 * 
+	 * @return the position of the oldest record, or -1 if none
+	 */
+	private long findOldestRecord(final long start) {
+		for (long candidate = start; candidate <= bytesWritten - TraceRecorder.RECORD_HEADER_LENGTH; candidate++) {
+			long position = candidate;
+			int length;
+			while ((length = recordLength(position)) > 0 && position + length < bytesWritten) {
+				position += length;
+			}
+			if (length > 0 && position + length == bytesWritten) {
+				return candidate;
+			}
+		}
+		return -1L;
+	}
+
+	/**
+	 * Returns the length of the record at the given position.
+	 * 
+	 * @return the record length, or -1 if there is no valid record at that position
+	 */
+	private int recordLength(final long position) {
+		if (position + TraceRecorder.RECORD_HEADER_LENGTH > bytesWritten || getInt(position) != TraceRecorder.RECORD_MAGIC) {
+			return -1;
+		}
+		final int length = getInt(position + 4);
+		final byte type = get(position + 8);
+		if (length < TraceRecorder.RECORD_HEADER_LENGTH || length > capacity || position + length > bytesWritten
+				|| type < TraceRecorder.TYPE_READER || type > TraceRecorder.TYPE_APDU) {
+			return -1;
+		}
+		return length;
+	}
+
+	private void decodeRecord(final long position) {
+		final byte type = get(position + 8);
+		final long timestamp = getLong(position + 9);
+		final int reader = getShort(position + 17);
+		final long cardId = getLong(position + 19);
+		long p = position + TraceRecorder.RECORD_HEADER_LENGTH;
+		if (type == TraceRecorder.TYPE_READER) {
+			readers.put(reader, new String(getBytes(p + 2, getShort(p)), StandardCharsets.UTF_8));
+		} else if (type == TraceRecorder.TYPE_CONNECT) {
+			final int nameLength = getShort(p);
+			final String name = new String(getBytes(p + 2, nameLength), StandardCharsets.UTF_8);
+			readers.put(reader, name);
+			p += 2 + nameLength;
+			final byte[] atr = getBytes(p + 2, getShort(p));
+			records.add(new TraceRecord(TraceRecord.Type.CONNECT, timestamp, name, cardId, atr, 0L, null, null));
+		} else {
+			final long duration = getLong(p);
+			p += 8;
+			final int commandLength = getInt(p);
+			final byte[] command = getBytes(p + 4, commandLength);
+			p += 4 + commandLength;
+			final byte[] response = getBytes(p + 4, getInt(p));
+			records.add(new TraceRecord(TraceRecord.Type.APDU, timestamp, readerName(reader), cardId, null, duration, command, response));
+		}
+	}
+
+	private String readerName(final int reader) {
+		final String name = readers.get(reader);
+		return name != null ? name : "reader #" + reader;
+	}
+
+	private byte get(final long position) {
+		return ring.get((int) (position % capacity));
+	}
+
+	private int getShort(final long position) {
+		return (get(position) & 0xFF) << 8 | get(position + 1) & 0xFF;
+	}
+
+	private int getInt(final long position) {
+		return getShort(position) << 16 | getShort(position + 2);
+	}
+
+	private long getLong(final long position) {
+		return (long) getInt(position) << 32 | getInt(position + 4) & 0xFFFFFFFFL;
+	}
+
+	private byte[] getBytes(final long position, final int length) {
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = get(position + i);
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.trace;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * A decoded record of a trace file.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class TraceRecord {
+
+	/**
+	 * Record type.
+	 */
+	public enum Type {
+
+		/** A card was connected. */
+		CONNECT,
+		/** A command was exchanged with the card. */
+		APDU
+
+	}
+
+	private final Type type;
+	private final long timestampMicros;
+	private final String terminalName;
+	private final long cardId;
+	private final byte[] atr;
+	private final long durationNanos;
+	private final byte[] command;
+	private final byte[] response;
+
+	TraceRecord(final Type type, final long timestampMicros, final String terminalName, final long cardId, final byte[] atr,
+			final long durationNanos, final byte[] command, final byte[] response) {
+		this.type = type;
+		this.timestampMicros = timestampMicros;
+		this.terminalName = terminalName;
+		this.cardId = cardId;
+		this.atr = atr;
+		this.durationNanos = durationNanos;
+		this.command = command;
+		this.response = response;
+	}
+
+	/**
+	 * Returns the record type.
+	 * 
+	 * @return the record type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns when the card was connected, or when the command was sent.
+	 * 
+	 * @return the timestamp in microseconds since the epoch
+	 */
+	public long getTimestampMicros() {
+		return timestampMicros;
+	}
+
+	/**
+	 * Returns the card reader name.
+	 * 
+	 * @return the card reader name, or <code>reader #N</code> if its name was overwritten in the ring
+	 */
+	public String getTerminalName() {
+		return terminalName;
+	}
+
+	/**
+	 * Returns the card connection identifier.
+	 * 
+	 * @return the card connection identifier
+	 */
+	public long getCardId() {
+		return cardId;
+	}
+
+	/**
+	 * Returns the answer to reset of a {@link Type#CONNECT} record.
+	 * 
+	 * @return the ATR, or <code>null</code>
+	 */
+	public byte[] getAtr() {
+		return atr;
+	}
+
+	/**
+	 * Returns the time the exchange of an {@link Type#APDU} record took.
+	 * 
+	 * @return the duration in nanoseconds
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * Returns the command APDU of an {@link Type#APDU} record.
+	 * 
+	 * @return the command APDU, or <code>null</code>
+	 */
+	public byte[] getCommand() {
+		return command;
+	}
+
+	/**
+	 * Returns the response APDU of an {@link Type#APDU} record.
+	 * 
+	 * @return the response APDU, or <code>null</code>
+	 */
+	public byte[] getResponse() {
+		return response;
+	}
+
+	/**
+	 * Returns the status word of an {@link Type#APDU} record.
+	 * 
+	 * @return the status word, or -1 if the response is too short
+	 */
+	public int getSW() {
+		if (response == null || response.length < 2) {
+			return -1;
+		}
+		return (response[response.length - 2] & 0xFF) << 8 | response[response.length - 1] & 0xFF;
+	}
+
+	/**
+	 * Formats this record as a single line of text.
+	 */
+	@Override
+	public String toString() {
+		final Instant instant = Instant.ofEpochSecond(timestampMicros / 1000000L, timestampMicros % 1000000L * 1000L);
+		final StringBuilder text = new StringBuilder();
+		text.append(DateTimeFormatter.ISO_INSTANT.format(instant)).append('\t').append(terminalName).append("\tcard ").append(cardId)
+				.append('\t');
+		if (type == Type.CONNECT) {
+			text.append("CONNECT\tATR ").append(HexCodec.toHex(atr).toUpperCase());
+		} else {
+			text.append(String.format("%.3f ms", durationNanos / 1000000.0)).append('\t').append(HexCodec.toHex(command).toUpperCase())
+					.append(" -> ").append(HexCodec.toHex(response).toUpperCase());
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,260 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.healthconnect.testeidutil.card.ApduListener;
+
+/**
+ * Records all card traffic of a {@link be.healthconnect.testeidutil.card.CardSessionManager} into a compact binary trace file. The file is
+ * a memory-mapped ring: once it is full, the oldest records are overwritten. Writers claim their space with a single atomic add and copy
+ * the APDUs straight into the mapping, so recording never blocks and never allocates on the card worker threads.
+ * <p>
+ * File layout, big-endian: a {@value #HEADER_LENGTH} byte header (magic <code>EIDTRACE</code>, version, ring capacity, bytes written)
+ * followed by the ring. Each record starts with {@link #RECORD_MAGIC}, its total length, its type, a timestamp in microseconds since the
+ * epoch, the card reader number and the card connection identifier, followed by the type specific fields. Use {@link TraceDecoder} to
+ * read it back.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class TraceRecorder implements ApduListener, AutoCloseable {
+
+	/** Default ring capacity: 16 MiB. */
+	public static final int DEFAULT_CAPACITY = 16 << 20;
+
+	static final long FILE_MAGIC = 0x4549445452414345L; // EIDTRACE
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 64;
+	static final int CAPACITY_OFFSET = 12;
+	static final int POSITION_OFFSET = 16;
+
+	static final int RECORD_MAGIC = 0x54524331; // TRC1
+	/** Magic, length, type, timestamp, reader number and card identifier. */
+	static final int RECORD_HEADER_LENGTH = 4 + 4 + 1 + 8 + 2 + 8;
+
+	static final byte TYPE_READER = 1;
+	static final byte TYPE_CONNECT = 2;
+	static final byte TYPE_APDU = 3;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer mapping;
+	private final int capacity;
+	private final long baseMicros;
+	private final long baseNanos;
+	private final AtomicLong claimed = new AtomicLong();
+	private final AtomicLong committed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final ConcurrentMap<String, Integer> readers = new ConcurrentHashMap<>();
+	private final AtomicInteger readerCount = new AtomicInteger();
+
+	/**
+	 * Creates a new {@link TraceRecorder} with the {@link #DEFAULT_CAPACITY}, replacing the given file.
+	 * 
+	 * @param path
+	 *            the trace file
+	 * @throws IOException
+	 *             if the trace file could not be created
+	 */
+	public TraceRecorder(final Path path) throws IOException {
+		this(path, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new {@link TraceRecorder}, replacing the given file.
+	 * 
+	 * @param path
+	 *            the trace file
+	 * @param capacity
+	 *            the ring capacity in bytes
+	 * @throws IOException
+	 *             if the trace file could not be created
+	 */
+	public TraceRecorder(final Path path, final int capacity) throws IOException {
+		super();
+		if (capacity < 4096) {
+			throw new IllegalArgumentException("Trace capacity too small: " + capacity);
+		}
+		this.capacity = capacity;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0L, (long) HEADER_LENGTH + capacity);
+		mapping.putLong(0, FILE_MAGIC);
+		mapping.putInt(8, VERSION);
+		mapping.putInt(CAPACITY_OFFSET, capacity);
+		mapping.putLong(POSITION_OFFSET, 0L);
+		this.baseMicros = System.currentTimeMillis() * 1000L;
+		this.baseNanos = System.nanoTime();
+	}
+
+	@Override
+	public void connected(final String terminalName, final long cardId, final byte[] atr) {
+		final int reader = reader(terminalName);
+		final byte[] name = terminalName.getBytes(StandardCharsets.UTF_8);
+		final int length = RECORD_HEADER_LENGTH + 2 + name.length + 2 + atr.length;
+		final long position = claim(length);
+		if (position < 0) {
+			return;
+		}
+		long p = putHeader(position, length, TYPE_CONNECT, System.nanoTime(), reader, cardId);
+		p = putShort(p, name.length);
+		p = putBytes(p, name);
+		p = putShort(p, atr.length);
+		putBytes(p, atr);
+		commit(position + length);
+	}
+
+	@Override
+	public void transmitted(final String terminalName, final long cardId, final long startNanos, final long durationNanos,
+			final ByteBuffer command, final ByteBuffer response) {
+		final int reader = reader(terminalName);
+		final int length = RECORD_HEADER_LENGTH + 8 + 4 + command.remaining() + 4 + response.remaining();
+		final long position = claim(length);
+		if (position < 0) {
+			return;
+		}
+		long p = putHeader(position, length, TYPE_APDU, startNanos, reader, cardId);
+		p = putLong(p, durationNanos);
+		p = putInt(p, command.remaining());
+		p = putBytes(p, command);
+		p = putInt(p, response.remaining());
+		putBytes(p, response);
+		commit(position + length);
+	}
+
+	/**
+	 * Returns the number of bytes written since the trace was started, including overwritten records.
+	 * 
+	 * @return the bytes written
+	 */
+	public long getBytesWritten() {
+		return committed.get();
+	}
+
+	/**
+	 * Returns the number of records that were dropped because they do not fit in the ring.
+	 * 
+	 * @return the dropped record count
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Flushes the trace file to disk and closes it. Detach the recorder from the card session manager first.
+	 * 
+	 * @throws IOException
+	 *             if the trace file could not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		mapping.putLong(POSITION_OFFSET, committed.get());
+		mapping.force();
+		channel.close();
+	}
+
+	/**
+	 * Returns the number of the given card reader, writing a reader record the first time it is seen.
+	 */
+	private int reader(final String terminalName) {
+		final Integer reader = readers.get(terminalName);
+		if (reader != null) {
+			return reader;
+		}
+		final int[] created = { -1 };
+		final int newReader = readers.computeIfAbsent(terminalName, name -> created[0] = readerCount.getAndIncrement());
+		if (created[0] >= 0) {
+			final byte[] name = terminalName.getBytes(StandardCharsets.UTF_8);
+			final int length = RECORD_HEADER_LENGTH + 2 + name.length;
+			final long position = claim(length);
+			if (position >= 0) {
+				putBytes(putShort(putHeader(position, length, TYPE_READER, System.nanoTime(), newReader, 0L), name.length), name);
+				commit(position + length);
+			}
+		}
+		return newReader;
+	}
+
+	/**
+	 * Claims ring space for a record.
+	 * 
+	 * @return the absolute stream position of the record, or -1 if the record is too large for the ring
+	 */
+	private long claim(final int length) {
+		if (length > capacity) {
+			dropped.incrementAndGet();
+			return -1L;
+		}
+		return claimed.getAndAdd(length);
+	}
+
+	/**
+	 * Publishes the number of bytes written in the header. Concurrent writers may finish out of order; the header keeps the highest end.
+	 */
+	private void commit(final long end) {
+		long current;
+		do {
+			current = committed.get();
+			if (end <= current) {
+				return;
+			}
+		} while (!committed.compareAndSet(current, end));
+		mapping.putLong(POSITION_OFFSET, end);
+	}
+
+	private long putHeader(final long position, final int length, final byte type, final long nanos, final int reader,
+			final long cardId) {
+		long p = putInt(position, RECORD_MAGIC);
+		p = putInt(p, length);
+		mapping.put(index(p), type);
+		p = putLong(p + 1, baseMicros + (nanos - baseNanos) / 1000L);
+		p = putShort(p, reader);
+		return putLong(p, cardId);
+	}
+
+	private long putShort(final long position, final int value) {
+		mapping.put(index(position), (byte) (value >> 8));
+		mapping.put(index(position + 1), (byte) value);
+		return position + 2;
+	}
+
+	private long putInt(final long position, final int value) {
+		return putShort(putShort(position, value >>> 16), value);
+	}
+
+	private long putLong(final long position, final long value) {
+		return putInt(putInt(position, (int) (value >>> 32)), (int) value);
+	}
+
+	private long putBytes(final long position, final byte[] bytes) {
+		for (int i = 0; i < bytes.length; i++) {
+			mapping.put(index(position + i), bytes[i]);
+		}
+		return position + bytes.length;
+	}
+
+	private long putBytes(final long position, final ByteBuffer bytes) {
+		final int start = bytes.position();
+		final int length = bytes.remaining();
+		for (int i = 0; i < length; i++) {
+			mapping.put(index(position + i), bytes.get(start + i));
+		}
+		return position + length;
+	}
+
+	private int index(final long position) {
+		return HEADER_LENGTH + (int) (position % capacity);
+	}
+
+}
@@ -0,0 +1,309 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.trace;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.smartcardio.CardException;
+
+import be.healthconnect.testeidutil.card.CardExecutor;
+import be.healthconnect.testeidutil.card.CardSession;
+import be.healthconnect.testeidutil.card.CardSessionManager;
+import be.healthconnect.testeidutil.card.ReaderResult;
+import be.healthconnect.testeidutil.card.sim.CardSimulator;
+import be.healthconnect.testeidutil.card.sim.VirtualEid;
+import be.healthconnect.testeidutil.util.DirectBufferPool;
+import be.healthconnect.testeidutil.util.HexCodec;
+
+/**
+ * Replays recorded card sessions against virtual eIDs in a {@link CardSimulator}, to reproduce field issues and to benchmark the card
+ * engine with real traffic. Each recorded card connection becomes a session on a freshly inserted {@link VirtualEid}; sessions recorded
+ * on different card readers are replayed concurrently on different simulated card readers. Commands are sent exactly as recorded, so
+ * automatic GET RESPONSE handling is off during the replay, and responses that differ from the recorded ones are reported.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class TraceReplayer {
+
+	private static final int MAX_MISMATCHES = 20;
+
+	private final Map<Long, Session> sessions = new LinkedHashMap<>();
+	private final List<String> terminalNames = new ArrayList<>();
+	private boolean realTime;
+
+	/**
+	 * Creates a new {@link TraceReplayer}.
+	 * 
+	 * @param records
+	 *            the decoded trace records, oldest first
+	 */
+	public TraceReplayer(final List<TraceRecord> records) {
+		super();
+		for (final TraceRecord record : records) {
+			if (!terminalNames.contains(record.getTerminalName())) {
+				terminalNames.add(record.getTerminalName());
+			}
+			final Session session = sessions.computeIfAbsent(record.getCardId(), cardId -> new Session(record));
+			if (record.getType() == TraceRecord.Type.APDU) {
+				session.commands.add(record);
+			}
+		}
+	}
+
+	/**
+	 * Returns the names of the card readers in the trace, in order of appearance.
+	 * 
+	 * @return the card reader names
+	 */
+	public List<String> getTerminalNames() {
+		return Collections.unmodifiableList(terminalNames);
+	}
+
+	/**
+	 * Returns the number of recorded card sessions.
+	 * 
+	 * @return the session count
+	 */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * Sets whether the commands are sent with the recorded pauses in between, instead of as fast as possible.
+	 * 
+	 * @param realTime
+	 *            <code>true</code> to keep the recorded timing
+	 */
+	public void setRealTime(final boolean realTime) {
+		this.realTime = realTime;
+	}
+
+	/**
+	 * Replays all sessions. Recorded card readers are mapped onto the simulated card readers in order of appearance, wrapping around
+	 * when the simulator has fewer card readers.
+	 * 
+	 * @param simulator
+	 *            the simulator that receives the virtual eIDs
+	 * @param manager
+	 *            the card session manager on top of the simulator
+	 * @return the replay result
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the replay
+	 * @throws CardException
+	 *             if a simulated card reader failed
+	 */
+	public Result replay(final CardSimulator simulator, final CardSessionManager manager) throws InterruptedException, CardException {
+		final List<String> readerNames = simulator.getReaderNames();
+		final Map<String, List<Session>> plan = new LinkedHashMap<>();
+		for (final Session session : sessions.values()) {
+			final String readerName = readerNames.get(terminalNames.indexOf(session.terminalName) % readerNames.size());
+			plan.computeIfAbsent(readerName, name -> new ArrayList<>()).add(session);
+		}
+
+		final long start = System.nanoTime();
+		final List<CompletableFuture<ReaderResult<Result>>> futures = new ArrayList<>();
+		for (final Map.Entry<String, List<Session>> readerPlan : plan.entrySet()) {
+			futures.add(manager.submit(readerPlan.getKey(), cardSession -> replay(simulator, readerPlan.getKey(), readerPlan.getValue(),
+					cardSession)));
+		}
+		final Result total = new Result();
+		for (final CompletableFuture<ReaderResult<Result>> future : futures) {
+			final ReaderResult<Result> result;
+			try {
+				result = future.get();
+			} catch (final ExecutionException e) {
+				throw new CardException("Replay failed", CardExecutor.unwrap(e));
+			}
+			if (!result.isSuccess()) {
+				throw new CardException("Replay failed on " + result.getTerminalName(), result.getError());
+			}
+			total.add(result.getValue());
+		}
+		total.elapsedNanos = System.nanoTime() - start;
+		return total;
+	}
+
+	private Result replay(final CardSimulator simulator, final String readerName, final List<Session> readerSessions,
+			final CardSession cardSession) throws CardException {
+		final Result result = new Result();
+		final DirectBufferPool pool = cardSession.getBufferPool();
+		final ByteBuffer command = pool.acquire();
+		final ByteBuffer response = pool.acquire();
+		final boolean autoResponse = cardSession.isAutoResponse();
+		cardSession.setAutoResponse(false);
+		try {
+			for (final Session session : readerSessions) {
+				simulator.insertCard(readerName, new VirtualEid((int) session.cardId));
+				cardSession.invalidate();
+				result.sessions++;
+				final long sessionStart = System.nanoTime();
+				cardSession.beginExclusive();
+				try {
+					for (final TraceRecord record : session.commands) {
+						if (realTime) {
+							final long due = sessionStart + (record.getTimestampMicros() - session.startMicros) * 1000L;
+							for (long wait = due - System.nanoTime(); wait > 0L; wait = due - System.nanoTime()) {
+								LockSupport.parkNanos(wait);
+							}
+						}
+						command.clear();
+						command.put(record.getCommand()).flip();
+						response.clear();
+						final int length = cardSession.transmit(command, response);
+						result.commands++;
+						compare(result, session, record, response, length);
+					}
+				} finally {
+					cardSession.endExclusive();
+				}
+			}
+		} finally {
+			cardSession.setAutoResponse(autoResponse);
+			pool.release(response);
+			pool.release(command);
+		}
+		return result;
+	}
+
+	private static void compare(final Result result, final Session session, final TraceRecord record, final ByteBuffer response,
+			final int length) {
+		final byte[] expected = record.getResponse();
+		boolean equal = length == expected.length;
+		for (int i = 0; equal && i < length; i++) {
+			equal = response.get(i) == expected[i];
+		}
+		if (equal) {
+			return;
+		}
+		final int sw = length < 2 ? -1 : (response.get(length - 2) & 0xFF) << 8 | response.get(length - 1) & 0xFF;
+		final String kind;
+		if (sw != record.getSW()) {
+			result.statusWordMismatches++;
+			kind = String.format("expected %04X, got %04X", record.getSW(), sw);
+		} else {
+			result.dataMismatches++;
+			kind = String.format("response data differs (%d bytes recorded, %d replayed)", expected.length - 2, length - 2);
+		}
+		if (result.mismatches.size() < MAX_MISMATCHES) {
+			final byte[] commandBytes = record.getCommand();
+			result.mismatches.add(String.format("%s card %d: %s: %s", session.terminalName, session.cardId,
+					HexCodec.toHex(commandBytes).toUpperCase(), kind));
+		}
+	}
+
+	/**
+	 * A recorded card connection.
+	 */
+	private static final class Session {
+
+		private final String terminalName;
+		private final long cardId;
+		private final long startMicros;
+		private final List<TraceRecord> commands = new ArrayList<>();
+
+		Session(final TraceRecord first) {
+			this.terminalName = first.getTerminalName();
+			this.cardId = first.getCardId();
+			this.startMicros = first.getTimestampMicros();
+		}
+
+	}
+
+	/**
+	 * Outcome of a replay.
+	 */
+	public static final class Result {
+
+		private int sessions;
+		private long commands;
+		private long statusWordMismatches;
+		private long dataMismatches;
+		private long elapsedNanos;
+		private final List<String> mismatches = new ArrayList<>();
+
+		/**
+		 * Returns the number of replayed card sessions.
+		 * 
+		 * @return the session count
+		 */
+		public int getSessionCount() {
+			return sessions;
+		}
+
+		/**
+		 * Returns the number of replayed commands.
+		 * 
+		 * @return the command count
+		 */
+		public long getCommandCount() {
+			return commands;
+		}
+
+		/**
+		 * Returns the number of responses with a different status word than recorded.
+		 * 
+		 * @return the status word mismatch count
+		 */
+		public long getStatusWordMismatchCount() {
+			return statusWordMismatches;
+		}
+
+		/**
+		 * Returns the number of responses with the recorded status word but different data, e.g. because the virtual eID holds other
+		 * files than the recorded card.
+		 * 
+		 * @return the data mismatch count
+		 */
+		public long getDataMismatchCount() {
+			return dataMismatches;
+		}
+
+		/**
+		 * Returns the wall clock time of the replay.
+		 * 
+		 * @return the elapsed time in nanoseconds
+		 */
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		/**
+		 * Returns descriptions of the first mismatches.
+		 * 
+		 * @return the mismatch descriptions
+		 */
+		public List<String> getMismatches() {
+			return Collections.unmodifiableList(mismatches);
+		}
+
+		private void add(final Result other) {
+			sessions += other.sessions;
+			commands += other.commands;
+			statusWordMismatches += other.statusWordMismatches;
+			dataMismatches += other.dataMismatches;
+			for (final String mismatch : other.mismatches) {
+				if (mismatches.size() < MAX_MISMATCHES) {
+					mismatches.add(mismatch);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			final double seconds = elapsedNanos / 1e9;
+			return String.format("%d sessions, %d commands in %.3f s (%.0f APDU/s), %d status word mismatches, %d data mismatches",
+					sessions, commands, seconds, seconds > 0 ? commands / seconds : 0.0, statusWordMismatches, dataMismatches);
+		}
+
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded pool of equally sized direct {@link ByteBuffer}s. Acquiring and releasing a buffer does not allocate once the pool is warm.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class DirectBufferPool {
+
+	private final int bufferSize;
+	private final ByteBuffer[] free;
+
+	private int count;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a new {@link DirectBufferPool}.
+	 * 
+	 * @param bufferSize
+	 *            the capacity of each buffer in bytes
+	 * @param capacity
+	 *            the maximum number of idle buffers kept in the pool
+	 */
+	public DirectBufferPool(final int bufferSize, final int capacity) {
+		super();
+		this.bufferSize = bufferSize;
+		this.free = new ByteBuffer[capacity];
+	}
+
+	/**
+	 * Takes a cleared buffer from the pool, or allocates a new one if the pool is empty.
+	 * 
+	 * @return a cleared direct buffer of {@link #getBufferSize()} bytes
+	 */
+	public synchronized ByteBuffer acquire() {
+		if (count == 0) {
+			misses++;
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		hits++;
+		final ByteBuffer buffer = free[--count];
+		free[count] = null;
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. Buffers beyond the pool capacity are left to the garbage collector.
+	 * 
+	 * @param buffer
+	 *            a buffer obtained from {@link #acquire()}
+	 * @throws IllegalArgumentException
+	 *             if the buffer was not obtained from a pool of this size
+	 */
+	public synchronized void release(final ByteBuffer buffer) {
+		if (!buffer.isDirect() || buffer.capacity() != bufferSize) {
+			throw new IllegalArgumentException("Buffer does not belong to this pool");
+		}
+		if (count < free.length) {
+			free[count++] = buffer;
+		}
+	}
+
+	/**
+	 * Returns the capacity of each buffer.
+	 * 
+	 * @return the buffer size in bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Returns the number of acquisitions served from the pool.
+	 * 
+	 * @return the number of pool hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of acquisitions that had to allocate a new buffer.
+	 * 
+	 * @return the number of pool misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+}
@@ -0,0 +1,273 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Table-driven hex codec that works directly on caller-supplied arrays and buffers. Decoding skips whitespace and <code>:</code>
+ * separators, so pasted traces such as <code>00 A4 04 0C</code> or <code>00:a4:04:0c</code> are accepted. Decoding errors are reported
+ * as a negative result that encodes the error position (see {@link #errorPosition(int)}), without building exceptions.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class HexCodec {
+
+	private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+	private static final byte INVALID = -1;
+	private static final byte SEPARATOR = -2;
+	private static final byte[] VALUES = new byte[128];
+
+	static {
+		for (int i = 0; i < VALUES.length; i++) {
+			VALUES[i] = INVALID;
+		}
+		for (int i = 0; i < 10; i++) {
+			VALUES['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			VALUES['a' + i] = (byte) (10 + i);
+			VALUES['A' + i] = (byte) (10 + i);
+		}
+		VALUES[' '] = SEPARATOR;
+		VALUES['\t'] = SEPARATOR;
+		VALUES['\r'] = SEPARATOR;
+		VALUES['\n'] = SEPARATOR;
+		VALUES[':'] = SEPARATOR;
+	}
+
+	private HexCodec() {
+		super();
+	}
+
+	/**
+	 * Decodes hex digits into the given array.
+	 * 
+	 * @param src
+	 *            the hex digits
+	 * @param start
+	 *            the index of the first character to decode
+	 * @param end
+	 *            the index after the last character to decode
+	 * @param dst
+	 *            the destination array, at least {@link #maxDecodedLength(int)} bytes from <code>offset</code>
+	 * @param offset
+	 *            the index of the first byte to write
+	 * @return the number of bytes written, or a negative value if <code>src</code> is invalid (see {@link #errorPosition(int)})
+	 */
+	public static int decode(final CharSequence src, final int start, final int end, final byte[] dst, final int offset) {
+		int pos = offset;
+		int high = -1;
+		for (int i = start; i < end; i++) {
+			final char c = src.charAt(i);
+			final int value = c < VALUES.length ? VALUES[c] : INVALID;
+			if (value >= 0) {
+				if (high < 0) {
+					high = value;
+				} else {
+					dst[pos++] = (byte) (high << 4 | value);
+					high = -1;
+				}
+			} else if (value == INVALID || high >= 0) {
+				// invalid character, or separator between the two digits of a byte
+				return -(i + 1);
+			}
+		}
+		return high < 0 ? pos - offset : -(end + 1);
+	}
+
+	/**
+	 * Decodes hex digits into the given buffer, starting at its position. The position is advanced by the number of bytes written.
+	 * 
+	 * @param src
+	 *            the hex digits
+	 * @param start
+	 *            the index of the first character to decode
+	 * @param end
+	 *            the index after the last character to decode
+	 * @param dst
+	 *            the destination buffer, with at least {@link #maxDecodedLength(int)} bytes remaining
+	 * @return the number of bytes written, or a negative value if <code>src</code> is invalid (see {@link #errorPosition(int)})
+	 */
+	public static int decode(final CharSequence src, final int start, final int end, final ByteBuffer dst) {
+		final int offset = dst.position();
+		int high = -1;
+		for (int i = start; i < end; i++) {
+			final char c = src.charAt(i);
+			final int value = c < VALUES.length ? VALUES[c] : INVALID;
+			if (value >= 0) {
+				if (high < 0) {
+					high = value;
+				} else {
+					dst.put((byte) (high << 4 | value));
+					high = -1;
+				}
+			} else if (value == INVALID || high >= 0) {
+				return -(i + 1);
+			}
+		}
+		return high < 0 ? dst.position() - offset : -(end + 1);
+	}
+
+	/**
+	 * Returns the position of a decoding error.
+	 * 
+	 * @param result
+	 *            the negative result of a <code>decode</code> method
+	 * @return the index of the offending character, or the end index if the number of hex digits is odd
+	 */
+	public static int errorPosition(final int result) {
+		return -result - 1;
+	}
+
+	/**
+	 * Returns the maximum number of bytes decoded from the given number of characters.
+	 * 
+	 * @param length
+	 *            the number of characters
+	 * @return the maximum number of decoded bytes
+	 */
+	public static int maxDecodedLength(final int length) {
+		return length / 2;
+	}
+
+	/**
+	 * Decodes hex digits into a new array. Use this for input that is not on the hot path, e.g. user input.
+	 * 
+	 * @param src
+	 *            the hex digits
+	 * @return the decoded bytes
+	 * @throws IllegalArgumentException
+	 *             if <code>src</code> is invalid
+	 */
+	public static byte[] decode(final CharSequence src) {
+		final byte[] buffer = new byte[maxDecodedLength(src.length())];
+		final int length = decode(src, 0, src.length(), buffer, 0);
+		if (length < 0) {
+			final int position = errorPosition(length);
+			if (position == src.length()) {
+				throw new IllegalArgumentException("Odd number of hex digits");
+			}
+			throw new IllegalArgumentException("Invalid hex digit '" + src.charAt(position) + "' at position " + (position + 1));
+		}
+		if (length == buffer.length) {
+			return buffer;
+		}
+		final byte[] bytes = new byte[length];
+		System.arraycopy(buffer, 0, bytes, 0, length);
+		return bytes;
+	}
+
+	/**
+	 * Encodes bytes as lower case hex digits into the given array.
+	 * 
+	 * @param src
+	 *            the bytes to encode
+	 * @param offset
+	 *            the index of the first byte to encode
+	 * @param length
+	 *            the number of bytes to encode
+	 * @param dst
+	 *            the destination array, at least <code>2 * length</code> characters from <code>dstOffset</code>
+	 * @param dstOffset
+	 *            the index of the first character to write
+	 * @return the number of characters written
+	 */
+	public static int encode(final byte[] src, final int offset, final int length, final char[] dst, final int dstOffset) {
+		int pos = dstOffset;
+		for (int i = offset; i < offset + length; i++) {
+			dst[pos++] = DIGITS[(src[i] >> 4) & 0xF];
+			dst[pos++] = DIGITS[src[i] & 0xF];
+		}
+		return pos - dstOffset;
+	}
+
+	/**
+	 * Encodes the remaining bytes of the given buffer as lower case hex digits into the given array. The buffer position is not changed.
+	 * 
+	 * @param src
+	 *            the bytes to encode
+	 * @param dst
+	 *            the destination array, at least <code>2 * src.remaining()</code> characters from <code>dstOffset</code>
+	 * @param dstOffset
+	 *            the index of the first character to write
+	 * @return the number of characters written
+	 */
+	public static int encode(final ByteBuffer src, final char[] dst, final int dstOffset) {
+		int pos = dstOffset;
+		for (int i = src.position(); i < src.limit(); i++) {
+			final byte b = src.get(i);
+			dst[pos++] = DIGITS[(b >> 4) & 0xF];
+			dst[pos++] = DIGITS[b & 0xF];
+		}
+		return pos - dstOffset;
+	}
+
+	/**
+	 * Appends bytes as lower case hex digits to the given {@link StringBuilder}.
+	 * 
+	 * @param sb
+	 *            the {@link StringBuilder}
+	 * @param src
+	 *            the bytes to encode
+	 * @param offset
+	 *            the index of the first byte to encode
+	 * @param length
+	 *            the number of bytes to encode
+	 * @return <code>sb</code>
+	 */
+	public static StringBuilder append(final StringBuilder sb, final byte[] src, final int offset, final int length) {
+		sb.ensureCapacity(sb.length() + 2 * length);
+		for (int i = offset; i < offset + length; i++) {
+			sb.append(DIGITS[(src[i] >> 4) & 0xF]).append(DIGITS[src[i] & 0xF]);
+		}
+		return sb;
+	}
+
+	/**
+	 * Appends bytes as lower case hex digits to the given {@link StringBuilder}.
+	 * 
+	 * @param sb
+	 *            the {@link StringBuilder}
+	 * @param src
+	 *            the bytes to encode
+	 * @return <code>sb</code>
+	 */
+	public static StringBuilder append(final StringBuilder sb, final byte[] src) {
+		return append(sb, src, 0, src.length);
+	}
+
+	/**
+	 * Appends the remaining bytes of the given buffer as lower case hex digits to the given {@link StringBuilder}. The buffer position is
+	 * not changed.
+	 * 
+	 * @param sb
+	 *            the {@link StringBuilder}
+	 * @param src
+	 *            the bytes to encode
+	 * @return <code>sb</code>
+	 */
+	public static StringBuilder append(final StringBuilder sb, final ByteBuffer src) {
+		sb.ensureCapacity(sb.length() + 2 * src.remaining());
+		for (int i = src.position(); i < src.limit(); i++) {
+			final byte b = src.get(i);
+			sb.append(DIGITS[(b >> 4) & 0xF]).append(DIGITS[b & 0xF]);
+		}
+		return sb;
+	}
+
+	/**
+	 * Encodes bytes as a lower case hex string.
+	 * 
+	 * @param src
+	 *            the bytes to encode
+	 * @return the hex string
+	 */
+	public static String toHex(final byte[] src) {
+		final char[] chars = new char[2 * src.length];
+		encode(src, 0, src.length, chars, 0);
+		return new String(chars);
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the phases of the application startup. Sequential phases are marked as they end; phases that run in the background are
+ * recorded with their own duration. The first phase starts when the JVM starts.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public final class StartupTimer {
+
+	private final StringBuilder phases = new StringBuilder();
+	private long lastNanos;
+
+	/**
+	 * Creates a new {@link StartupTimer}, and marks the end of the phase from JVM start until now.
+	 * 
+	 * @param firstPhase
+	 *            the name of the phase that ends now
+	 */
+	public StartupTimer(final String firstPhase) {
+		super();
+		lastNanos = System.nanoTime();
+		final long uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+		record(firstPhase, TimeUnit.MILLISECONDS.toNanos(uptimeMillis));
+	}
+
+	/**
+	 * Marks the end of a sequential phase, which started at the end of the previous one.
+	 * 
+	 * @param phase
+	 *            the name of the phase that ends now
+	 */
+	public synchronized void mark(final String phase) {
+		final long now = System.nanoTime();
+		record(phase, now - lastNanos);
+		lastNanos = now;
+	}
+
+	/**
+	 * Records a phase that ran alongside the sequential phases.
+	 * 
+	 * @param phase
+	 *            the name of the phase
+	 * @param nanos
+	 *            the duration of the phase in nanoseconds
+	 */
+	public synchronized void record(final String phase, final long nanos) {
+		if (phases.length() > 0) {
+			phases.append(", ");
+		}
+		phases.append(phase).append(' ').append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms");
+	}
+
+	/**
+	 * Returns the phases recorded so far.
+	 * 
+	 * @return the phase names and durations in milliseconds, in the order they were recorded
+	 */
+	@Override
+	public synchronized String toString() {
+		return phases.toString();
+	}
+
+}
@@ -3,6 +3,9 @@
  */
 package be.healthconnect.testeidutil.view;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import be.healthconnect.testeidutil.concurrent.CallResponse;
 
 /**
@@ -32,6 +35,20 @@ public interface Dialogs {
 	 */
 	void error(Throwable exception, Runnable onClose);
 
+	/**
+	 * Notifies the user that an error occurred in the given source. Errors that occur in quick succession may be shown together in a
+	 * single dialog.
+	 * 
+	 * @param source
+	 *            where the error occurred, e.g. a card reader name, or <code>null</code> if not known
+	 * @param exception
+	 *            the error
+	 * @param onClose
+	 *            callback method that is invoked when the dialog is closed, if null the dialog is just closed without performing any extra
+	 *            actions.
+	 */
+	void error(String source, Throwable exception, Runnable onClose);
+
 	/**
 	 * Displays an OK/Cancel message dialog.
 	 * 
@@ -61,6 +78,62 @@ public interface Dialogs {
 	void message(String message, String title, boolean cancelVisible, CallResponse<DialogResult> onClose, String okBtnText,
 			String cancelBtnText);
 
+	/**
+	 * Notifies the user that an error occurred, without waiting for the dialog to be closed. May be called from any thread.
+	 * 
+	 * @param exception
+	 *            the error
+	 * @return a future that completes when the dialog is closed
+	 */
+	CompletableFuture<Void> errorAsync(Throwable exception);
+
+	/**
+	 * Displays an OK/Cancel message dialog, without waiting for it to be closed. May be called from any thread, so that background
+	 * tasks can ask the user a question without blocking the user interface or each other.
+	 * 
+	 * @param message
+	 *            the message to display
+	 * @param title
+	 *            the dialog title, or <code>null</code> for none
+	 * @param cancelVisible
+	 *            whether to display a Cancel button
+	 * @return a future that completes with the result when the dialog is closed
+	 */
+	CompletableFuture<DialogResult> messageAsync(String message, String title, boolean cancelVisible);
+
+	/**
+	 * Displays an OK/Cancel message dialog with the specified button texts, without waiting for it to be closed. May be called from any
+	 * thread.
+	 * 
+	 * @param message
+	 *            the message to display
+	 * @param title
+	 *            the dialog title, or <code>null</code> for none
+	 * @param cancelVisible
+	 *            whether to display a Cancel button
+	 * @param okBtnText
+	 *            Text on OK button.
+	 * @param cancelBtnText
+	 *            Text on cancel button.
+	 * @return a future that completes with the result when the dialog is closed
+	 */
+	CompletableFuture<DialogResult> messageAsync(String message, String title, boolean cancelVisible, String okBtnText,
+			String cancelBtnText);
+
+	/**
+	 * Lets the user edit the given parameters, without waiting for the dialog to be closed. May be called from any thread.
+	 * 
+	 * @param message
+	 *            the message to display above the parameters
+	 * @param title
+	 *            the dialog title, or <code>null</code> for none
+	 * @param parameters
+	 *            the parameter names and their initial values
+	 * @return a future that completes with the entered values when the dialog is confirmed, or with <code>null</code> when it is
+	 *         cancelled
+	 */
+	CompletableFuture<Map<String, String>> parametersAsync(String message, String title, Map<String, String> parameters);
+
 	/**
 	 * Hides currently opened dialogs.
 	 */
@@ -3,25 +3,48 @@
  */
 package be.healthconnect.testeidutil.view.javafx;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import be.healthconnect.testeidutil.concurrent.CallResponse;
+import be.healthconnect.testeidutil.controls.DialogPool;
+import be.healthconnect.testeidutil.controls.ErrorListDialog;
 import be.healthconnect.testeidutil.controls.MessageDialog;
+import be.healthconnect.testeidutil.controls.ParameterDialog;
 import be.healthconnect.testeidutil.util.Reversed;
 import be.healthconnect.testeidutil.view.Dialogs;
+import javafx.application.Platform;
 import javafx.event.EventType;
 import javafx.stage.Stage;
 
 /**
- * JavaFX implementation for {@link Dialogs}.
+ * JavaFX implementation for {@link Dialogs}. The asynchronous variants open their dialog on the JavaFX Application Thread, whichever
+ * thread they are called from, and never enter a nested event loop.
  * 
  * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
  */
 public class FXDialogs implements Dialogs {
+
+	/** Errors within this time of the first error of an open error dialog are added to it. */
+	public static final long COALESCE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2L);
+	/** Maximum number of error dialogs open at the same time. */
+	public static final int MAX_ERROR_DIALOGS = 3;
+	/** Maximum number of idle message dialogs kept for reuse. */
+	public static final int MESSAGE_POOL_CAPACITY = 4;
+
 	protected final Stage root;
 	protected final List<MessageDialog> currentMessageDialogs = Collections.synchronizedList(new ArrayList<>());
+	protected final DialogPool<MessageDialog> messageDialogPool;
+	protected final DialogPool<ErrorListDialog> errorDialogPool;
+
+	/** Open error dialogs, oldest first; only accessed on the JavaFX Application Thread. */
+	private final Deque<ErrorBurst> errorBursts = new ArrayDeque<>();
 
 	/**
 	 * Creates a new {@link FXDialogs} instance.
@@ -32,6 +55,31 @@ public class FXDialogs implements Dialogs {
 	public FXDialogs(final Stage root) {
 		super();
 		this.root = root;
+		this.messageDialogPool = new DialogPool<>(() -> new MessageDialog(root), MESSAGE_POOL_CAPACITY);
+		this.errorDialogPool = new DialogPool<>(() -> new ErrorListDialog(root), MAX_ERROR_DIALOGS);
+		// build the first dialogs once the window is up, so that the first error opens as fast as the next ones
+		Platform.runLater(() -> {
+			messageDialogPool.prestart(1);
+			errorDialogPool.prestart(1);
+		});
+	}
+
+	/**
+	 * Returns the pool of message dialogs, with its hit and miss counters.
+	 * 
+	 * @return the message dialog pool
+	 */
+	public DialogPool<MessageDialog> getMessageDialogPool() {
+		return messageDialogPool;
+	}
+
+	/**
+	 * Returns the pool of error dialogs, with its hit and miss counters.
+	 * 
+	 * @return the error dialog pool
+	 */
+	public DialogPool<ErrorListDialog> getErrorDialogPool() {
+		return errorDialogPool;
 	}
 
 	/**
@@ -39,32 +87,60 @@ public class FXDialogs implements Dialogs {
 	 */
 	@Override
 	public void error(final Throwable exception, final Runnable onClose) {
-		final String title = "Error";
+		error(null, exception, onClose);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Errors that arrive within {@link #COALESCE_WINDOW_NANOS} of the first error of an open error dialog are added to that dialog, as
+	 * are all errors once {@link #MAX_ERROR_DIALOGS} error dialogs are open.
+	 */
+	@Override
+	public void error(final String source, final Throwable exception, final Runnable onClose) {
+		if (!Platform.isFxApplicationThread()) {
+			Platform.runLater(() -> error(source, exception, onClose));
+			return;
+		}
 		String msg = exception.getLocalizedMessage();
 		if (msg == null || msg.isEmpty()) {
 			msg = exception.getClass().getName();
 		}
-		final MessageDialog messageDialog;
-			messageDialog = new MessageDialog(root);
-			messageDialog.setMessage(msg);
-			messageDialog.setTitle(title);
-			messageDialog.setMaxContentWidth(500);
-			messageDialog.setTitleVisible(true);
-			messageDialog.setCloseVisible(true);
-			messageDialog.setCancelVisible(false);
-			messageDialog.setHideOnClose(true);
+		final long now = System.nanoTime();
+		final ErrorBurst last = errorBursts.peekLast();
+		if (last != null && (now - last.startNanos < COALESCE_WINDOW_NANOS || errorBursts.size() >= MAX_ERROR_DIALOGS)) {
+			last.dialog.addError(source, msg);
+			last.dialog.setTitle(String.format("Errors (%d)", last.dialog.getErrorCount()));
+			if (onClose != null) {
+				last.onClose.add(onClose);
+			}
+			return;
+		}
+
+		final ErrorListDialog messageDialog = errorDialogPool.acquire();
+		messageDialog.addError(source, msg);
+		messageDialog.setTitle("Error");
+		messageDialog.setMaxContentWidth(500);
+		messageDialog.setTitleVisible(true);
+		messageDialog.setCloseVisible(true);
+		messageDialog.setCancelVisible(false);
+		messageDialog.setHideOnClose(true);
+		final ErrorBurst burst = new ErrorBurst(messageDialog, now);
+		if (onClose != null) {
+			burst.onClose.add(onClose);
+		}
 
 		messageDialog.setOnDialogClosed(dialogEvent -> {
 			currentMessageDialogs.remove(messageDialog);
-			// [DMW] CAEMR-6820: fix memory leak
-			messageDialog.setOnDialogClosed(null);
-			if (onClose != null) {
-				// [GBA] CAEMR-9596: call run() to execute task in same thread
-				onClose.run();
-			}
+			errorBursts.remove(burst);
+			// [DMW] CAEMR-6820: fix memory leak; resetting detaches this handler
+			errorDialogPool.release(messageDialog);
+			// [GBA] CAEMR-9596: call run() to execute task in same thread
+			burst.onClose.forEach(Runnable::run);
 		});
 		messageDialog.open();
 		currentMessageDialogs.add(messageDialog);
+		errorBursts.add(burst);
 	}
 
 	/**
@@ -82,7 +158,7 @@ public class FXDialogs implements Dialogs {
 	public void message(final String message, final String title, final boolean cancelVisible, final CallResponse<DialogResult> onClose,
 			final String okBtnText, final String cancelBtnText) {
 		final boolean topVisible = (title != null && !title.isEmpty());
-		final MessageDialog messageDialog = new MessageDialog(root);
+		final MessageDialog messageDialog = messageDialogPool.acquire();
 		messageDialog.setMessage(message);
 		messageDialog.setTitle(title);
 		messageDialog.setMaxContentWidth(350);
@@ -94,8 +170,8 @@ public class FXDialogs implements Dialogs {
 		messageDialog.setHideOnClose(true);
 		messageDialog.setOnDialogClosed(dialogEvent -> {
 			currentMessageDialogs.remove(messageDialog);
-			// [DMW] CAEMR-6820: fix memory leak
-			messageDialog.setOnDialogClosed(null);
+			// [DMW] CAEMR-6820: fix memory leak; resetting detaches this handler
+			messageDialogPool.release(messageDialog);
 			final EventType<?> eventType = dialogEvent.getEventType();
 			if (onClose != null) {
 				onClose.response(eventType == MessageDialog.OK ? DialogResult.OK : DialogResult.CANCEL);
@@ -105,6 +181,63 @@ public class FXDialogs implements Dialogs {
 		currentMessageDialogs.add(messageDialog);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<Void> errorAsync(final Throwable exception) {
+		final CompletableFuture<Void> result = new CompletableFuture<>();
+		runOnFxThread(result, () -> error(exception, () -> result.complete(null)));
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<DialogResult> messageAsync(final String message, final String title, final boolean cancelVisible) {
+		return messageAsync(message, title, cancelVisible, "OK", "Cancel");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<DialogResult> messageAsync(final String message, final String title, final boolean cancelVisible,
+			final String okBtnText, final String cancelBtnText) {
+		final CompletableFuture<DialogResult> result = new CompletableFuture<>();
+		runOnFxThread(result, () -> message(message, title, cancelVisible, result::complete, okBtnText, cancelBtnText));
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<Map<String, String>> parametersAsync(final String message, final String title,
+			final Map<String, String> parameters) {
+		final CompletableFuture<Map<String, String>> result = new CompletableFuture<>();
+		runOnFxThread(result, () -> {
+			// parameter prompts are rare, so they are not pooled
+			final ParameterDialog parameterDialog = new ParameterDialog(root);
+			parameterDialog.setMessage(message);
+			parameterDialog.setParameters(parameters);
+			parameterDialog.setTitle(title);
+			parameterDialog.setMaxContentWidth(350);
+			parameterDialog.setCloseVisible(title != null);
+			parameterDialog.setTitleVisible(title != null);
+			parameterDialog.setCancelVisible(true);
+			parameterDialog.setHideOnClose(true);
+			parameterDialog.setOnDialogClosed(dialogEvent -> {
+				currentMessageDialogs.remove(parameterDialog);
+				result.complete(dialogEvent.getEventType() == MessageDialog.OK ? parameterDialog.getParameters() : null);
+			});
+			parameterDialog.open();
+			currentMessageDialogs.add(parameterDialog);
+		});
+		return result;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -131,4 +264,44 @@ public class FXDialogs implements Dialogs {
 		return !currentMessageDialogs.isEmpty();
 	}
 
+	/**
+	 * An open error dialog, with the time of its first error and the callbacks of all its errors.
+	 */
+	private static final class ErrorBurst {
+
+		private final ErrorListDialog dialog;
+		private final long startNanos;
+		private final List<Runnable> onClose = new ArrayList<>(1);
+
+		private ErrorBurst(final ErrorListDialog dialog, final long startNanos) {
+			this.dialog = dialog;
+			this.startNanos = startNanos;
+		}
+
+	}
+
+	/**
+	 * Runs the given action on the JavaFX Application Thread: immediately when already there, later otherwise. Completes the given future
+	 * exceptionally when the action fails, so that nobody waits for a dialog that never opened.
+	 * 
+	 * @param result
+	 *            the future that the action completes
+	 * @param action
+	 *            the action that opens a dialog
+	 */
+	protected static void runOnFxThread(final CompletableFuture<?> result, final Runnable action) {
+		final Runnable guarded = () -> {
+			try {
+				action.run();
+			} catch (final RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		};
+		if (Platform.isFxApplicationThread()) {
+			guarded.run();
+		} else {
+			Platform.runLater(guarded);
+		}
+	}
+
 }
@@ -0,0 +1,376 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.view.javafx;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongPredicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import be.healthconnect.testeidutil.card.ApduHistory;
+import be.healthconnect.testeidutil.card.StatusWordPattern;
+import be.healthconnect.testeidutil.view.Dialogs;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.collections.ObservableListBase;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.control.TitledPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
+import javafx.stage.Window;
+import javafx.util.Duration;
+
+/**
+ * Collapsible history of the card traffic, read from an {@link ApduHistory}. The list only holds the sequence numbers of the entries
+ * that pass the filters, in a primitive array, and only the visible rows are formatted, so it stays responsive with the full history.
+ * New entries are picked up once per second while the pane is expanded; entries overwritten in the history drop off the top of the list.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class HistoryPane extends TitledPane {
+
+	private static final Logger LOG = Logger.getLogger(HistoryPane.class.getName());
+
+	private static final String ALL_READERS = "All readers";
+	private static final double CELL_SIZE = 22.0;
+
+	/**
+	 * List of the sequence numbers of the history entries that pass the filters, in ascending order.
+	 * 
+	 * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+	 */
+	protected static final class SequenceList extends ObservableListBase<Long> {
+
+		private long[] sequences = new long[1024];
+		private int start;
+		private int size;
+
+		@Override
+		public Long get(final int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+			}
+			return sequences[start + index];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Removes the sequence numbers below the given first sequence number, and appends the matching sequence numbers of the given range.
+		 * 
+		 * @param first
+		 *            the sequence number of the oldest available history entry
+		 * @param from
+		 *            the first sequence number to test
+		 * @param to
+		 *            the sequence number after the last one to test
+		 * @param filter
+		 *            the filter
+		 */
+		void update(final long first, final long from, final long to, final LongPredicate filter) {
+			int evicted = 0;
+			while (evicted < size && sequences[start + evicted] < first) {
+				evicted++;
+			}
+			beginChange();
+			if (evicted > 0) {
+				nextRemove(0, new Removed(Arrays.copyOfRange(sequences, start, start + evicted)));
+				start += evicted;
+				size -= evicted;
+			}
+			final int oldSize = size;
+			for (long sequence = from; sequence < to; sequence++) {
+				if (filter.test(sequence)) {
+					append(sequence);
+				}
+			}
+			if (size > oldSize) {
+				nextAdd(oldSize, size);
+			}
+			endChange();
+		}
+
+		/**
+		 * Removes all sequence numbers.
+		 */
+		void reset() {
+			if (size > 0) {
+				beginChange();
+				nextRemove(0, new Removed(Arrays.copyOfRange(sequences, start, start + size)));
+				start = 0;
+				size = 0;
+				endChange();
+			}
+		}
+
+		/**
+		 * Returns a copy of the sequence numbers.
+		 * 
+		 * @return the sequence numbers
+		 */
+		long[] toLongArray() {
+			return Arrays.copyOfRange(sequences, start, start + size);
+		}
+
+		private void append(final long sequence) {
+			if (start + size == sequences.length) {
+				if (start > sequences.length / 2) {
+					// evicted entries take up most of the array
+					System.arraycopy(sequences, start, sequences, 0, size);
+				} else {
+					sequences = Arrays.copyOf(sequences, sequences.length * 2);
+					System.arraycopy(sequences, start, sequences, 0, size);
+				}
+				start = 0;
+			}
+			sequences[start + size++] = sequence;
+		}
+
+	}
+
+	/**
+	 * Removed sequence numbers, boxed only when asked for.
+	 */
+	private static final class Removed extends AbstractList<Long> {
+
+		private final long[] sequences;
+
+		private Removed(final long[] sequences) {
+			this.sequences = sequences;
+		}
+
+		@Override
+		public Long get(final int index) {
+			return sequences[index];
+		}
+
+		@Override
+		public int size() {
+			return sequences.length;
+		}
+
+	}
+
+	protected final ApduHistory history;
+	protected final Window owner;
+	protected final Dialogs dialogs;
+	protected final SequenceList sequences = new SequenceList();
+	protected final ListView<Long> list = new ListView<>(sequences);
+	protected final ComboBox<String> readerFilter = new ComboBox<>();
+	protected final TextField statusWordFilter = new TextField();
+	protected final CheckBox follow = new CheckBox();
+	protected final Label count = new Label();
+	protected final Button exportBtn = new Button();
+
+	private final Timeline timeline;
+	private long scanned;
+	private String readerName;
+	private StatusWordPattern swPattern;
+	private boolean swNegate;
+
+	/**
+	 * Creates a new {@link HistoryPane}.
+	 * 
+	 * @param history
+	 *            the history to show
+	 * @param owner
+	 *            the owning window
+	 * @param dialogs
+	 *            the dialogs for reporting errors
+	 */
+	public HistoryPane(final ApduHistory history, final Window owner, final Dialogs dialogs) {
+		super();
+		this.history = history;
+		this.owner = owner;
+		this.dialogs = dialogs;
+		setText("History");
+		setExpanded(false);
+
+		list.setFixedCellSize(CELL_SIZE);
+		list.setPrefHeight(CELL_SIZE * 12);
+		list.setPlaceholder(new Label("No commands sent yet"));
+		list.setCellFactory(listView -> new ListCell<Long>() {
+
+			@Override
+			protected void updateItem(final Long sequence, final boolean empty) {
+				super.updateItem(sequence, empty);
+				if (empty || sequence == null) {
+					setText(null);
+				} else {
+					final String line = history.format(sequence);
+					setText(line == null ? "(overwritten)" : line.replace('\t', ' '));
+				}
+			}
+
+		});
+
+		readerFilter.getItems().add(ALL_READERS);
+		readerFilter.setValue(ALL_READERS);
+		readerFilter.setOnShowing(event -> updateReaders());
+		readerFilter.setOnAction(event -> filterChanged());
+		statusWordFilter.setPromptText("status word, e.g. 6CXX or !9000");
+		statusWordFilter.setPrefColumnCount(12);
+		statusWordFilter.textProperty().addListener(property -> filterChanged());
+		follow.setText("Follow");
+		follow.setSelected(true);
+		exportBtn.getStyleClass().add("emr-button");
+		exportBtn.setText("Export...");
+		exportBtn.setOnAction(actionEvent -> export());
+
+		final HBox filterPane = new HBox();
+		filterPane.setSpacing(10.0);
+		filterPane.setAlignment(Pos.CENTER_LEFT);
+		filterPane.getChildren().addAll(readerFilter, statusWordFilter, follow, exportBtn, count);
+
+		final VBox contents = new VBox();
+		contents.setSpacing(10.0);
+		contents.getChildren().addAll(filterPane, list);
+		setContent(contents);
+
+		timeline = new Timeline(new KeyFrame(Duration.seconds(1.0), event -> {
+			if (isExpanded()) {
+				refresh();
+			}
+		}));
+		timeline.setCycleCount(Animation.INDEFINITE);
+		timeline.play();
+		expandedProperty().addListener(property -> {
+			if (isExpanded()) {
+				refresh();
+			}
+		});
+	}
+
+	/**
+	 * Stops following the history.
+	 */
+	public void stop() {
+		timeline.stop();
+	}
+
+	/**
+	 * Drops the entries that were overwritten in the history, and appends the new entries that pass the filters.
+	 */
+	protected void refresh() {
+		final long first = history.getFirstSequence();
+		final long next = history.getNextSequence();
+		sequences.update(first, Math.max(scanned, first), next, this::matches);
+		scanned = next;
+		count.setText(String.format("%d of %d commands", sequences.size(), next - first));
+		if (follow.isSelected() && !sequences.isEmpty()) {
+			list.scrollTo(sequences.size() - 1);
+		}
+	}
+
+	/**
+	 * Reads the filters, and rebuilds the list if they are valid.
+	 */
+	protected void filterChanged() {
+		final boolean valid = parseStatusWordFilter(statusWordFilter.getText());
+		statusWordFilter.setStyle(valid ? null : "-fx-text-fill: red;");
+		if (valid) {
+			final String reader = readerFilter.getValue();
+			readerName = reader == null || ALL_READERS.equals(reader) ? null : reader;
+			sequences.reset();
+			scanned = 0L;
+			refresh();
+		}
+	}
+
+	/**
+	 * Lets the user choose a file, and writes the entries that pass the filters to it in the background, one tab separated line per entry.
+	 */
+	protected void export() {
+		final FileChooser chooser = new FileChooser();
+		chooser.setTitle("Export APDU history");
+		chooser.setInitialFileName("apdu-history.tsv");
+		final File file = chooser.showSaveDialog(owner);
+		if (file == null) {
+			return;
+		}
+		refresh();
+		final long[] snapshot = sequences.toLongArray();
+		CompletableFuture.runAsync(() -> {
+			int written = 0;
+			try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+				writer.write("timestamp\treader\tcard\tduration\tsw\tcommand -> response");
+				writer.newLine();
+				for (final long sequence : snapshot) {
+					final String line = history.format(sequence);
+					if (line != null) {
+						writer.write(line);
+						writer.newLine();
+						written++;
+					}
+				}
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "An error occurred", e);
+				dialogs.error(e, null);
+				return;
+			}
+			LOG.info(String.format("Exported %d commands to %s", written, file));
+		});
+	}
+
+	private boolean matches(final long sequence) {
+		return history.matches(sequence, readerName, swPattern, swNegate);
+	}
+
+	private void updateReaders() {
+		final List<String> names = history.getReaderNames();
+		// reader names are only ever added, so the current selection stays put
+		for (int i = readerFilter.getItems().size() - 1; i < names.size(); i++) {
+			readerFilter.getItems().add(names.get(i));
+		}
+	}
+
+	/**
+	 * Parses a status word filter: a {@link StatusWordPattern}, optionally preceded by ! to match all other status words. The current
+	 * filter is only replaced if the text is valid.
+	 * 
+	 * @param text
+	 *            the filter text
+	 * @return <code>true</code> if the filter is empty or valid
+	 */
+	private boolean parseStatusWordFilter(final String text) {
+		String pattern = text == null ? "" : text.trim();
+		if (pattern.isEmpty()) {
+			swPattern = null;
+			swNegate = false;
+			return true;
+		}
+		final boolean negate = pattern.startsWith("!");
+		if (negate) {
+			pattern = pattern.substring(1);
+		}
+		try {
+			swPattern = StatusWordPattern.parse(pattern);
+		} catch (final IllegalArgumentException e) {
+			return false;
+		}
+		swNegate = negate;
+		return true;
+	}
+
+}
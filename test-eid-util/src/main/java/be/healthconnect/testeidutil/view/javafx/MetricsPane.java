@@ -0,0 +1,227 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.view.javafx;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+import be.healthconnect.testeidutil.metrics.CardMetrics;
+import be.healthconnect.testeidutil.metrics.CardMetrics.Phase;
+import be.healthconnect.testeidutil.metrics.LatencyHistogram;
+import be.healthconnect.testeidutil.metrics.ReaderMetrics;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.geometry.Pos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TitledPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.util.Duration;
+
+/**
+ * Collapsible live view of the {@link CardMetrics}: latency percentiles per phase and per card reader, command counts per instruction and
+ * a sparkline of the APDU throughput. The metrics are sampled once per second on the JavaFX Application Thread; the tables are only
+ * refreshed while the pane is expanded.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class MetricsPane extends TitledPane {
+
+	private static final int SPARKLINE_SAMPLES = 60;
+	private static final double SPARKLINE_WIDTH = 240.0;
+	private static final double SPARKLINE_HEIGHT = 40.0;
+
+	/**
+	 * Table row.
+	 * 
+	 * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+	 */
+	protected static final class Row {
+
+		final String name;
+		final String count;
+		final String errors;
+		final String p50;
+		final String p99;
+		final String max;
+
+		Row(final String name, final long count, final String errors, final LatencyHistogram histogram) {
+			this.name = name;
+			this.count = Long.toString(count);
+			this.errors = errors;
+			this.p50 = millis(histogram.getPercentileNanos(50.0));
+			this.p99 = millis(histogram.getPercentileNanos(99.0));
+			this.max = millis(histogram.getMaxNanos());
+		}
+
+	}
+
+	protected final CardMetrics metrics;
+	protected final TableView<Row> phaseTable = new TableView<>();
+	protected final TableView<Row> readerTable = new TableView<>();
+	protected final Label instructions = new Label();
+	protected final Label throughput = new Label();
+	protected final Canvas sparkline = new Canvas(SPARKLINE_WIDTH, SPARKLINE_HEIGHT);
+
+	private final double[] samples = new double[SPARKLINE_SAMPLES];
+	private final Timeline timeline;
+	private int sampleIndex;
+	private long lastCommandCount;
+	private long lastSampleNanos;
+
+	/**
+	 * Creates a new {@link MetricsPane}.
+	 * 
+	 * @param metrics
+	 *            the metrics to show
+	 */
+	public MetricsPane(final CardMetrics metrics) {
+		super();
+		this.metrics = metrics;
+		setText("Metrics");
+		setExpanded(false);
+
+		phaseTable.getColumns().add(column("Phase", 160.0, row -> row.name));
+		addLatencyColumns(phaseTable);
+		phaseTable.setPrefHeight(170.0);
+
+		readerTable.getColumns().add(column("Reader", 200.0, row -> row.name));
+		readerTable.getColumns().add(column("Errors", 60.0, row -> row.errors));
+		addLatencyColumns(readerTable);
+		readerTable.setPlaceholder(new Label("No commands sent yet"));
+		readerTable.setPrefHeight(120.0);
+
+		instructions.setWrapText(true);
+
+		final HBox throughputPane = new HBox();
+		throughputPane.setSpacing(10.0);
+		throughputPane.setAlignment(Pos.CENTER_LEFT);
+		throughputPane.getChildren().addAll(sparkline, throughput);
+
+		final VBox contents = new VBox();
+		contents.setSpacing(10.0);
+		contents.getChildren().addAll(throughputPane, phaseTable, readerTable, instructions);
+		setContent(contents);
+
+		lastCommandCount = metrics.getHistogram(Phase.TRANSMIT).getCount();
+		lastSampleNanos = System.nanoTime();
+		timeline = new Timeline(new KeyFrame(Duration.seconds(1.0), event -> sample()));
+		timeline.setCycleCount(Animation.INDEFINITE);
+		timeline.play();
+		expandedProperty().addListener(property -> {
+			if (isExpanded()) {
+				refresh();
+			}
+		});
+	}
+
+	/**
+	 * Stops sampling the metrics.
+	 */
+	public void stop() {
+		timeline.stop();
+	}
+
+	/**
+	 * Takes a throughput sample, and refreshes the view if expanded.
+	 */
+	protected void sample() {
+		final long now = System.nanoTime();
+		final long commandCount = metrics.getHistogram(Phase.TRANSMIT).getCount();
+		final double rate = (commandCount - lastCommandCount) * 1e9 / Math.max(1L, now - lastSampleNanos);
+		lastCommandCount = commandCount;
+		lastSampleNanos = now;
+		samples[sampleIndex] = rate;
+		sampleIndex = (sampleIndex + 1) % SPARKLINE_SAMPLES;
+		if (isExpanded()) {
+			refresh();
+		}
+	}
+
+	/**
+	 * Refreshes the tables, the instruction counts and the sparkline.
+	 */
+	protected void refresh() {
+		final List<Row> phaseRows = new ArrayList<>();
+		for (final Phase phase : Phase.values()) {
+			final LatencyHistogram histogram = metrics.getHistogram(phase);
+			phaseRows.add(new Row(phase.getLabel(), histogram.getCount(), "", histogram));
+		}
+		phaseTable.getItems().setAll(phaseRows);
+
+		final List<ReaderMetrics> readers = metrics.getReaders();
+		readers.sort(Comparator.comparing(ReaderMetrics::getTerminalName));
+		final List<Row> readerRows = new ArrayList<>();
+		for (final ReaderMetrics reader : readers) {
+			readerRows.add(new Row(reader.getTerminalName(), reader.getCommandCount(), Long.toString(reader.getErrorCount()),
+					reader.getTransmitHistogram()));
+		}
+		readerTable.getItems().setAll(readerRows);
+
+		final StringBuilder text = new StringBuilder("Commands per INS:");
+		for (int ins = 0; ins < 256; ins++) {
+			final long count = metrics.getInstructionCount(ins);
+			if (count > 0) {
+				text.append(String.format("  %02X: %d", ins, count));
+			}
+		}
+		instructions.setText(text.toString());
+
+		final double current = samples[(sampleIndex + SPARKLINE_SAMPLES - 1) % SPARKLINE_SAMPLES];
+		throughput.setText(String.format("%.1f APDU/s", current));
+		drawSparkline();
+	}
+
+	private void drawSparkline() {
+		final GraphicsContext gc = sparkline.getGraphicsContext2D();
+		gc.clearRect(0.0, 0.0, SPARKLINE_WIDTH, SPARKLINE_HEIGHT);
+		double max = 1.0;
+		for (final double sample : samples) {
+			max = Math.max(max, sample);
+		}
+		gc.setStroke(Color.STEELBLUE);
+		gc.setLineWidth(1.5);
+		gc.beginPath();
+		for (int i = 0; i < SPARKLINE_SAMPLES; i++) {
+			// oldest sample first
+			final double sample = samples[(sampleIndex + i) % SPARKLINE_SAMPLES];
+			final double x = i * SPARKLINE_WIDTH / (SPARKLINE_SAMPLES - 1);
+			final double y = SPARKLINE_HEIGHT - 1.0 - sample / max * (SPARKLINE_HEIGHT - 2.0);
+			if (i == 0) {
+				gc.moveTo(x, y);
+			} else {
+				gc.lineTo(x, y);
+			}
+		}
+		gc.stroke();
+	}
+
+	private static void addLatencyColumns(final TableView<Row> table) {
+		table.getColumns().add(column("Count", 70.0, row -> row.count));
+		table.getColumns().add(column("p50 (ms)", 70.0, row -> row.p50));
+		table.getColumns().add(column("p99 (ms)", 70.0, row -> row.p99));
+		table.getColumns().add(column("Max (ms)", 70.0, row -> row.max));
+	}
+
+	private static String millis(final long nanos) {
+		return String.format("%.3f", nanos / 1000000.0);
+	}
+
+	private static TableColumn<Row, String> column(final String title, final double prefWidth, final Function<Row, String> value) {
+		final TableColumn<Row, String> column = new TableColumn<>(title);
+		column.setPrefWidth(prefWidth);
+		column.setCellValueFactory(features -> new ReadOnlyStringWrapper(value.apply(features.getValue())));
+		return column;
+	}
+
+}
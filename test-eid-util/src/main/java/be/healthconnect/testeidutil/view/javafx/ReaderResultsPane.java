@@ -0,0 +1,128 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.view.javafx;
+
+import java.util.List;
+import java.util.function.Function;
+
+import be.healthconnect.testeidutil.card.ReaderResult;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TitledPane;
+import javafx.scene.layout.VBox;
+
+/**
+ * Collapsible summary table of the per-reader results of a multi-reader run.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class ReaderResultsPane extends TitledPane {
+
+	/**
+	 * Table row.
+	 * 
+	 * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+	 */
+	protected static final class Row {
+
+		final String reader;
+		final String status;
+		final String result;
+		final String time;
+
+		Row(final String reader, final String status, final String result, final String time) {
+			this.reader = reader;
+			this.status = status;
+			this.result = result;
+			this.time = time;
+		}
+
+	}
+
+	protected final TableView<Row> table = new TableView<>();
+	protected final Label summary = new Label();
+
+	/**
+	 * Creates a new {@link ReaderResultsPane}.
+	 */
+	public ReaderResultsPane() {
+		super();
+		setText("Readers");
+		setExpanded(false);
+
+		table.getColumns().add(column("Reader", 200.0, row -> row.reader));
+		table.getColumns().add(column("Status", 60.0, row -> row.status));
+		table.getColumns().add(column("Result", 300.0, row -> row.result));
+		table.getColumns().add(column("Time (ms)", 80.0, row -> row.time));
+		table.setPlaceholder(new Label("No multi-reader results"));
+		table.setPrefHeight(200.0);
+
+		final VBox contents = new VBox();
+		contents.setSpacing(10.0);
+		contents.getChildren().addAll(summary, table);
+		setContent(contents);
+	}
+
+	/**
+	 * Shows the given multi-reader results, and expands the pane.
+	 * 
+	 * @param results
+	 *            the per-reader results
+	 * @param formatter
+	 *            formats a successful result for display
+	 * @param wallNanos
+	 *            the elapsed time of the whole run in nanoseconds
+	 */
+	public <V> void show(final List<ReaderResult<V>> results, final Function<V, String> formatter, final long wallNanos) {
+		table.getItems().clear();
+		long totalNanos = 0L;
+		int failed = 0;
+		for (final ReaderResult<V> result : results) {
+			totalNanos += result.getDurationNanos();
+			if (!result.isSuccess()) {
+				failed++;
+			}
+			table.getItems().add(toRow(result, formatter));
+		}
+		summary.setText(String.format("%d readers, %d failed: %.1f ms elapsed, %.1f ms card time", results.size(), failed,
+				wallNanos / 1000000.0, totalNanos / 1000000.0));
+		setExpanded(true);
+	}
+
+	/**
+	 * Appends a single reader result to the table, e.g. the result of a task that ran automatically on card insertion.
+	 * 
+	 * @param result
+	 *            the reader result
+	 * @param formatter
+	 *            formats a successful result for display
+	 */
+	public <V> void add(final ReaderResult<V> result, final Function<V, String> formatter) {
+		table.getItems().add(toRow(result, formatter));
+		table.scrollTo(table.getItems().size() - 1);
+		summary.setText(String.format("Last result: %s", result.getTerminalName()));
+	}
+
+	private static <V> Row toRow(final ReaderResult<V> result, final Function<V, String> formatter) {
+		final String text;
+		if (result.isSuccess()) {
+			text = formatter.apply(result.getValue());
+		} else {
+			final String message = result.getError().getLocalizedMessage();
+			text = message == null || message.isEmpty() ? result.getError().getClass().getName() : message;
+		}
+		return new Row(result.getTerminalName(), result.isSuccess() ? "OK" : "ERROR", text,
+				String.format("%.1f", result.getDurationNanos() / 1000000.0));
+	}
+
+	private static TableColumn<Row, String> column(final String title, final double prefWidth, final Function<Row, String> value) {
+		final TableColumn<Row, String> column = new TableColumn<>(title);
+		column.setPrefWidth(prefWidth);
+		column.setCellValueFactory(features -> new ReadOnlyStringWrapper(value.apply(features.getValue())));
+		return column;
+	}
+
+}
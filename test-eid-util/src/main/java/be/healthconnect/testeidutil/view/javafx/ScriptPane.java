@@ -0,0 +1,228 @@
+/*
+ * (C) 2016 HealthConnect NV. All rights reserved.
+ */
+package be.healthconnect.testeidutil.view.javafx;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import be.healthconnect.testeidutil.card.ApduScript;
+import be.healthconnect.testeidutil.card.ApduScript.StepResult;
+import be.healthconnect.testeidutil.card.CardExecutor;
+import be.healthconnect.testeidutil.card.CardSessionManager;
+import be.healthconnect.testeidutil.util.HexCodec;
+import be.healthconnect.testeidutil.view.Dialogs;
+import javafx.application.Platform;
+import javafx.beans.value.ObservableBooleanValue;
+import javafx.scene.control.Button;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TitledPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
+import javafx.stage.Window;
+
+/**
+ * Collapsible pane for running APDU scripts (see {@link ApduScript}) within a single exclusive card section. Responses are shown as they
+ * arrive.
+ * 
+ * @author <a href="mailto:dennis.wagelaar@healthconnect.be">Dennis Wagelaar</a>
+ */
+public class ScriptPane extends TitledPane {
+
+	private static final Logger LOG = Logger.getLogger(ScriptPane.class.getName());
+
+	protected final Window owner;
+	protected final CardSessionManager sessionManager;
+	protected final Dialogs dialogs;
+	protected final ObservableBooleanValue allReaders;
+	protected final ReaderResultsPane resultsPane;
+	protected final TextArea script = new TextArea();
+	protected final TextArea output = new TextArea();
+	protected final Button loadBtn = new Button();
+	protected final Button runBtn = new Button();
+
+	/**
+	 * Creates a new {@link ScriptPane}.
+	 * 
+	 * @param owner
+	 *            the owning window
+	 * @param sessionManager
+	 *            the card session manager
+	 * @param dialogs
+	 *            the dialogs for reporting errors
+	 * @param allReaders
+	 *            whether to run scripts on all card readers that hold a card
+	 * @param resultsPane
+	 *            the pane that shows the results of multi-reader runs
+	 */
+	public ScriptPane(final Window owner, final CardSessionManager sessionManager, final Dialogs dialogs,
+			final ObservableBooleanValue allReaders, final ReaderResultsPane resultsPane) {
+		super();
+		this.owner = owner;
+		this.sessionManager = sessionManager;
+		this.dialogs = dialogs;
+		this.allReaders = allReaders;
+		this.resultsPane = resultsPane;
+		setText("Script");
+		setExpanded(false);
+
+		script.setPromptText("APDU script: one command in hex per line, optionally followed by -> expected status word");
+		script.setPrefRowCount(8);
+		output.setPromptText("script output");
+		output.setEditable(false);
+		output.setPrefRowCount(8);
+
+		loadBtn.getStyleClass().add("emr-button");
+		loadBtn.setText("Load script...");
+		loadBtn.setOnAction(actionEvent -> loadScript());
+		runBtn.getStyleClass().add("emr-button");
+		runBtn.setText("Run script");
+		runBtn.setOnAction(actionEvent -> runScript());
+
+		final HBox btnPane = new HBox();
+		btnPane.setSpacing(10.0);
+		btnPane.getChildren().addAll(runBtn, loadBtn);
+
+		final VBox contents = new VBox();
+		contents.setSpacing(10.0);
+		contents.getChildren().addAll(script, btnPane, output);
+		setContent(contents);
+	}
+
+	/**
+	 * Lets the user choose a script file and loads it into the script editor.
+	 */
+	protected void loadScript() {
+		final FileChooser chooser = new FileChooser();
+		chooser.setTitle("Load APDU script");
+		final File file = chooser.showOpenDialog(owner);
+		if (file != null) {
+			try {
+				script.setText(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "An error occurred", e);
+				dialogs.error(e, null);
+			}
+		}
+	}
+
+	/**
+	 * Parses the script in the editor.
+	 * 
+	 * @return the parsed script
+	 * @throws IllegalArgumentException
+	 *             if the script contains a syntax error
+	 */
+	public ApduScript parseScript() {
+		return ApduScript.parse(script.getText());
+	}
+
+	/**
+	 * Runs the script in the editor on the card worker thread, and streams the responses to the output area.
+	 */
+	protected void runScript() {
+		final ApduScript apduScript;
+		try {
+			apduScript = parseScript();
+		} catch (final IllegalArgumentException e) {
+			LOG.log(Level.WARNING, "An error occurred", e);
+			dialogs.error(e, null);
+			return;
+		}
+		output.clear();
+		runBtn.setDisable(true);
+		if (allReaders.get()) {
+			runScriptOnAllReaders(apduScript);
+			return;
+		}
+		final CardExecutor executor = sessionManager.getExecutor();
+		executor.submit(apduScript.task(Collections.emptyMap(), result -> Platform.runLater(() -> appendResult(result))))
+				.whenComplete((results, error) -> {
+					runBtn.setDisable(false);
+					if (error != null) {
+						final Throwable cause = CardExecutor.unwrap(error);
+						LOG.log(Level.WARNING, "An error occurred", cause);
+						dialogs.error(cause, null);
+					} else {
+						appendSummary(apduScript, results);
+					}
+				});
+	}
+
+	/**
+	 * Runs the script concurrently on all card readers that hold a card, and shows the per-reader results.
+	 * 
+	 * @param apduScript
+	 *            the script to run
+	 */
+	protected void runScriptOnAllReaders(final ApduScript apduScript) {
+		final long start = System.nanoTime();
+		sessionManager.submitToAll(session -> apduScript.execute(session, Collections.emptyMap(),
+				result -> Platform.runLater(() -> appendResult(session.getTerminalName(), result)))).whenComplete((results, error) -> {
+					runBtn.setDisable(false);
+					if (error != null) {
+						final Throwable cause = CardExecutor.unwrap(error);
+						LOG.log(Level.WARNING, "An error occurred", cause);
+						dialogs.error(cause, null);
+					} else {
+						resultsPane.show(results, stepResults -> (apduScript.isPassed(stepResults) ? "Passed: " : "FAILED: ")
+								+ stepResults.size() + " of " + apduScript.getSteps().size() + " commands", System.nanoTime() - start);
+					}
+				});
+	}
+
+	/**
+	 * Appends a single step result to the output area.
+	 * 
+	 * @param result
+	 *            the step result
+	 */
+	protected void appendResult(final StepResult result) {
+		appendResult(null, result);
+	}
+
+	/**
+	 * Appends a single step result of the given card reader to the output area.
+	 * 
+	 * @param terminalName
+	 *            the card reader name, or <code>null</code> for the default card reader
+	 * @param result
+	 *            the step result
+	 */
+	protected void appendResult(final String terminalName, final StepResult result) {
+		final StringBuilder line = new StringBuilder();
+		if (terminalName != null) {
+			line.append('[').append(terminalName).append("] ");
+		}
+		line.append(result.getStep().getLine()).append(": > ");
+		HexCodec.append(line, result.getCommand().getBytes());
+		line.append('\n');
+		if (terminalName != null) {
+			line.append('[').append(terminalName).append("] ");
+		}
+		line.append(result.getStep().getLine()).append(": < ");
+		HexCodec.append(line, result.getResponse().getBytes());
+		line.append(String.format(" (%.1f ms)", result.getDurationNanos() / 1000000.0));
+		if (!result.isPassed()) {
+			line.append(" expected ").append(result.getStep().getExpected());
+		}
+		output.appendText(line.append('\n').toString());
+	}
+
+	private void appendSummary(final ApduScript apduScript, final List<StepResult> results) {
+		long totalNanos = 0L;
+		for (final StepResult result : results) {
+			totalNanos += result.getDurationNanos();
+		}
+		output.appendText(String.format("%s: %d of %d commands in %.1f ms\n", apduScript.isPassed(results) ? "Passed" : "FAILED",
+				results.size(), apduScript.getSteps().size(), totalNanos / 1000000.0));
+	}
+
+}